@@ -29,4 +29,7 @@ public @interface AfterCall {
     Class<?> clazz();
 
     String method();
+
+    // 每 sampleRate 次执行到织入点时调用一次织入方法，默认每次都调用，适合 onDraw 等高频方法
+    int sampleRate() default 1;
 }
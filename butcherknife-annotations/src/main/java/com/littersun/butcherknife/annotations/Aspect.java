@@ -24,4 +24,6 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 public @interface Aspect {
+    // 同一切点有多个织入方法时的执行顺序，数值越小 Before 越先执行、After 越后执行
+    int precedence() default 0;
 }
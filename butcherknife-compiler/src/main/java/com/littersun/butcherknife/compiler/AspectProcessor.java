@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.compiler;
+
+import com.littersun.butcherknife.annotations.AfterCall;
+import com.littersun.butcherknife.annotations.AfterCalls;
+import com.littersun.butcherknife.annotations.AfterSuperExecute;
+import com.littersun.butcherknife.annotations.AfterSuperExecutes;
+import com.littersun.butcherknife.annotations.Aspect;
+import com.littersun.butcherknife.annotations.BeforeCall;
+import com.littersun.butcherknife.annotations.BeforeCalls;
+import com.littersun.butcherknife.annotations.BeforeSuperExecute;
+import com.littersun.butcherknife.annotations.BeforeSuperExecutes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+// 编译 Aspect 类时检查织入方法的签名，并把解析好的织入规则写入 META-INF/butcherknife/aspects，
+// 插件只需要读取这些文件，不用再扫描所有的 class
+public class AspectProcessor extends AbstractProcessor {
+    public static final String ASPECT_INDEX = "META-INF/butcherknife/aspects";
+
+    private final Set<String> mAspectClasses = new TreeSet<>();
+    private final Set<String> mCallPointcuts = new TreeSet<>();
+    private final Set<String> mExecutePointcuts = new TreeSet<>();
+    private final List<Element> mOriginatingElements = new ArrayList<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(Aspect.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Aspect.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@Aspect 只能用于类");
+                continue;
+            }
+            processAspect((TypeElement) element);
+        }
+        if (roundEnv.processingOver()) {
+            writeAspectIndex();
+        }
+        return false;
+    }
+
+    private void processAspect(TypeElement aspect) {
+        if (!aspect.getModifiers().contains(Modifier.PUBLIC)) {
+            error(aspect, "织入类必须是 public");
+            return;
+        }
+        String aspectClassName = getInternalName(aspect);
+        int precedence = aspect.getAnnotation(Aspect.class).precedence();
+        mAspectClasses.add(aspectClassName);
+        mOriginatingElements.add(aspect);
+
+        for (ExecutableElement method : ElementFilter.methodsIn(aspect.getEnclosedElements())) {
+            for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+                for (PointcutAnnotation pointcut : getPointcutAnnotations(annotation)) {
+                    processPointcut(aspectClassName, precedence, method, pointcut);
+                }
+            }
+        }
+    }
+
+    private List<PointcutAnnotation> getPointcutAnnotations(AnnotationMirror annotation) {
+        String annotationName = ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+        List<PointcutAnnotation> pointcuts = new ArrayList<>();
+        if (annotationName.equals(BeforeCall.class.getCanonicalName())) {
+            pointcuts.add(new PointcutAnnotation(annotation, true, false));
+        } else if (annotationName.equals(AfterCall.class.getCanonicalName())) {
+            pointcuts.add(new PointcutAnnotation(annotation, true, true));
+        } else if (annotationName.equals(BeforeSuperExecute.class.getCanonicalName())) {
+            pointcuts.add(new PointcutAnnotation(annotation, false, false));
+        } else if (annotationName.equals(AfterSuperExecute.class.getCanonicalName())) {
+            pointcuts.add(new PointcutAnnotation(annotation, false, true));
+        } else if (annotationName.equals(BeforeCalls.class.getCanonicalName())) {
+            addRepeatedAnnotations(pointcuts, annotation, true, false);
+        } else if (annotationName.equals(AfterCalls.class.getCanonicalName())) {
+            addRepeatedAnnotations(pointcuts, annotation, true, true);
+        } else if (annotationName.equals(BeforeSuperExecutes.class.getCanonicalName())) {
+            addRepeatedAnnotations(pointcuts, annotation, false, false);
+        } else if (annotationName.equals(AfterSuperExecutes.class.getCanonicalName())) {
+            addRepeatedAnnotations(pointcuts, annotation, false, true);
+        }
+        return pointcuts;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addRepeatedAnnotations(List<PointcutAnnotation> pointcuts, AnnotationMirror annotation, boolean isCall, boolean isAfter) {
+        Object value = getAnnotationValue(annotation, "value");
+        if (value == null) {
+            return;
+        }
+        for (AnnotationValue item : (List<? extends AnnotationValue>) value) {
+            pointcuts.add(new PointcutAnnotation((AnnotationMirror) item.getValue(), isCall, isAfter));
+        }
+    }
+
+    private void processPointcut(String aspectClassName, int precedence, ExecutableElement method, PointcutAnnotation pointcut) {
+        if (!method.getModifiers().contains(Modifier.PUBLIC) || !method.getModifiers().contains(Modifier.STATIC)) {
+            error(method, "织入方法必须是 public static");
+            return;
+        }
+        if (pointcut.mClazz.getKind() != TypeKind.DECLARED) {
+            error(method, "切点类必须是类或接口: " + pointcut.mClazz);
+            return;
+        }
+        TypeElement pointcutClass = (TypeElement) ((DeclaredType) pointcut.mClazz).asElement();
+        ExecutableElement pointcutMethod = findPointcutMethod(pointcutClass, pointcut.mMethod, method);
+        if (pointcutMethod == null) {
+            error(method, "在 " + pointcutClass.getQualifiedName() + " 中找不到与织入方法参数匹配的方法 " + pointcut.mMethod);
+            return;
+        }
+        if (!pointcutMethod.getModifiers().contains(Modifier.STATIC)) {
+            // 非静态方法的第一个参数是切点的 this 对象
+            List<? extends VariableElement> parameters = method.getParameters();
+            if (parameters.isEmpty() || !processingEnv.getTypeUtils().isAssignable(
+                    processingEnv.getTypeUtils().erasure(pointcutClass.asType()), processingEnv.getTypeUtils().erasure(parameters.get(0).asType()))) {
+                error(method, "织入方法的第一个参数必须是 " + pointcutClass.getQualifiedName() + " 或其父类型");
+                return;
+            }
+        }
+
+        if (pointcut.mSampleRate < 1) {
+            error(method, "sampleRate 必须大于 0");
+            return;
+        }
+
+        String line = (pointcut.mIsCall ? "call " : "execute ")
+                + getInternalName(pointcutClass) + "#" + pointcut.mMethod + getDescriptor(pointcutMethod)
+                + " " + (pointcut.mIsAfter ? "after " : "before ")
+                + aspectClassName + "#" + method.getSimpleName() + getDescriptor(method)
+                + " " + precedence
+                + (pointcut.mSampleRate > 1 ? " " + pointcut.mSampleRate : "");
+        if (pointcut.mIsCall) {
+            mCallPointcuts.add(line);
+        } else {
+            mExecutePointcuts.add(line);
+        }
+    }
+
+    // 与插件解析描述符的规则保持一致：沿着父类查找参数匹配的同名方法
+    private ExecutableElement findPointcutMethod(TypeElement pointcutClass, String methodName, ExecutableElement injectMethod) {
+        String staticParameters = getParameterDescriptor(injectMethod.getParameters(), 0);
+        String objectParameters = getParameterDescriptor(injectMethod.getParameters(), 1);
+        TypeElement type = pointcutClass;
+        while (type != null && !type.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                if (!method.getSimpleName().contentEquals(methodName)) {
+                    continue;
+                }
+                String parameters = getParameterDescriptor(method.getParameters(), 0);
+                if (parameters.equals(objectParameters) || parameters.equals(staticParameters)) {
+                    return method;
+                }
+            }
+            TypeMirror superclass = type.getSuperclass();
+            type = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return null;
+    }
+
+    private void writeAspectIndex() {
+        if (mAspectClasses.isEmpty()) {
+            return;
+        }
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ASPECT_INDEX,
+                    mOriginatingElements.toArray(new Element[0]));
+            try (Writer writer = file.openWriter()) {
+                for (String aspectClass : mAspectClasses) {
+                    writer.write("aspect " + aspectClass + "\n");
+                }
+                for (String pointcut : mCallPointcuts) {
+                    writer.write(pointcut + "\n");
+                }
+                for (String pointcut : mExecutePointcuts) {
+                    writer.write(pointcut + "\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "写入 " + ASPECT_INDEX + " 失败: " + e.getMessage());
+        }
+    }
+
+    private String getInternalName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString().replace('.', '/');
+    }
+
+    private String getDescriptor(ExecutableElement method) {
+        return getParameterDescriptor(method.getParameters(), 0) + getDescriptor(method.getReturnType());
+    }
+
+    private String getParameterDescriptor(List<? extends VariableElement> parameters, int start) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = start; i < parameters.size(); i++) {
+            builder.append(getDescriptor(parameters.get(i).asType()));
+        }
+        return builder.append(')').toString();
+    }
+
+    private String getDescriptor(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "Z";
+            case BYTE:
+                return "B";
+            case CHAR:
+                return "C";
+            case SHORT:
+                return "S";
+            case INT:
+                return "I";
+            case LONG:
+                return "J";
+            case FLOAT:
+                return "F";
+            case DOUBLE:
+                return "D";
+            case VOID:
+                return "V";
+            case ARRAY:
+                return "[" + getDescriptor(((ArrayType) type).getComponentType());
+            case DECLARED:
+                return "L" + getInternalName((TypeElement) ((DeclaredType) type).asElement()) + ";";
+            default:
+                TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+                if (erasure.getKind() == type.getKind()) {
+                    throw new IllegalArgumentException("unsupported type: " + type);
+                }
+                return getDescriptor(erasure);
+        }
+    }
+
+    private static Object getAnnotationValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class PointcutAnnotation {
+        final TypeMirror mClazz;
+        final String mMethod;
+        final boolean mIsCall;
+        final boolean mIsAfter;
+        final int mSampleRate;
+
+        PointcutAnnotation(AnnotationMirror annotation, boolean isCall, boolean isAfter) {
+            this.mClazz = (TypeMirror) getAnnotationValue(annotation, "clazz");
+            this.mMethod = (String) getAnnotationValue(annotation, "method");
+            this.mIsCall = isCall;
+            this.mIsAfter = isAfter;
+            // 使用默认值时 getElementValues 中没有该项
+            Object sampleRate = getAnnotationValue(annotation, "sampleRate");
+            this.mSampleRate = sampleRate == null ? 1 : (Integer) sampleRate;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.instrumentation;
+
+import com.littersun.butcherknife.plugin.ErrorLog;
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.SystemLog;
+import com.littersun.butcherknife.plugin.annotation.AnnotationScanner;
+import com.littersun.butcherknife.plugin.entity.InjectMethod;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+// 扫描整个工程的 Aspect 类，生成织入规则供各个 class 单独织入时使用
+@CacheableTask
+public class AspectModelTask extends DefaultTask {
+    // 织入规则之后追加的行，记录可能被 lambda 实现的 execute 切点类（接口或者找不到的类）
+    static final String LAMBDA_TARGET_PREFIX = "lambda ";
+
+    private final ConfigurableFileCollection mClasspath = getProject().files();
+    private final ConfigurableFileCollection mBootClasspath = getProject().files();
+    private final RegularFileProperty mOutputFile = getProject().getObjects().fileProperty();
+    private boolean mIsLogEnabled = true;
+    private boolean mIsAspectIndexEnabled;
+
+    @Classpath
+    public ConfigurableFileCollection getClasspath() {
+        return mClasspath;
+    }
+
+    @Classpath
+    public ConfigurableFileCollection getBootClasspath() {
+        return mBootClasspath;
+    }
+
+    @OutputFile
+    public RegularFileProperty getOutputFile() {
+        return mOutputFile;
+    }
+
+    @Internal
+    public boolean isLogEnabled() {
+        return mIsLogEnabled;
+    }
+
+    public void setLogEnabled(boolean logEnabled) {
+        mIsLogEnabled = logEnabled;
+    }
+
+    @Input
+    public boolean isAspectIndexEnabled() {
+        return mIsAspectIndexEnabled;
+    }
+
+    public void setAspectIndexEnabled(boolean aspectIndexEnabled) {
+        mIsAspectIndexEnabled = aspectIndexEnabled;
+    }
+
+    @TaskAction
+    public void generate() throws IOException {
+        Log log = mIsLogEnabled ? new SystemLog() : new ErrorLog();
+        AnnotationScanner scanner;
+        if (mIsAspectIndexEnabled) {
+            scanner = AnnotationScanner.fromAspectIndex(new ArrayList<>(mClasspath.getFiles()), log);
+        } else {
+            try (ClassHierarchy classHierarchy = new ClassHierarchy(log, new ArrayList<>(mBootClasspath.getFiles()))) {
+                scanner = new AnnotationScanner(new ArrayList<>(mClasspath.getFiles()), log, classHierarchy);
+            }
+        }
+        warnSampleRate(scanner);
+        List<String> model = new ArrayList<>(scanner.getAspectState());
+        List<File> classpath = new ArrayList<>(mClasspath.getFiles());
+        classpath.addAll(mBootClasspath.getFiles());
+        for (String className : scanner.getSuperExecutePointcutClasses().keySet()) {
+            if (!isClass(classpath, className)) {
+                model.add(LAMBDA_TARGET_PREFIX + className);
+            }
+        }
+        Files.write(mOutputFile.get().getAsFile().toPath(), model, StandardCharsets.UTF_8);
+    }
+
+    // 采样计数器需要生成新的类，AsmClassVisitorFactory 无法生成，instrumentation 织入时每次都调用织入方法
+    private void warnSampleRate(AnnotationScanner scanner) {
+        List<PointcutClass> pointcutClasses = new ArrayList<>(scanner.getCallPointcutClasses().values());
+        pointcutClasses.addAll(scanner.getSuperExecutePointcutClasses().values());
+        for (PointcutClass pointcutClass : pointcutClasses) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
+                    if (injectMethod.getSampleRate() > 1) {
+                        getLogger().warn("ButcherKnife: sampleRate of {}#{} is ignored by butcherknife.engine=instrumentation",
+                                injectMethod.getClassName().replace('/', '.'), injectMethod.getMethodName());
+                    }
+                }
+            }
+        }
+    }
+
+    // 找到了并且不是接口时返回 true，只有接口可以被 lambda 实现
+    private boolean isClass(List<File> classpath, String className) throws IOException {
+        String entryName = className + ".class";
+        for (File file : classpath) {
+            byte[] bytes = null;
+            if (file.isDirectory()) {
+                File classFile = new File(file, entryName);
+                if (classFile.isFile()) {
+                    bytes = Files.readAllBytes(classFile.toPath());
+                }
+            } else if (file.isFile()) {
+                try (JarFile jarFile = new JarFile(file)) {
+                    ZipEntry entry = jarFile.getEntry(entryName);
+                    if (entry != null) {
+                        try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                            bytes = IOUtils.toByteArray(inputStream);
+                        }
+                    }
+                }
+            }
+            if (bytes != null) {
+                return (new ClassReader(bytes).getAccess() & Opcodes.ACC_INTERFACE) == 0;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.instrumentation;
+
+import com.android.build.api.instrumentation.AsmClassVisitorFactory;
+import com.android.build.api.instrumentation.ClassContext;
+import com.android.build.api.instrumentation.ClassData;
+import com.littersun.butcherknife.plugin.Context;
+import com.littersun.butcherknife.plugin.ErrorLog;
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.SystemLog;
+import com.littersun.butcherknife.plugin.annotation.AnnotationScanner;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.inject.PointcutIndex;
+import com.littersun.butcherknife.plugin.scope.WeaveScope;
+
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public abstract class ButcherKnifeClassVisitorFactory implements AsmClassVisitorFactory<ButcherKnifeParameters> {
+    // 同一次构建中每个 class 都会创建一次 ClassVisitor，织入规则只解析一次
+    private static final Map<File, AspectModel> sAspectModels = new ConcurrentHashMap<>();
+
+    private volatile WeaveScope mWeaveScope;
+
+    @Override
+    public ClassVisitor createClassVisitor(ClassContext classContext, ClassVisitor nextClassVisitor) {
+        Log log = createLog();
+        Context context = new Context(log, new ClassContextHierarchy(log, classContext));
+        AspectModel aspectModel = getAspectModel(log);
+        return new WeavingClassVisitor(context, aspectModel.mScanner, aspectModel.mCallPointcutIndex, nextClassVisitor);
+    }
+
+    @Override
+    public boolean isInstrumentable(ClassData classData) {
+        if (!getWeaveScope().isClassIncluded(classData.getClassName().replace('.', '/'))) {
+            return false;
+        }
+        AspectModel aspectModel = getAspectModel(createLog());
+        // 调用切点和 lambda 可能出现在任何类中，ClassData 中没有常量池信息，只能交给织入时判断。
+        // 不能在 AspectModelTask 中按常量池预先列出候选类：织入规则文件是所有 class 织入结果的缓存 key，
+        // 写入候选类后任意一个 class 变化都会使全部缓存失效，代价比多经过一次 ClassVisitor 更大
+        if (!aspectModel.mCallPointcutIndex.isEmpty() || !aspectModel.mLambdaTargets.isEmpty()) {
+            return true;
+        }
+        Map<String, PointcutClass> executePointcutClasses = aspectModel.mScanner.getSuperExecutePointcutClasses();
+        for (String superClass : classData.getSuperClasses()) {
+            if (executePointcutClasses.containsKey(superClass.replace('.', '/'))) {
+                return true;
+            }
+        }
+        for (String anInterface : classData.getInterfaces()) {
+            if (executePointcutClasses.containsKey(anInterface.replace('.', '/'))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 每个 class 都会调用 isInstrumentable，范围规则只编译一次，includeJars/excludeJars 不支持，由 InstrumentationEngine 输出警告
+    private WeaveScope getWeaveScope() {
+        WeaveScope weaveScope = mWeaveScope;
+        if (weaveScope == null) {
+            ButcherKnifeParameters parameters = getParameters().get();
+            weaveScope = new WeaveScope(parameters.getIncludes().get().toArray(new String[0]), parameters.getExcludes().get().toArray(new String[0]),
+                    parameters.getExcludePackages().get().toArray(new String[0]), null, null);
+            mWeaveScope = weaveScope;
+        }
+        return weaveScope;
+    }
+
+    private Log createLog() {
+        return getParameters().get().getLogEnabled().getOrElse(true) ? new SystemLog() : new ErrorLog();
+    }
+
+    private AspectModel getAspectModel(Log log) {
+        File file = getParameters().get().getAspectModel().get().getAsFile();
+        AspectModel aspectModel = sAspectModels.get(file);
+        if (aspectModel == null || !aspectModel.isUpToDate(file)) {
+            try {
+                List<String> aspectState = new ArrayList<>();
+                Set<String> lambdaTargets = new HashSet<>();
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.startsWith(AspectModelTask.LAMBDA_TARGET_PREFIX)) {
+                        lambdaTargets.add(line.substring(AspectModelTask.LAMBDA_TARGET_PREFIX.length()));
+                    } else {
+                        aspectState.add(line);
+                    }
+                }
+                aspectModel = new AspectModel(file, AnnotationScanner.fromAspectState(aspectState, log), lambdaTargets);
+            } catch (IOException e) {
+                throw new UncheckedIOException("read aspect model failed: " + file, e);
+            }
+            sAspectModels.put(file, aspectModel);
+        }
+        return aspectModel;
+    }
+
+    private static final class AspectModel {
+        final long mLastModified;
+        final long mLength;
+        final AnnotationScanner mScanner;
+        final PointcutIndex mCallPointcutIndex;
+        final Set<String> mLambdaTargets;
+
+        AspectModel(File file, AnnotationScanner scanner, Set<String> lambdaTargets) {
+            this.mLastModified = file.lastModified();
+            this.mLength = file.length();
+            this.mScanner = scanner;
+            this.mLambdaTargets = lambdaTargets;
+            // 继承关系来自每个 class 各自的 ClassContext，不能跨 class 缓存匹配结果
+            this.mCallPointcutIndex = new PointcutIndex(scanner.getCallPointcutClasses(), false);
+        }
+
+        boolean isUpToDate(File file) {
+            return file.lastModified() == mLastModified && file.length() == mLength;
+        }
+    }
+}
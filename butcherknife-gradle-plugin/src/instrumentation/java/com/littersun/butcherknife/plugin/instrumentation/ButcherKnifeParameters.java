@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.instrumentation;
+
+import com.android.build.api.instrumentation.InstrumentationParameters;
+
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+public interface ButcherKnifeParameters extends InstrumentationParameters {
+    // AspectModelTask 生成的织入规则，只有规则变化时才会使已缓存的织入结果失效
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    RegularFileProperty getAspectModel();
+
+    @Input
+    ListProperty<String> getExcludePackages();
+
+    @Input
+    ListProperty<String> getIncludes();
+
+    @Input
+    ListProperty<String> getExcludes();
+
+    @Internal
+    Property<Boolean> getLogEnabled();
+}
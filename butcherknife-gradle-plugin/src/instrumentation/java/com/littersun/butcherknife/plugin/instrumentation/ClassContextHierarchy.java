@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.instrumentation;
+
+import com.android.build.api.instrumentation.ClassContext;
+import com.android.build.api.instrumentation.ClassData;
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+import com.littersun.butcherknife.plugin.hierarchy.ClassInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 通过 AGP 提供的 ClassContext 查询继承关系，不需要自己读取整个 classpath
+final class ClassContextHierarchy extends ClassHierarchy {
+    private final ClassContext mClassContext;
+
+    ClassContextHierarchy(Log log, ClassContext classContext) {
+        super(log, null);
+        mClassContext = classContext;
+    }
+
+    @Override
+    protected synchronized ClassInfo loadClassInfo(String className) {
+        ClassData classData = mClassContext.loadClassData(className.replace('/', '.'));
+        if (classData == null) {
+            return null;
+        }
+        // ClassData 已经包含了所有的父类和接口，全部作为直接父类型记录即可
+        List<String> superTypes = new ArrayList<>();
+        for (String superClass : classData.getSuperClasses()) {
+            superTypes.add(superClass.replace('.', '/'));
+        }
+        for (String anInterface : classData.getInterfaces()) {
+            superTypes.add(anInterface.replace('.', '/'));
+        }
+        String superName = superTypes.isEmpty() ? null : superTypes.remove(0);
+        ClassInfo classInfo = new ClassInfo(className, superName, superTypes.toArray(new String[0]), Collections.emptyList());
+        putClassInfo(classInfo);
+        return classInfo;
+    }
+}
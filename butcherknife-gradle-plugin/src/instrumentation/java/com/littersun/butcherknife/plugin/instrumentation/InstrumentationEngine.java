@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.instrumentation;
+
+import com.android.build.api.instrumentation.FramesComputationMode;
+import com.android.build.api.instrumentation.InstrumentationScope;
+import com.android.build.api.variant.ApplicationAndroidComponentsExtension;
+import com.android.build.gradle.AppExtension;
+import com.littersun.butcherknife.plugin.PluginExtension;
+
+import kotlin.Unit;
+
+import org.gradle.api.Project;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.TaskProvider;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+// 基于 AGP 7.0 的 AsmClassVisitorFactory 织入，每个 class 和依赖的 jar 单独织入和缓存
+public final class InstrumentationEngine {
+    private static final Attribute<String> ARTIFACT_TYPE = Attribute.of("artifactType", String.class);
+
+    private InstrumentationEngine() {
+    }
+
+    public static void register(Project project, AppExtension android, PluginExtension extension) {
+        ApplicationAndroidComponentsExtension components = project.getExtensions().getByType(ApplicationAndroidComponentsExtension.class);
+        components.onVariants(components.selector().all(), variant -> {
+            String variantName = variant.getName();
+            String capitalizedName = Character.toUpperCase(variantName.charAt(0)) + variantName.substring(1);
+            TaskProvider<AspectModelTask> aspectModelTask = project.getTasks().register("butcherknifeAspects" + capitalizedName, AspectModelTask.class, task -> {
+                task.getClasspath().from(project.getTasks().matching(compileTask -> compileTask.getName().equals("compile" + capitalizedName + "JavaWithJavac")
+                        || compileTask.getName().equals("compile" + capitalizedName + "Kotlin")));
+                task.getClasspath().from(getRuntimeClasses(project, variantName));
+                task.getBootClasspath().from((Callable<List<File>>) android::getBootClasspath);
+                task.getOutputFile().set(project.getLayout().getBuildDirectory().file("intermediates/butcherknife/" + variantName + "/aspects.txt"));
+                task.setLogEnabled(extension.isLogEnabled());
+                task.setAspectIndexEnabled(extension.isAspectIndexEnabled());
+            });
+
+            variant.transformClassesWith(ButcherKnifeClassVisitorFactory.class, InstrumentationScope.ALL, parameters -> {
+                parameters.getAspectModel().set(aspectModelTask.flatMap(AspectModelTask::getOutputFile));
+                parameters.getExcludePackages().set(project.provider(() -> toList(extension.getExcludePackages())));
+                parameters.getIncludes().set(project.provider(() -> toList(extension.getIncludes())));
+                parameters.getExcludes().set(project.provider(() -> toList(extension.getExcludes())));
+                parameters.getLogEnabled().set(project.provider(extension::isLogEnabled));
+                return Unit.INSTANCE;
+            });
+            variant.setAsmFramesComputationMode(FramesComputationMode.COMPUTE_FRAMES_FOR_INSTRUMENTED_METHODS);
+            return Unit.INSTANCE;
+        });
+        project.afterEvaluate(p -> warnUnsupportedOptions(project, extension));
+    }
+
+    // 这些选项需要生成新的类或者读取织入方法的字节码，AsmClassVisitorFactory 中无法完成；
+    // ClassData 中也没有 class 所在的 jar，无法按 jar 过滤
+    private static void warnUnsupportedOptions(Project project, PluginExtension extension) {
+        List<String> options = new ArrayList<>();
+        if (extension.getIncludeJars() != null && extension.getIncludeJars().length > 0) {
+            options.add("includeJars");
+        }
+        if (extension.getExcludeJars() != null && extension.getExcludeJars().length > 0) {
+            options.add("excludeJars");
+        }
+        if (extension.isDispatcherEnabled()) {
+            options.add("dispatcherEnabled");
+        }
+        if (extension.isSwitchboardEnabled()) {
+            options.add("switchboardEnabled");
+        }
+        if (extension.getInlineAdviceLimit() > 0) {
+            options.add("inlineAdviceLimit");
+        }
+        if (!options.isEmpty()) {
+            project.getLogger().warn("ButcherKnife: {} not supported by butcherknife.engine=instrumentation, ignored", String.join(", ", options));
+        }
+    }
+
+    private static List<String> toList(String[] values) {
+        return values == null ? Collections.<String>emptyList() : Arrays.asList(values);
+    }
+
+    private static FileCollection getRuntimeClasses(Project project, String variantName) {
+        return project.getConfigurations().getByName(variantName + "RuntimeClasspath").getIncoming().artifactView(view -> {
+            view.lenient(true);
+            view.attributes(attributes -> attributes.attribute(ARTIFACT_TYPE, "android-classes-jar"));
+        }).getFiles();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.instrumentation;
+
+import com.littersun.butcherknife.plugin.Context;
+import com.littersun.butcherknife.plugin.annotation.AnnotationScanner;
+import com.littersun.butcherknife.plugin.inject.PointcutIndex;
+import com.littersun.butcherknife.plugin.inject.visitor.DesugaredClassVisitor;
+import com.littersun.butcherknife.plugin.inject.visitor.DesugaringClassVisitor;
+import com.littersun.butcherknife.plugin.inject.visitor.InjectCallClassVisitor;
+import com.littersun.butcherknife.plugin.inject.visitor.InjectExecuteSuperClassVisitor;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.ClassNode;
+
+// AGP 只会遍历一次 class，lambda 需要的第二次处理通过先缓存到 ClassNode 中来完成
+final class WeavingClassVisitor extends ClassVisitor {
+    private final Context mContext;
+    private final ClassNode mClassNode;
+    private final DesugaringClassVisitor mDesugaringClassVisitor;
+    private final ClassVisitor mNextClassVisitor;
+
+    WeavingClassVisitor(Context context, AnnotationScanner scanner, PointcutIndex callPointcutIndex, ClassVisitor nextClassVisitor) {
+        this(context, scanner, callPointcutIndex, nextClassVisitor, new ClassNode(context.getASMVersion()));
+    }
+
+    private WeavingClassVisitor(Context context, AnnotationScanner scanner, PointcutIndex callPointcutIndex,
+                                ClassVisitor nextClassVisitor, ClassNode classNode) {
+        super(context.getASMVersion(), new DesugaringClassVisitor(
+                new InjectCallClassVisitor(
+                        new InjectExecuteSuperClassVisitor(classNode, context, scanner.getSuperExecutePointcutClasses()),
+                        context, callPointcutIndex, null),
+                context, scanner.getSuperExecutePointcutClasses(), null));
+        mContext = context;
+        mClassNode = classNode;
+        mDesugaringClassVisitor = (DesugaringClassVisitor) cv;
+        mNextClassVisitor = nextClassVisitor;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mContext.setClassName(name);
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitEnd() {
+        super.visitEnd();
+        if (mDesugaringClassVisitor.getPointcutMethods().isEmpty()) {
+            mClassNode.accept(mNextClassVisitor);
+        } else {
+            mClassNode.accept(new DesugaredClassVisitor(mNextClassVisitor, mContext, mDesugaringClassVisitor.getPointcutMethods()));
+        }
+    }
+}
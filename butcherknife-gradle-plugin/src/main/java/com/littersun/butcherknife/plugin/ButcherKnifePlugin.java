@@ -23,20 +23,31 @@ import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
 import java.io.File;
-import java.net.URL;
-import java.util.ArrayList;
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ButcherKnifePlugin implements Plugin<Project> {
+    // gradle.properties 中设置 butcherknife.engine=instrumentation 使用 AGP 7.0 的 instrumentation API 织入
+    private static final String ENGINE_PROPERTY = "butcherknife.engine";
+    private static final String ENGINE_INSTRUMENTATION = "instrumentation";
+    // instrumentation 引擎依赖 AGP 7.0 的 API，单独编译，只在选择该引擎时通过反射加载
+    private static final String INSTRUMENTATION_ENGINE_CLASS = "com.littersun.butcherknife.plugin.instrumentation.InstrumentationEngine";
+
     private Logger mLogger;
 
     @Override
     public void apply(Project target) {
         mLogger = target.getLogger();
         AppExtension android = target.getExtensions().findByType(AppExtension.class);
-        target.getExtensions().create("butcherknife", PluginExtension.class);
+        PluginExtension extension = target.getExtensions().create("butcherknife", PluginExtension.class);
+
+        if (ENGINE_INSTRUMENTATION.equals(target.findProperty(ENGINE_PROPERTY))) {
+            registerInstrumentationEngine(target, android, extension);
+            target.afterEvaluate(project -> checkJavaVersion());
+            return;
+        }
 
         ButcherKnifeTransform transform = new ButcherKnifeTransform(target);
         android.registerTransform(transform);
@@ -47,6 +58,21 @@ public class ButcherKnifePlugin implements Plugin<Project> {
         });
     }
 
+    private void registerInstrumentationEngine(Project target, AppExtension android, PluginExtension extension) {
+        try {
+            Class.forName(INSTRUMENTATION_ENGINE_CLASS).getMethod("register", Project.class, AppExtension.class, PluginExtension.class)
+                    .invoke(null, target, android, extension);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("ButcherKnifePlugin: register instrumentation engine failed", cause);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new RuntimeException("ButcherKnifePlugin: instrumentation engine requires Android Gradle Plugin 7.0 or above", e);
+        }
+    }
+
     private void checkJavaVersion() {
         String version = System.getProperty("java.version");
         Matcher matcher = Pattern.compile("^(1\\.[0-9]+)\\..*").matcher(version);
@@ -71,11 +97,7 @@ public class ButcherKnifePlugin implements Plugin<Project> {
             if (files == null || files.isEmpty()) {
                 throw new RuntimeException("ButcherKnifePlugin: get android.jar failed");
             }
-            List<URL> androidJars = new ArrayList<>();
-            for (File file : files) {
-                androidJars.add(file.toURL());
-            }
-            transform.setAndroidJars(androidJars);
+            transform.setAndroidJars(files);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("ButcherKnifePlugin: get android.jar failed");
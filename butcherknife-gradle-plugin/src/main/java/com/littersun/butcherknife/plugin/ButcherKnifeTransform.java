@@ -21,6 +21,7 @@ import com.android.build.api.transform.DirectoryInput;
 import com.android.build.api.transform.Format;
 import com.android.build.api.transform.JarInput;
 import com.android.build.api.transform.QualifiedContent;
+import com.android.build.api.transform.Status;
 import com.android.build.api.transform.Transform;
 import com.android.build.api.transform.TransformInput;
 import com.android.build.api.transform.TransformInvocation;
@@ -28,44 +29,112 @@ import com.android.build.api.transform.TransformOutputProvider;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.android.utils.FileUtils;
 import com.littersun.butcherknife.plugin.annotation.AnnotationScanner;
-import com.littersun.butcherknife.plugin.inject.visitor.ContextClassVisitor;
+import com.littersun.butcherknife.plugin.cache.WeaveCache;
+import com.littersun.butcherknife.plugin.cache.WeaveIndex;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+import com.littersun.butcherknife.plugin.inject.AdviceDispatcher;
+import com.littersun.butcherknife.plugin.inject.AdviceInliner;
+import com.littersun.butcherknife.plugin.inject.AdviceSampler;
+import com.littersun.butcherknife.plugin.inject.JoinPointSwitches;
+import com.littersun.butcherknife.plugin.inject.ConstantPoolFilter;
+import com.littersun.butcherknife.plugin.inject.ConstantPoolIndex;
+import com.littersun.butcherknife.plugin.inject.PointcutIndex;
 import com.littersun.butcherknife.plugin.inject.visitor.DesugaredClassVisitor;
 import com.littersun.butcherknife.plugin.inject.visitor.DesugaringClassVisitor;
 import com.littersun.butcherknife.plugin.inject.visitor.InjectCallClassVisitor;
 import com.littersun.butcherknife.plugin.inject.visitor.InjectExecuteSuperClassVisitor;
+import com.littersun.butcherknife.plugin.inject.visitor.JoinPointAnalyzer;
+import com.littersun.butcherknife.plugin.report.TransformProfiler;
+import com.littersun.butcherknife.plugin.scope.WeaveScope;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class ButcherKnifeTransform extends Transform {
+    private static final String ASPECT_STATE_FILE = "aspects.txt";
+    private static final String WEAVE_INDEX_FILE = "weave-index.txt";
+    private static final String OPTIONS_STATE_FILE = "options.txt";
+    private static final String DISPATCHER_OUTPUT_NAME = "butcherknife-dispatch";
+    private static final String SWITCHES_OUTPUT_NAME = "butcherknife-switches";
+    private static final String SAMPLER_OUTPUT_NAME = "butcherknife-samples";
+    // 重新写入的 entry 使用固定的时间，保证相同的输入得到完全相同的输出
+    private static final long ZIP_ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
     private final PluginExtension mPluginExtension;
+    private final File mGradleUserHomeDir;
+    private final File mReportDir;
+    private final File mLogDir;
+    private final File mMappingDir;
     private Log mLog;
-    private List<URL> mAndroidJars;
+    private List<File> mAndroidJars;
 
-    private ClassLoader mClassLoader;
+    private ClassHierarchy mClassHierarchy;
     private AnnotationScanner mAnnotationScanner;
-    private String[] mUserExcludePackages;
+    private ConstantPoolFilter mConstantPoolFilter;
+    private ConstantPoolIndex mConstantPoolIndex;
+    private PointcutIndex mCallPointcutIndex;
+    private WeaveCache mWeaveCache;
+    private WeaveIndex mWeaveIndex;
+    // 织入规则变化后增量构建时，未变化的输入中只有这些输出需要重新织入，为 null 时按输入的状态处理
+    private Set<File> mReweaveOutputs;
+    // 新增的切点没有织入记录，通过常量池摘要判断未变化的输入是否需要重新织入
+    private ConstantPoolFilter mReweaveFilter;
+    private WeaveScope mWeaveScope;
+    private AdviceDispatcher mAdviceDispatcher;
+    private AdviceInliner mAdviceInliner;
+    private JoinPointSwitches mJoinPointSwitches;
+    private AdviceSampler mAdviceSampler;
+    private OutputCompression mOutputCompression;
+    private TransformProfiler mProfiler = new TransformProfiler(false);
 
     public ButcherKnifeTransform(Project project) {
-        mPluginExtension = project.getExtensions().getByType(PluginExtension.class);
+        this(project.getExtensions().getByType(PluginExtension.class), project.getGradle().getGradleUserHomeDir(), project.getBuildDir());
+    }
+
+    ButcherKnifeTransform(PluginExtension pluginExtension, File gradleUserHomeDir, File buildDir) {
+        mPluginExtension = pluginExtension;
+        mGradleUserHomeDir = gradleUserHomeDir;
+        mReportDir = new File(buildDir, "reports/butcherknife");
+        mLogDir = new File(buildDir, "outputs/logs");
+        mMappingDir = new File(buildDir, "outputs/mapping");
     }
 
     @Override
@@ -85,179 +154,685 @@ public class ButcherKnifeTransform extends Transform {
 
     @Override
     public boolean isIncremental() {
-        return false;
+        return true;
     }
 
-    public void setAndroidJars(List<URL> androidJars) {
+    public void setAndroidJars(List<File> androidJars) {
         mAndroidJars = androidJars;
     }
 
-    private void setUserExcludePackages(String[] packages) {
-        if (packages == null) {
-            mUserExcludePackages = new String[]{};
-        } else {
-            mUserExcludePackages = new String[packages.length];
-            for (int i = 0; i < packages.length; i++) {
-                mUserExcludePackages[i] = packages[i].replace('.', '/');
-            }
-        }
-    }
-
     @Override
     public void transform(TransformInvocation transformInvocation) throws IOException {
-        if (mPluginExtension.isLogEnabled()) {
-            mLog = new SystemLog();
-        } else {
+        if (!mPluginExtension.isLogEnabled()) {
             mLog = new ErrorLog();
+            doTransform(transformInvocation);
+            return;
+        }
+        // 日志由后台线程写入 build/outputs/logs，不再同步输出到控制台
+        FileLog fileLog = new FileLog(new File(mLogDir, "butcherknife-" + transformInvocation.getContext().getVariantName() + ".jsonl"),
+                LogLevel.fromName(mPluginExtension.getLogLevel()));
+        mLog = fileLog;
+        try {
+            doTransform(transformInvocation);
+        } finally {
+            fileLog.close();
         }
-        setUserExcludePackages(mPluginExtension.getExcludePackages());
+    }
 
-        mLog.info("transform task start: " + "Transform = " + getClass().getSimpleName() + ", isIncremental = " + transformInvocation.isIncremental());
+    private void doTransform(TransformInvocation transformInvocation) throws IOException {
+        mWeaveScope = new WeaveScope(mPluginExtension.getIncludes(), mPluginExtension.getExcludes(), mPluginExtension.getExcludePackages(),
+                mPluginExtension.getIncludeJars(), mPluginExtension.getExcludeJars());
+        mOutputCompression = OutputCompression.fromName(mPluginExtension.getOutputCompression());
+        mProfiler = new TransformProfiler(mPluginExtension.isReportEnabled());
 
-        ArrayList<URL> urlList = new ArrayList<>();
-        for (TransformInput input : transformInvocation.getInputs()) {
-            for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
-                urlList.add(directoryInput.getFile().toURL());
+        mLog.info("transform task start: Transform = %s, isIncremental = %s", getClass().getSimpleName(), transformInvocation.isIncremental());
+
+        List<File> inputClasspath = getInputClasspath(transformInvocation.getInputs());
+        // android.jar 的继承关系按 compileSdkVersion 生成快照，之后的构建不再解析 android.jar
+        File snapshotDir = new File(mGradleUserHomeDir, "caches/butcherknife/hierarchy");
+        if (mPluginExtension.isAspectIndexEnabled()) {
+            // 不再扫描全部的 class，继承关系在需要时从输入中按需读取
+            List<File> classpath = new ArrayList<>(inputClasspath);
+            classpath.addAll(mAndroidJars);
+            mClassHierarchy = new ClassHierarchy(mLog, classpath, snapshotDir, mAndroidJars);
+        } else {
+            mClassHierarchy = new ClassHierarchy(mLog, mAndroidJars, snapshotDir, mAndroidJars);
+        }
+        try {
+            if (mPluginExtension.isAspectIndexEnabled()) {
+                mConstantPoolIndex = null;
+                mAnnotationScanner = AnnotationScanner.fromAspectIndex(inputClasspath, mLog);
+            } else {
+                // 扫描时记录常量池摘要，织入阶段不再读取不可能被织入的 class
+                mConstantPoolIndex = new ConstantPoolIndex();
+                mAnnotationScanner = new AnnotationScanner(transformInvocation.getInputs(), mLog, mClassHierarchy, mConstantPoolIndex, mProfiler);
+            }
+            mConstantPoolFilter = new ConstantPoolFilter(mAnnotationScanner.getCallPointcutClasses(), mAnnotationScanner.getSuperExecutePointcutClasses());
+            mCallPointcutIndex = new PointcutIndex(mAnnotationScanner.getCallPointcutClasses(), true);
+            mJoinPointSwitches = mPluginExtension.isSwitchboardEnabled()
+                    ? new JoinPointSwitches(mAnnotationScanner.getCallPointcutClasses(), mAnnotationScanner.getSuperExecutePointcutClasses()) : null;
+            mAdviceSampler = new AdviceSampler(mAnnotationScanner.getCallPointcutClasses(), mAnnotationScanner.getSuperExecutePointcutClasses());
+            if (mAdviceSampler.isEmpty()) {
+                mAdviceSampler = null;
             }
+            mAdviceDispatcher = mPluginExtension.isDispatcherEnabled()
+                    ? new AdviceDispatcher(mAnnotationScanner.getCallPointcutClasses(), mAnnotationScanner.getSuperExecutePointcutClasses(),
+                    mJoinPointSwitches, mAdviceSampler) : null;
+            mAdviceInliner = null;
+            if (mPluginExtension.getInlineAdviceLimit() > 0) {
+                List<File> classpath = new ArrayList<>(inputClasspath);
+                classpath.addAll(mAndroidJars);
+                mAdviceInliner = new AdviceInliner(mLog, classpath, mPluginExtension.getInlineAdviceLimit(),
+                        mAnnotationScanner.getCallPointcutClasses().values(), mAnnotationScanner.getSuperExecutePointcutClasses().values());
+            }
+            mWeaveCache = createWeaveCache();
+            transformInputs(transformInvocation);
+            // 报告按 variant 分别输出，例如 build/reports/butcherknife/debug.json
+            mProfiler.writeReports(mReportDir, transformInvocation.getContext().getVariantName(), mAnnotationScanner.getAspectState());
+        } finally {
+            mClassHierarchy.close();
+        }
+    }
 
+    private static List<File> getInputClasspath(Collection<TransformInput> inputs) {
+        List<File> classpath = new ArrayList<>();
+        for (TransformInput input : inputs) {
+            for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                classpath.add(directoryInput.getFile());
+            }
             for (JarInput jarInput : input.getJarInputs()) {
-                urlList.add(jarInput.getFile().toURL());
+                if (jarInput.getStatus() != Status.REMOVED) {
+                    classpath.add(jarInput.getFile());
+                }
             }
         }
-        urlList.addAll(mAndroidJars);
-        URL[] urlArray = new URL[urlList.size()];
-        urlList.toArray(urlArray);
-        mClassLoader = new URLClassLoader(urlArray);
+        return classpath;
+    }
+
+    @Nullable
+    private WeaveCache createWeaveCache() {
+        if (!mPluginExtension.isCacheEnabled()) {
+            return null;
+        }
+        File cacheDir;
+        if (mPluginExtension.getCacheDir() != null) {
+            cacheDir = new File(mPluginExtension.getCacheDir());
+        } else {
+            cacheDir = new File(mGradleUserHomeDir, "caches/butcherknife/weave");
+        }
+        // 插件版本和织入规则变化后，之前的缓存全部失效
+        List<String> model = new ArrayList<>();
+        model.add("version " + getClass().getPackage().getImplementationVersion());
+        model.addAll(getWeaveOptions());
+        model.addAll(mAnnotationScanner.getAspectState());
+        mLog.info("weave cache dir: %s", cacheDir);
+        return new WeaveCache(cacheDir, WeaveCache.hash(model), mLog);
+    }
+
+    // 织入规则之外影响织入结果的选项，被内联的织入方法的方法体变化后同样需要重新织入
+    private List<String> getWeaveOptions() {
+        List<String> options = new ArrayList<>();
+        options.add("dispatcher " + mPluginExtension.isDispatcherEnabled());
+        options.add("inlineAdviceLimit " + mPluginExtension.getInlineAdviceLimit());
+        if (mAdviceInliner != null) {
+            options.addAll(mAdviceInliner.getState());
+        }
+        options.add("switchboard " + mPluginExtension.isSwitchboardEnabled());
+        if (mJoinPointSwitches != null) {
+            options.addAll(mJoinPointSwitches.getState());
+        }
+        if (mAdviceSampler != null) {
+            options.addAll(mAdviceSampler.getState());
+        }
+        return options;
+    }
 
+    private void transformInputs(TransformInvocation transformInvocation) throws IOException {
         TransformOutputProvider outputProvider = transformInvocation.getOutputProvider();
 
-        if (!transformInvocation.isIncremental()) {
+        File aspectStateFile = new File(transformInvocation.getContext().getTemporaryDir(), ASPECT_STATE_FILE);
+        File weaveIndexFile = new File(transformInvocation.getContext().getTemporaryDir(), WEAVE_INDEX_FILE);
+        File optionsStateFile = new File(transformInvocation.getContext().getTemporaryDir(), OPTIONS_STATE_FILE);
+        // 织入范围和织入方式变化后之前的输出全部失效
+        List<String> optionsState = new ArrayList<>(mWeaveScope.getState());
+        optionsState.addAll(getWeaveOptions());
+        List<String> aspectState = mAnnotationScanner.getAspectState();
+        WeaveIndex previousWeaveIndex = transformInvocation.isIncremental() ? WeaveIndex.read(weaveIndexFile, mLog) : null;
+        mReweaveOutputs = null;
+        mReweaveFilter = null;
+        final boolean isIncremental;
+        List<String> previousAspectState = readAspectState(aspectStateFile);
+        if (!transformInvocation.isIncremental() || previousWeaveIndex == null) {
+            isIncremental = false;
+        } else if (!optionsState.equals(readAspectState(optionsStateFile))) {
+            mLog.info("weave options changed, fall back to full transform");
+            isIncremental = false;
+        } else if (!aspectState.equals(previousAspectState) && !prepareReweave(previousAspectState, aspectState, previousWeaveIndex)) {
+            mLog.info("aspect classes changed, fall back to full transform");
+            isIncremental = false;
+        } else {
+            isIncremental = true;
+        }
+        if (isIncremental) {
+            // 上游类的父类型变化后，依赖其继承关系的输出即使输入没有变化也需要重新织入
+            Set<File> hierarchyChangedOutputs = previousWeaveIndex.getHierarchyChangedOutputs(mClassHierarchy);
+            if (!hierarchyChangedOutputs.isEmpty()) {
+                if (mReweaveOutputs == null) {
+                    mReweaveOutputs = new HashSet<>();
+                }
+                mReweaveOutputs.addAll(hierarchyChangedOutputs);
+                mLog.info("class hierarchy changed, reweave %d outputs", hierarchyChangedOutputs.size());
+            }
+        }
+        mWeaveIndex = isIncremental ? previousWeaveIndex : new WeaveIndex();
+
+        if (!isIncremental) {
             outputProvider.deleteAll();
         }
 
-        mAnnotationScanner = new AnnotationScanner(transformInvocation.getInputs(), mLog, mClassLoader);
+        ExecutorService executor = new ForkJoinPool(Math.max(1, mPluginExtension.getParallelism()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (TransformInput input : transformInvocation.getInputs()) {
+                for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                    transformDirectoryInput(directoryInput, outputProvider, isIncremental, executor, futures);
+                }
 
-        for (TransformInput input : transformInvocation.getInputs()) {
-            for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
-                for (File file : FileUtils.getAllFiles(directoryInput.getFile())) {
-                    File outDir = outputProvider.getContentLocation(directoryInput.getName(), directoryInput.getContentTypes(), directoryInput.getScopes(), Format.DIRECTORY);
-                    outDir.mkdirs();
-                    final String outDirPath = outDir.getAbsolutePath();
-                    final String inputDirPath = directoryInput.getFile().getAbsolutePath();
-                    final String relativeClassPath = file.getAbsolutePath().substring(inputDirPath.length());
-                    File outFile = new File(outDirPath, relativeClassPath);
-                    if (relativeClassPath.endsWith(".class")) {
-                        transformClassFile(file, outFile);
-                    } else {
-                        FileUtils.copyFile(file, outFile);
+                for (JarInput jarInput : input.getJarInputs()) {
+                    futures.add(executor.submit(() -> transformJarInput(jarInput, outputProvider, isIncremental)));
+                }
+            }
+            waitForAll(futures);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (mAdviceDispatcher != null && !mAdviceDispatcher.isEmpty()) {
+            writeAdviceDispatcher(outputProvider);
+        }
+        if (mJoinPointSwitches != null) {
+            writeJoinPointSwitches(outputProvider, transformInvocation.getContext().getVariantName());
+        }
+        if (mAdviceSampler != null) {
+            writeAdviceSampler(outputProvider);
+        }
+
+        writeAspectState(aspectStateFile, aspectState);
+        writeAspectState(optionsStateFile, optionsState);
+        mWeaveIndex.write(weaveIndexFile);
+    }
+
+    // 分发类只由织入规则决定，每次构建都重新生成
+    private void writeAdviceDispatcher(TransformOutputProvider outputProvider) throws IOException {
+        File outDir = outputProvider.getContentLocation(DISPATCHER_OUTPUT_NAME, TransformManager.CONTENT_CLASS, TransformManager.PROJECT_ONLY, Format.DIRECTORY);
+        File classFile = new File(outDir, AdviceDispatcher.CLASS_NAME + ".class");
+        classFile.getParentFile().mkdirs();
+        Files.write(classFile.toPath(), mAdviceDispatcher.generateClass());
+    }
+
+    // 开关类和织入点编号的映射文件同样每次构建都重新生成，映射文件位于 build/outputs/mapping/<variant>/butcherknife-switchboard.txt
+    private void writeJoinPointSwitches(TransformOutputProvider outputProvider, String variantName) throws IOException {
+        File outDir = outputProvider.getContentLocation(SWITCHES_OUTPUT_NAME, TransformManager.CONTENT_CLASS, TransformManager.PROJECT_ONLY, Format.DIRECTORY);
+        File classFile = new File(outDir, JoinPointSwitches.CLASS_NAME + ".class");
+        classFile.getParentFile().mkdirs();
+        Files.write(classFile.toPath(), mJoinPointSwitches.generateClass());
+        mJoinPointSwitches.writeMapping(new File(mMappingDir, variantName + "/butcherknife-switchboard.txt"));
+    }
+
+    // 计数器字段只由织入点决定，同样每次构建都重新生成
+    private void writeAdviceSampler(TransformOutputProvider outputProvider) throws IOException {
+        File outDir = outputProvider.getContentLocation(SAMPLER_OUTPUT_NAME, TransformManager.CONTENT_CLASS, TransformManager.PROJECT_ONLY, Format.DIRECTORY);
+        File classFile = new File(outDir, AdviceSampler.CLASS_NAME + ".class");
+        classFile.getParentFile().mkdirs();
+        Files.write(classFile.toPath(), mAdviceSampler.generateClass());
+    }
+
+    // 根据上次构建的反向索引找出受织入规则变化影响的输出，无法确定时返回 false
+    private boolean prepareReweave(List<String> previousAspectState, List<String> aspectState, WeaveIndex previousWeaveIndex) {
+        Set<String> changedPointcuts = WeaveIndex.diffPointcuts(previousAspectState, aspectState);
+        Set<String> previousPointcuts = WeaveIndex.getPointcuts(previousAspectState);
+        List<String> addedPointcutState = new ArrayList<>();
+        for (String line : aspectState) {
+            String pointcut = WeaveIndex.getPointcut(line);
+            if (pointcut != null && changedPointcuts.contains(pointcut) && !previousPointcuts.contains(pointcut)) {
+                addedPointcutState.add(line);
+            }
+        }
+        if (!addedPointcutState.isEmpty()) {
+            if (mConstantPoolIndex == null) {
+                // 没有常量池摘要时无法找出新增切点可能匹配的类
+                return false;
+            }
+            AnnotationScanner addedPointcuts = AnnotationScanner.fromAspectState(addedPointcutState, mLog);
+            mReweaveFilter = new ConstantPoolFilter(addedPointcuts.getCallPointcutClasses(), addedPointcuts.getSuperExecutePointcutClasses());
+        }
+        mReweaveOutputs = previousWeaveIndex.getOutputs(changedPointcuts);
+        mLog.info("aspect classes changed, reweave %d woven outputs and %d added pointcuts", mReweaveOutputs.size(), addedPointcutState.size());
+        return true;
+    }
+
+    // 输入没有变化时，判断对应的输出是否受织入规则变化的影响
+    private boolean needReweave(File output, @Nullable Collection<long[]> summaries) {
+        if (mReweaveOutputs == null) {
+            return false;
+        }
+        if (mReweaveOutputs.contains(output)) {
+            return true;
+        }
+        if (mReweaveFilter == null) {
+            return false;
+        }
+        if (summaries == null) {
+            return true;
+        }
+        for (long[] summary : summaries) {
+            if (mReweaveFilter.mayMatchSummary(summary)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void waitForAll(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("transform interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private void transformDirectoryInput(DirectoryInput directoryInput, TransformOutputProvider outputProvider, boolean isIncremental,
+                                         ExecutorService executor, List<Future<?>> futures) {
+        File outDir = outputProvider.getContentLocation(directoryInput.getName(), directoryInput.getContentTypes(), directoryInput.getScopes(), Format.DIRECTORY);
+        outDir.mkdirs();
+        final String outDirPath = outDir.getAbsolutePath();
+        final String inputDirPath = directoryInput.getFile().getAbsolutePath();
+        if (!isIncremental) {
+            for (File file : FileUtils.getAllFiles(directoryInput.getFile())) {
+                String relativePath = file.getAbsolutePath().substring(inputDirPath.length());
+                futures.add(executor.submit(() -> transformDirectoryFile(directoryInput.getName(), file, relativePath, new File(outDirPath, relativePath))));
+            }
+            return;
+        }
+
+        Map<File, Status> changedFiles = directoryInput.getChangedFiles();
+        for (Map.Entry<File, Status> changedFile : changedFiles.entrySet()) {
+            File file = changedFile.getKey();
+            String relativePath = file.getAbsolutePath().substring(inputDirPath.length());
+            File outFile = new File(outDirPath, relativePath);
+            switch (changedFile.getValue()) {
+                case ADDED:
+                case CHANGED:
+                    if (file.isFile()) {
+                        futures.add(executor.submit(() -> transformDirectoryFile(directoryInput.getName(), file, relativePath, outFile)));
                     }
+                    break;
+                case REMOVED:
+                    futures.add(executor.submit(() -> {
+                        FileUtils.deleteIfExists(outFile);
+                        mWeaveIndex.remove(outFile);
+                        return null;
+                    }));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (mReweaveOutputs != null) {
+            for (File file : FileUtils.getAllFiles(directoryInput.getFile())) {
+                if (changedFiles.containsKey(file) || !file.getName().endsWith(".class")) {
+                    continue;
+                }
+                String relativePath = file.getAbsolutePath().substring(inputDirPath.length());
+                File outFile = new File(outDirPath, relativePath);
+                long[] summary = mConstantPoolIndex == null ? null : mConstantPoolIndex.getClassFileSummary(file);
+                if (needReweave(outFile, summary == null ? null : Collections.singletonList(summary))) {
+                    futures.add(executor.submit(() -> transformDirectoryFile(directoryInput.getName(), file, relativePath, outFile)));
                 }
             }
+        }
+    }
 
-            for (JarInput jarInput : input.getJarInputs()) {
-                File jarOut = outputProvider.getContentLocation(jarInput.getName(), jarInput.getContentTypes(), jarInput.getScopes(), Format.JAR);
-                jarOut.getParentFile().mkdirs();
-                if (jarOut.exists()) {
+    private Void transformDirectoryFile(String unit, File file, String relativePath, File outFile) throws IOException {
+        boolean isClass = file.getName().endsWith(".class");
+        // 先按路径判断织入范围，不在范围内的 class 不需要读取
+        if (isClass && mWeaveScope.isClassFileIncluded(relativePath.replace(File.separatorChar, '/').substring(1))
+                && mayMatch(mConstantPoolIndex == null ? null : mConstantPoolIndex.getClassFileSummary(file))) {
+            Set<String> wovenPointcuts = new TreeSet<>();
+            Map<String, Boolean> assignableQueries = new HashMap<>();
+            transformClassFile(unit, file, outFile, wovenPointcuts, assignableQueries);
+            mWeaveIndex.put(outFile, wovenPointcuts, assignableQueries);
+        } else {
+            TransformProfiler.Sample sample = mProfiler.begin();
+            copyFile(file, outFile);
+            mProfiler.end(sample, unit, TransformProfiler.Phase.WRITE);
+            mProfiler.addSkippedClasses(unit, isClass ? 1 : 0);
+            mWeaveIndex.remove(outFile);
+        }
+        mProfiler.addBytes(unit, file.length(), outFile.length());
+        return null;
+    }
+
+    private boolean mayMatch(@Nullable long[] summary) {
+        return summary == null || mConstantPoolFilter.mayMatchSummary(summary);
+    }
+
+    private Void transformJarInput(JarInput jarInput, TransformOutputProvider outputProvider, boolean isIncremental) throws IOException {
+        File jarOut = outputProvider.getContentLocation(jarInput.getName(), jarInput.getContentTypes(), jarInput.getScopes(), Format.JAR);
+        if (isIncremental) {
+            switch (jarInput.getStatus()) {
+                case NOTCHANGED:
+                    Map<String, long[]> summaries = mConstantPoolIndex == null ? null : mConstantPoolIndex.getJarSummaries(jarInput.getFile());
+                    if (!needReweave(jarOut, summaries == null ? null : summaries.values())) {
+                        return null;
+                    }
+                    break;
+                case REMOVED:
                     jarOut.delete();
+                    mWeaveIndex.remove(jarOut);
+                    return null;
+                default:
+                    break;
+            }
+        }
+
+        jarOut.getParentFile().mkdirs();
+        if (jarOut.exists()) {
+            jarOut.delete();
+        }
+        // 失败时异常交给 waitForAll 抛出，让整个 transform 失败而不是留下缺失的输出
+        Set<String> wovenPointcuts = new TreeSet<>();
+        Map<String, Boolean> assignableQueries = new HashMap<>();
+        transformJar(jarInput.getName(), jarInput.getFile(), jarOut, wovenPointcuts, assignableQueries);
+        mProfiler.addBytes(jarInput.getName(), jarInput.getFile().length(), jarOut.length());
+        mWeaveIndex.put(jarOut, wovenPointcuts, assignableQueries);
+        return null;
+    }
+
+    private void transformJar(String unit, File inputJar, File outputJar, Set<String> wovenPointcuts, Map<String, Boolean> assignableQueries) throws IOException {
+        Map<String, long[]> summaries = mConstantPoolIndex == null ? null : mConstantPoolIndex.getJarSummaries(inputJar);
+        if (!mWeaveScope.isJarIncluded(unit) || (summaries != null && !mayMatchAny(summaries.values()))) {
+            // 不在织入范围内或者没有任何 class 可能被织入，不需要打开 jar
+            TransformProfiler.Sample sample = mProfiler.begin();
+            copyFile(inputJar, outputJar);
+            mProfiler.end(sample, unit, TransformProfiler.Phase.WRITE);
+            if (summaries != null) {
+                mProfiler.addSkippedClasses(unit, summaries.size());
+            }
+            return;
+        }
+        try (ZipFile jar = new ZipFile(inputJar)) {
+            // 先织入所有 class，没有被修改的 jar 直接复制文件
+            Map<String, byte[]> modifiedClasses = new HashMap<>();
+            int skippedClasses = 0;
+            for (ZipArchiveEntry entry : Collections.list(jar.getEntriesInPhysicalOrder())) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                if (!mWeaveScope.isClassFileIncluded(entry.getName()) || !mayMatch(summaries == null ? null : summaries.get(entry.getName()))) {
+                    skippedClasses++;
+                    continue;
                 }
-                try (ZipOutputStream outJar = new ZipOutputStream(new FileOutputStream(jarOut))) {
-                    try (ZipInputStream jar = new ZipInputStream(new FileInputStream(jarInput.getFile()))) {
-                        ZipEntry entry;
-                        while ((entry = jar.getNextEntry()) != null) {
-                            ZipEntry outEntry = copyEntry(entry);
-                            outJar.putNextEntry(outEntry);
-                            if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
-                                transformClass(jar, outJar);
-                            } else {
-                                IOUtils.copy(jar, outJar);
-                            }
+                TransformProfiler.Sample sample = mProfiler.begin();
+                byte[] bytes;
+                try (InputStream inputStream = jar.getInputStream(entry)) {
+                    bytes = readEntry(inputStream, entry);
+                }
+                mProfiler.end(sample, unit, TransformProfiler.Phase.READ);
+                sample = mProfiler.begin();
+                byte[] modifiedClass = visitClassBytes(bytes, wovenPointcuts, assignableQueries);
+                mProfiler.end(sample, unit, TransformProfiler.Phase.WEAVE);
+                if (modifiedClass != null) {
+                    modifiedClasses.put(entry.getName(), modifiedClass);
+                } else {
+                    skippedClasses++;
+                }
+            }
+            mProfiler.addSkippedClasses(unit, skippedClasses);
+            mProfiler.addModifiedClasses(unit, modifiedClasses.size());
+            TransformProfiler.Sample writeSample = mProfiler.begin();
+            if (modifiedClasses.isEmpty()) {
+                copyFile(inputJar, outputJar);
+                mProfiler.end(writeSample, unit, TransformProfiler.Phase.WRITE);
+                return;
+            }
+
+            Map<String, ForkJoinTask<byte[]>> deflateTasks = new HashMap<>();
+            if (mOutputCompression == OutputCompression.PARALLEL) {
+                // 先把所有修改过的 class 分发到线程池中压缩，写入时再按 entry 的顺序取回结果
+                for (Map.Entry<String, byte[]> modifiedClass : modifiedClasses.entrySet()) {
+                    deflateTasks.put(modifiedClass.getKey(), ForkJoinTask.adapt(() -> deflate(modifiedClass.getValue())).fork());
+                }
+            }
+
+            // 未修改的 entry 直接复制压缩后的数据，不再解压和重新压缩
+            try (ZipArchiveOutputStream outJar = new ZipArchiveOutputStream(outputJar)) {
+                for (ZipArchiveEntry entry : Collections.list(jar.getEntriesInPhysicalOrder())) {
+                    byte[] modifiedClass = modifiedClasses.get(entry.getName());
+                    if (modifiedClass == null) {
+                        try (InputStream rawInputStream = jar.getRawInputStream(entry)) {
+                            outJar.addRawArchiveEntry(entry, rawInputStream);
                         }
+                    } else {
+                        writeModifiedEntry(outJar, entry, modifiedClass, deflateTasks.get(entry.getName()));
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
             }
+            mProfiler.end(writeSample, unit, TransformProfiler.Phase.WRITE);
         }
     }
 
-    private ZipEntry copyEntry(ZipEntry entry) {
-        ZipEntry newEntry = new ZipEntry(entry.getName());
-        newEntry.setComment(entry.getComment());
-        newEntry.setExtra(entry.getExtra());
-        return newEntry;
+    private void writeModifiedEntry(ZipArchiveOutputStream outJar, ZipArchiveEntry entry, byte[] modifiedClass,
+                                    @Nullable ForkJoinTask<byte[]> deflateTask) throws IOException {
+        ZipArchiveEntry newEntry = copyEntry(entry);
+        switch (mOutputCompression) {
+            case STORED:
+                newEntry.setMethod(ZipEntry.STORED);
+                newEntry.setSize(modifiedClass.length);
+                newEntry.setCrc(crc32(modifiedClass));
+                break;
+            case PARALLEL:
+                byte[] deflated = deflateTask.join();
+                newEntry.setMethod(ZipEntry.DEFLATED);
+                newEntry.setSize(modifiedClass.length);
+                newEntry.setCompressedSize(deflated.length);
+                newEntry.setCrc(crc32(modifiedClass));
+                outJar.addRawArchiveEntry(newEntry, new ByteArrayInputStream(deflated));
+                return;
+            default:
+                break;
+        }
+        outJar.putArchiveEntry(newEntry);
+        outJar.write(modifiedClass);
+        outJar.closeArchiveEntry();
     }
 
-    public boolean transformClassFile(File from, File to) {
-        boolean result;
-        File toParent = to.getParentFile();
-        toParent.mkdirs();
-        try (FileInputStream fileInputStream = new FileInputStream(from); FileOutputStream fileOutputStream = new FileOutputStream(to)) {
-            result = transformClass(fileInputStream, fileOutputStream);
-        } catch (Exception e) {
-            e.printStackTrace();
-            result = false;
+    private static byte[] deflate(byte[] bytes) {
+        // zip 中的 entry 使用不带 zlib 头的 deflate 数据
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                outputStream.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
         }
-        return result;
     }
 
-    public boolean transformClass(InputStream from, OutputStream to) {
-        try {
-            byte[] bytes = IOUtils.toByteArray(from);
-            byte[] modifiedClass = visitClassBytes(bytes);
-            if (modifiedClass != null) {
-                IOUtils.write(modifiedClass, to);
+    private static long crc32(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return crc32.getValue();
+    }
+
+    private boolean mayMatchAny(Collection<long[]> summaries) {
+        for (long[] summary : summaries) {
+            if (mConstantPoolFilter.mayMatchSummary(summary)) {
                 return true;
-            } else {
-                IOUtils.write(bytes, to);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
         return false;
     }
 
-    private boolean isExcludedPackage(String packageName) {
-        for (String exPackage : mUserExcludePackages) {
-            if (packageName.startsWith(exPackage)) {
-                return true;
+    private static byte[] readEntry(InputStream inputStream, ZipArchiveEntry entry) throws IOException {
+        if (entry.getSize() >= 0) {
+            return IOUtils.toByteArray(inputStream, entry.getSize());
+        }
+        return IOUtils.toByteArray(inputStream);
+    }
+
+    private static void copyFile(File from, File to) throws IOException {
+        to.getParentFile().mkdirs();
+        try (FileChannel inChannel = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(to.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = inChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += inChannel.transferTo(position, size - position, outChannel);
             }
         }
-        return false;
+    }
+
+    private List<String> readAspectState(File stateFile) {
+        if (!stateFile.isFile()) {
+            return Collections.emptyList();
+        }
+        try {
+            return Files.readAllLines(stateFile.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            mLog.warning("read aspect state failed: " + stateFile, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void writeAspectState(File stateFile, List<String> aspectState) throws IOException {
+        stateFile.getParentFile().mkdirs();
+        Files.write(stateFile.toPath(), aspectState, StandardCharsets.UTF_8);
+    }
+
+    private ZipArchiveEntry copyEntry(ZipArchiveEntry entry) {
+        ZipArchiveEntry newEntry = new ZipArchiveEntry(entry.getName());
+        newEntry.setTime(ZIP_ENTRY_TIME);
+        newEntry.setComment(entry.getComment());
+        newEntry.setExtraFields(entry.getExtraFields());
+        return newEntry;
+    }
+
+    public boolean transformClassFile(String unit, File from, File to, Set<String> wovenPointcuts, Map<String, Boolean> assignableQueries) throws IOException {
+        File toParent = to.getParentFile();
+        toParent.mkdirs();
+        TransformProfiler.Sample sample = mProfiler.begin();
+        byte[] bytes = Files.readAllBytes(from.toPath());
+        mProfiler.end(sample, unit, TransformProfiler.Phase.READ);
+        sample = mProfiler.begin();
+        byte[] modifiedClass = visitClassBytes(bytes, wovenPointcuts, assignableQueries);
+        mProfiler.end(sample, unit, TransformProfiler.Phase.WEAVE);
+        sample = mProfiler.begin();
+        Files.write(to.toPath(), modifiedClass != null ? modifiedClass : bytes);
+        mProfiler.end(sample, unit, TransformProfiler.Phase.WRITE);
+        if (modifiedClass != null) {
+            mProfiler.addModifiedClasses(unit, 1);
+        } else {
+            mProfiler.addSkippedClasses(unit, 1);
+        }
+        return modifiedClass != null;
+    }
+
+    private Context createContext() {
+        Context context = new Context(mLog, mClassHierarchy);
+        context.setAdviceDispatcher(mAdviceDispatcher);
+        context.setAdviceInliner(mAdviceInliner);
+        context.setJoinPointSwitches(mJoinPointSwitches);
+        context.setAdviceSampler(mAdviceSampler);
+        return context;
     }
 
     @Nullable
-    private byte[] visitClassBytes(byte[] bytes) {
+    private byte[] visitClassBytes(byte[] bytes, Set<String> wovenPointcuts, Map<String, Boolean> assignableQueries) {
+        if (!mConstantPoolFilter.mayMatch(bytes)) {
+            return null;
+        }
         String className = null;
         try {
             ClassReader classReader = new ClassReader(bytes);
-            ClassWriter classWriter = new ClassWriter(classReader, ClassWriter.COMPUTE_MAXS);
-            Context context = new Context(mLog, mClassLoader);
-            classReader.accept(new ContextClassVisitor(context), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+            Context context = createContext();
+            context.setClassName(classReader.getClassName());
             className = context.getClassName();
-            ClassVisitor classVisitor;
-            if (isExcludedPackage(context.getClassName())) {
+            if (!mWeaveScope.isClassIncluded(context.getClassName())) {
                 return null;
             }
-            DesugaringClassVisitor desugaringClassVisitor = new DesugaringClassVisitor(
-                    new InjectCallClassVisitor(
-                            new InjectExecuteSuperClassVisitor(classWriter, context, mAnnotationScanner.getSuperExecutePointcutClasses()),
-                            context, mAnnotationScanner.getCallPointcutClasses()),
-                    context, mAnnotationScanner.getSuperExecutePointcutClasses());
-            classVisitor = desugaringClassVisitor;
-            classReader.accept(classVisitor, ClassReader.SKIP_FRAMES | ClassReader.EXPAND_FRAMES);
-            if (!desugaringClassVisitor.getPointcutMethods().isEmpty()) {
-                // lambda 表达式需要特殊处理两次
-                mLog.debug("Deal with lambda second time: " + className);
-                ClassReader lambdaReader = new ClassReader(classWriter.toByteArray());
-                classWriter = new ClassWriter(lambdaReader, ClassWriter.COMPUTE_MAXS);
-                lambdaReader.accept(new DesugaredClassVisitor(classWriter, context, desugaringClassVisitor.getPointcutMethods()), ClassReader.SKIP_FRAMES | ClassReader.EXPAND_FRAMES);
+            if (mWeaveCache != null) {
+                WeaveCache.Entry entry = mWeaveCache.get(bytes, mClassHierarchy);
+                if (entry != null) {
+                    wovenPointcuts.addAll(entry.getWovenPointcuts().keySet());
+                    assignableQueries.putAll(entry.getAssignableQueries());
+                    mProfiler.addJoinPoints(entry.getWovenPointcuts());
+                    return entry.getModifiedClass();
+                }
             }
-            if (context.isClassModified()) {
-                return classWriter.toByteArray();
+            byte[] modifiedClass = weaveClass(classReader, context, mCallPointcutIndex, mAnnotationScanner.getSuperExecutePointcutClasses());
+            if (mWeaveCache != null) {
+                mWeaveCache.put(bytes, context.getAssignableQueries(), context.getWovenPointcuts(), modifiedClass);
             }
+            wovenPointcuts.addAll(context.getWovenPointcuts().keySet());
+            assignableQueries.putAll(context.getAssignableQueries());
+            mProfiler.addJoinPoints(context.getWovenPointcuts());
+            return modifiedClass;
         } catch (Throwable t) {
             this.mLog.error("Unfortunately, an error has occurred while processing " + className + ".\n" + t.getMessage(), t);
         }
         return null;
     }
+
+    // 对单个 class 先预扫描再织入，返回 null 表示不需要修改，context 中需要已经设置类名
+    @Nullable
+    static byte[] weaveClass(ClassReader classReader, Context context, PointcutIndex callPointcutIndex,
+                             Map<String, PointcutClass> superExecutePointcutClasses) {
+        // 先找出可能存在织入点的方法，只有这些方法需要经过 ASM 的 adapter，其余方法直接复制
+        JoinPointAnalyzer joinPointAnalyzer = new JoinPointAnalyzer(context, callPointcutIndex, superExecutePointcutClasses);
+        classReader.accept(joinPointAnalyzer, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        ClassWriter classWriter = null;
+        if (!joinPointAnalyzer.isEmpty()) {
+            classWriter = new ClassWriter(classReader, ClassWriter.COMPUTE_MAXS);
+            // 预扫描已经找到的 lambda 实现方法在同一次遍历中织入
+            Map<String, PointcutMethod> lambdaPointcutMethods = joinPointAnalyzer.getLambdaPointcutMethods();
+            ClassVisitor nextVisitor = lambdaPointcutMethods.isEmpty() ? classWriter : new DesugaredClassVisitor(classWriter, context, lambdaPointcutMethods);
+            DesugaringClassVisitor desugaringClassVisitor = new DesugaringClassVisitor(
+                    new InjectCallClassVisitor(
+                            new InjectExecuteSuperClassVisitor(nextVisitor, context, superExecutePointcutClasses),
+                            context, callPointcutIndex, joinPointAnalyzer),
+                    context, superExecutePointcutClasses, joinPointAnalyzer);
+            classReader.accept(desugaringClassVisitor, ClassReader.SKIP_FRAMES);
+            Map<String, PointcutMethod> remainingPointcutMethods = new LinkedHashMap<>(desugaringClassVisitor.getPointcutMethods());
+            remainingPointcutMethods.keySet().removeAll(lambdaPointcutMethods.keySet());
+            if (!remainingPointcutMethods.isEmpty()) {
+                // 预扫描没有找到的实现方法仍然需要处理第二次
+                if (context.getLog().isDebugEnabled()) {
+                    context.getLog().debug("Deal with lambda second time: %s", context.getClassName());
+                }
+                ClassReader lambdaReader = new ClassReader(classWriter.toByteArray());
+                classWriter = new ClassWriter(lambdaReader, ClassWriter.COMPUTE_MAXS);
+                lambdaReader.accept(new DesugaredClassVisitor(classWriter, context, remainingPointcutMethods), ClassReader.SKIP_FRAMES);
+            }
+        }
+        return classWriter != null && context.isClassModified() ? classWriter.toByteArray() : null;
+    }
 }
@@ -16,17 +16,43 @@
 
 package com.littersun.butcherknife.plugin;
 
+import com.android.annotations.Nullable;
+import com.littersun.butcherknife.plugin.entity.InjectMethod;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+import com.littersun.butcherknife.plugin.inject.AdviceDispatcher;
+import com.littersun.butcherknife.plugin.inject.AdviceInliner;
+import com.littersun.butcherknife.plugin.inject.AdviceSampler;
+import com.littersun.butcherknife.plugin.inject.JoinPointSwitches;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Context {
     private final Log mLog;
-    private final ClassLoader mClassLoader;
+    private final ClassHierarchy mClassHierarchy;
     private String mClassName;
     private boolean mClassModified;
+    private AdviceDispatcher mAdviceDispatcher;
+    private AdviceInliner mAdviceInliner;
+    private JoinPointSwitches mJoinPointSwitches;
+    private AdviceSampler mAdviceSampler;
+    private final Map<String, Boolean> mAssignableQueries = new LinkedHashMap<>();
+    private final Map<String, Integer> mWovenPointcuts = new TreeMap<>();
 
-    public Context(Log log, ClassLoader classLoader) {
+    public Context(Log log, ClassHierarchy classHierarchy) {
         mLog = log;
-        mClassLoader = classLoader;
+        mClassHierarchy = classHierarchy;
     }
 
     public int getASMVersion() {
@@ -45,8 +71,68 @@ public class Context {
         return mLog;
     }
 
-    public ClassLoader getClassLoader() {
-        return mClassLoader;
+    public ClassHierarchy getClassHierarchy() {
+        return mClassHierarchy;
+    }
+
+    public void setAdviceDispatcher(@Nullable AdviceDispatcher adviceDispatcher) {
+        mAdviceDispatcher = adviceDispatcher;
+    }
+
+    public void setAdviceInliner(@Nullable AdviceInliner adviceInliner) {
+        mAdviceInliner = adviceInliner;
+    }
+
+    public void setJoinPointSwitches(@Nullable JoinPointSwitches joinPointSwitches) {
+        mJoinPointSwitches = joinPointSwitches;
+    }
+
+    public void setAdviceSampler(@Nullable AdviceSampler adviceSampler) {
+        mAdviceSampler = adviceSampler;
+    }
+
+    public boolean hasAdviceGuard(InjectMethod injectMethod) {
+        return (mJoinPointSwitches != null && mJoinPointSwitches.hasSwitch(injectMethod))
+                || (mAdviceSampler != null && mAdviceSampler.hasSampler(injectMethod));
+    }
+
+    // 在加载织入方法的参数之前依次检查运行时开关和采样计数器，任意一个不满足时跳过织入方法，
+    // 返回的 label 需要传给 endAdviceGuard，不需要检查时返回 null
+    @Nullable
+    public Label beginAdviceGuard(InjectMethod injectMethod, GeneratorAdapter adapter) {
+        if (!hasAdviceGuard(injectMethod)) {
+            return null;
+        }
+        Label skipLabel = new Label();
+        if (mJoinPointSwitches != null && mJoinPointSwitches.hasSwitch(injectMethod)) {
+            mJoinPointSwitches.visitGuard(injectMethod, adapter, skipLabel);
+        }
+        if (mAdviceSampler != null && mAdviceSampler.hasSampler(injectMethod)) {
+            mAdviceSampler.visitGuard(injectMethod, adapter, skipLabel);
+        }
+        return skipLabel;
+    }
+
+    public void endAdviceGuard(@Nullable Label skipLabel, GeneratorAdapter adapter) {
+        if (skipLabel != null) {
+            adapter.mark(skipLabel);
+        }
+    }
+
+    // 开启内联时复制织入方法的字节码，否则调用织入方法
+    public void invokeInjectMethod(InjectMethod injectMethod, GeneratorAdapter adapter, MethodVisitor mv) {
+        if (mAdviceInliner == null || !mAdviceInliner.inline(injectMethod, adapter, mv)) {
+            adapter.invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
+        }
+    }
+
+    // 开启 dispatcherEnabled 后，同一位置的多个织入方法替换为生成的分发方法
+    public List<InjectMethod> getBeforeInjectMethods(PointcutMethod pointcutMethod) {
+        return mAdviceDispatcher == null ? pointcutMethod.getBeforeInjectMethods() : mAdviceDispatcher.getBeforeInjectMethods(pointcutMethod);
+    }
+
+    public List<InjectMethod> getAfterInjectMethods(PointcutMethod pointcutMethod) {
+        return mAdviceDispatcher == null ? pointcutMethod.getAfterInjectMethods() : mAdviceDispatcher.getAfterInjectMethods(pointcutMethod);
     }
 
     public boolean isClassModified() {
@@ -58,18 +144,28 @@ public class Context {
     }
 
     public boolean isAssignable(String subClassName, String superClassName) {
-        if (subClassName.contains("/")) {
-            subClassName = subClassName.replace("/", ".");
-        }
-        if (superClassName.contains("/")) {
-            superClassName = superClassName.replace("/", ".");
-        }
-        try {
-            Class<?> subClass = mClassLoader.loadClass(subClassName);
-            Class<?> superClass = mClassLoader.loadClass(superClassName);
-            return superClass.isAssignableFrom(subClass);
-        } catch (ClassNotFoundException ignored) {
-        }
-        return false;
+        boolean isAssignable = mClassHierarchy.isAssignable(subClassName, superClassName);
+        recordAssignable(subClassName, superClassName, isAssignable);
+        return isAssignable;
+    }
+
+    // 记录通过其它缓存得到的继承关系查询结果
+    public void recordAssignable(String subClassName, String superClassName, boolean isAssignable) {
+        mAssignableQueries.put(subClassName + " " + superClassName, isAssignable);
+    }
+
+    // 织入过程中查询过的继承关系，用于校验织入缓存是否仍然有效
+    public Map<String, Boolean> getAssignableQueries() {
+        return Collections.unmodifiableMap(mAssignableQueries);
+    }
+
+    // type 为 call 或 execute，格式与 AnnotationScanner#getAspectState 中的切点保持一致
+    public void recordPointcut(String type, String pointcutClassName, String name, String desc) {
+        mWovenPointcuts.merge(type + " " + pointcutClassName + "#" + name + desc, 1, Integer::sum);
+    }
+
+    // 此类中织入过的切点及织入的次数，织入规则变化时据此找出需要重新织入的类
+    public Map<String, Integer> getWovenPointcuts() {
+        return Collections.unmodifiableMap(mWovenPointcuts);
     }
 }
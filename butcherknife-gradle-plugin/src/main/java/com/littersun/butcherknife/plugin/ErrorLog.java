@@ -18,6 +18,16 @@ package com.littersun.butcherknife.plugin;
 
 public final class ErrorLog extends SystemLog {
 
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return false;
+    }
+
     @Override
     public void info(String message) {
     }
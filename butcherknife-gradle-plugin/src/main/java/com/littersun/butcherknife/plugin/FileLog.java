@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// 日志以 JSON Lines 的格式由后台线程写入文件，织入线程只需要把事件放入队列；warning 和 error 同时输出到控制台
+public final class FileLog implements Log, Closeable {
+    private static final Event END = new Event(null, null, null, null, null);
+
+    private final File mLogFile;
+    private final LogLevel mLevel;
+    private final BlockingQueue<Event> mEvents = new LinkedBlockingQueue<>();
+    private final Thread mWriterThread;
+    // 写入线程因为 IO 异常退出后不再接收日志，否则队列会一直增长
+    private volatile boolean mIsWriterStopped;
+
+    public FileLog(File logFile, LogLevel level) {
+        mLogFile = logFile;
+        mLevel = level;
+        mWriterThread = new Thread(this::writeEvents, "butcherknife-log");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    public File getLogFile() {
+        return mLogFile;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return isEnabled(LogLevel.INFO);
+    }
+
+    @Override
+    public void debug(String str) {
+        if (isDebugEnabled()) {
+            post("debug", str, null, null);
+        }
+    }
+
+    @Override
+    public void debug(String format, Object... args) {
+        if (isDebugEnabled()) {
+            post("debug", format, args, null);
+        }
+    }
+
+    @Override
+    public void info(String str) {
+        if (isInfoEnabled()) {
+            post("info", str, null, null);
+        }
+    }
+
+    @Override
+    public void info(String format, Object... args) {
+        if (isInfoEnabled()) {
+            post("info", format, args, null);
+        }
+    }
+
+    @Override
+    public void warning(String str) {
+        warning(str, null);
+    }
+
+    @Override
+    public void warning(String str, Throwable th) {
+        System.err.println("[ButcherKnifePlugin.warn] " + str);
+        if (isEnabled(LogLevel.WARN)) {
+            post("warn", str, null, th);
+        }
+    }
+
+    @Override
+    public void error(String str) {
+        error(str, null);
+    }
+
+    @Override
+    public void error(String str, Throwable th) {
+        System.err.println("[ButcherKnifePlugin.error] " + str);
+        if (th != null) {
+            th.printStackTrace(System.err);
+        }
+        post("error", str, null, th);
+    }
+
+    private boolean isEnabled(LogLevel level) {
+        return level.compareTo(mLevel) >= 0;
+    }
+
+    private void post(String level, String message, Object[] args, Throwable th) {
+        if (mIsWriterStopped) {
+            return;
+        }
+        mEvents.add(new Event(level, Thread.currentThread().getName(), message, args, th));
+    }
+
+    // 等待队列中的日志全部写入文件
+    @Override
+    public void close() throws IOException {
+        mEvents.add(END);
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("close log interrupted", e);
+        }
+    }
+
+    private void writeEvents() {
+        mLogFile.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(mLogFile.toPath(), StandardCharsets.UTF_8)) {
+            List<Event> events = new ArrayList<>();
+            while (true) {
+                events.add(mEvents.take());
+                mEvents.drainTo(events);
+                for (Event event : events) {
+                    if (event == END) {
+                        return;
+                    }
+                    writer.write(event.toJson());
+                    writer.write('\n');
+                }
+                events.clear();
+            }
+        } catch (IOException e) {
+            System.err.println("[ButcherKnifePlugin.error] write log failed: " + mLogFile);
+            e.printStackTrace(System.err);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 写入失败时丢弃剩余的日志，避免 close 一直等待
+            mIsWriterStopped = true;
+            mEvents.clear();
+        }
+    }
+
+    private static final class Event {
+        final long mTime = System.currentTimeMillis();
+        final String mLevel;
+        final String mThread;
+        final String mMessage;
+        final Object[] mArgs;
+        final Throwable mThrowable;
+
+        Event(String level, String thread, String message, Object[] args, Throwable throwable) {
+            mLevel = level;
+            mThread = thread;
+            mMessage = message;
+            mArgs = args;
+            mThrowable = throwable;
+        }
+
+        String toJson() {
+            StringBuilder builder = new StringBuilder(128);
+            builder.append("{\"time\":").append(mTime);
+            builder.append(",\"level\":\"").append(mLevel).append('"');
+            builder.append(",\"thread\":");
+            appendString(builder, mThread);
+            builder.append(",\"message\":");
+            appendString(builder, mArgs == null ? mMessage : String.format(Locale.US, mMessage, mArgs));
+            if (mThrowable != null) {
+                StringWriter stackTrace = new StringWriter();
+                mThrowable.printStackTrace(new PrintWriter(stackTrace));
+                builder.append(",\"error\":");
+                appendString(builder, stackTrace.toString());
+            }
+            return builder.append('}').toString();
+        }
+
+        private static void appendString(StringBuilder builder, String value) {
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        builder.append('\\').append(c);
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+                        } else {
+                            builder.append(c);
+                        }
+                        break;
+                }
+            }
+            builder.append('"');
+        }
+    }
+}
@@ -16,15 +16,25 @@
 
 package com.littersun.butcherknife.plugin;
 
+// 织入过程中的日志会非常多，调用方应该先判断级别，再通过带参数的方法输出，关闭时不会创建任何字符串
 public interface Log {
+    boolean isDebugEnabled();
+
+    boolean isInfoEnabled();
+
     void debug(String str);
 
+    // format 使用 String#format 的格式，输出时才进行格式化，args 需要是不可变的对象
+    void debug(String format, Object... args);
+
     void error(String str);
 
     void error(String str, Throwable th);
 
     void info(String str);
 
+    void info(String format, Object... args);
+
     void warning(String str);
 
     void warning(String str, Throwable th);
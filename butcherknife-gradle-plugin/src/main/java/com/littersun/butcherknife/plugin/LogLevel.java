@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import java.util.Locale;
+
+// 写入日志文件的最低级别，warning 和 error 无论级别如何都会输出到控制台
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR;
+
+    public static LogLevel fromName(String name) {
+        if (name == null) {
+            return INFO;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ButcherKnifePlugin: unknown logLevel '" + name + "', should be one of debug, info, warn, error");
+        }
+    }
+}
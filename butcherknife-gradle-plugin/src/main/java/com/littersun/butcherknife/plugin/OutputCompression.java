@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import java.util.Locale;
+
+// 被修改的 class 写入输出 jar 时的压缩方式，没有修改的 entry 始终直接复制压缩后的数据
+public enum OutputCompression {
+    // 单线程 deflate，与之前的行为一致
+    DEFLATED,
+    // 不压缩，适合本地调试构建，输出的 jar 会马上被 D8 读取
+    STORED,
+    // 每个 entry 在线程池中分别 deflate，再按原来的顺序写入 jar
+    PARALLEL;
+
+    public static OutputCompression fromName(String name) {
+        if (name == null) {
+            return DEFLATED;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ButcherKnifePlugin: unknown outputCompression '" + name + "', should be one of deflated, stored, parallel");
+        }
+    }
+}
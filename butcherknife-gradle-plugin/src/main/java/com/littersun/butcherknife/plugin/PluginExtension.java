@@ -18,7 +18,21 @@ package com.littersun.butcherknife.plugin;
 
 public class PluginExtension {
     private boolean mIsLogEnabled = true;
+    private String mLogLevel = "info";
     private String[] mExcludePackages;
+    private String[] mIncludes;
+    private String[] mExcludes;
+    private String[] mIncludeJars;
+    private String[] mExcludeJars;
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+    private boolean mIsCacheEnabled = true;
+    private String mCacheDir;
+    private boolean mIsAspectIndexEnabled;
+    private String mOutputCompression = "deflated";
+    private boolean mIsReportEnabled;
+    private boolean mIsDispatcherEnabled;
+    private int mInlineAdviceLimit;
+    private boolean mIsSwitchboardEnabled;
 
     public boolean isLogEnabled() {
         return mIsLogEnabled;
@@ -28,6 +42,15 @@ public class PluginExtension {
         mIsLogEnabled = logEnabled;
     }
 
+    public String getLogLevel() {
+        return mLogLevel;
+    }
+
+    // debug、info、warn 或 error，写入日志文件的最低级别，参见 LogLevel
+    public void setLogLevel(String logLevel) {
+        mLogLevel = logLevel;
+    }
+
     public String[] getExcludePackages() {
         return mExcludePackages;
     }
@@ -35,4 +58,117 @@ public class PluginExtension {
     public void setExcludePackages(String[] excludePackages) {
         mExcludePackages = excludePackages;
     }
+
+    public String[] getIncludes() {
+        return mIncludes;
+    }
+
+    // 类名 glob，例如 com.foo.**，为空时织入所有类，参见 WeaveScope
+    public void setIncludes(String[] includes) {
+        mIncludes = includes;
+    }
+
+    public String[] getExcludes() {
+        return mExcludes;
+    }
+
+    // 类名 glob，例如 **.R、**.BuildConfig、*$$ViewBinder
+    public void setExcludes(String[] excludes) {
+        mExcludes = excludes;
+    }
+
+    public String[] getIncludeJars() {
+        return mIncludeJars;
+    }
+
+    // jar 名称 glob，例如 com.foo:*，为空时织入所有 jar
+    public void setIncludeJars(String[] includeJars) {
+        mIncludeJars = includeJars;
+    }
+
+    public String[] getExcludeJars() {
+        return mExcludeJars;
+    }
+
+    public void setExcludeJars(String[] excludeJars) {
+        mExcludeJars = excludeJars;
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        mParallelism = parallelism;
+    }
+
+    public boolean isCacheEnabled() {
+        return mIsCacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        mIsCacheEnabled = cacheEnabled;
+    }
+
+    public String getCacheDir() {
+        return mCacheDir;
+    }
+
+    public void setCacheDir(String cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    public boolean isAspectIndexEnabled() {
+        return mIsAspectIndexEnabled;
+    }
+
+    // 开启后只读取 butcherknife-compiler 生成的织入规则，所有 Aspect 所在的模块都需要使用该注解处理器
+    public void setAspectIndexEnabled(boolean aspectIndexEnabled) {
+        mIsAspectIndexEnabled = aspectIndexEnabled;
+    }
+
+    public String getOutputCompression() {
+        return mOutputCompression;
+    }
+
+    // deflated、stored 或 parallel，参见 OutputCompression
+    public void setOutputCompression(String outputCompression) {
+        mOutputCompression = outputCompression;
+    }
+
+    public boolean isReportEnabled() {
+        return mIsReportEnabled;
+    }
+
+    // 开启后在 build/reports/butcherknife 中输出每个输入的耗时及织入统计
+    public void setReportEnabled(boolean reportEnabled) {
+        mIsReportEnabled = reportEnabled;
+    }
+
+    public boolean isDispatcherEnabled() {
+        return mIsDispatcherEnabled;
+    }
+
+    // 开启后同一切点的多个织入方法合并到生成的 ButcherKnife$$Dispatch 中，只对 Transform 织入生效
+    public void setDispatcherEnabled(boolean dispatcherEnabled) {
+        mIsDispatcherEnabled = dispatcherEnabled;
+    }
+
+    public int getInlineAdviceLimit() {
+        return mInlineAdviceLimit;
+    }
+
+    // 大于 0 时，指令数不超过该值的简单织入方法直接内联到织入点，参见 AdviceInliner
+    public void setInlineAdviceLimit(int inlineAdviceLimit) {
+        mInlineAdviceLimit = inlineAdviceLimit;
+    }
+
+    public boolean isSwitchboardEnabled() {
+        return mIsSwitchboardEnabled;
+    }
+
+    // 开启后每个织入点调用织入方法前检查生成的 ButcherKnife$$Switches 中的开关，参见 JoinPointSwitches，只对 Transform 织入生效
+    public void setSwitchboardEnabled(boolean switchboardEnabled) {
+        mIsSwitchboardEnabled = switchboardEnabled;
+    }
 }
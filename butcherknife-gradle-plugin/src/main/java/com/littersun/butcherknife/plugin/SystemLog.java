@@ -19,33 +19,57 @@ package com.littersun.butcherknife.plugin;
 public class SystemLog implements Log {
 
     @Override
-    public void info(String message) {
+    public boolean isDebugEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return true;
+    }
+
+    @Override
+    public void info(String format, Object... args) {
+        if (isInfoEnabled()) {
+            info(String.format(format, args));
+        }
+    }
+
+    @Override
+    public void debug(String format, Object... args) {
+        if (isDebugEnabled()) {
+            debug(String.format(format, args));
+        }
+    }
+
+    @Override
+    public synchronized void info(String message) {
         System.out.println("[ButcherKnifePlugin.info] " + message);
     }
 
     @Override
-    public void debug(String message) {
+    public synchronized void debug(String message) {
         System.out.println("[ButcherKnifePlugin.debug] " + message);
     }
 
     @Override
-    public void warning(String message) {
+    public synchronized void warning(String message) {
         System.err.println("[ButcherKnifePlugin.warn] " + message);
     }
 
     @Override
-    public void warning(String message, Throwable cause) {
+    public synchronized void warning(String message, Throwable cause) {
         System.err.println("[ButcherKnifePlugin.warn] " + message);
         cause.printStackTrace(System.err);
     }
 
     @Override
-    public void error(String message) {
+    public synchronized void error(String message) {
         System.err.println("[ButcherKnifePlugin.error] " + message);
     }
 
     @Override
-    public void error(String message, Throwable cause) {
+    public synchronized void error(String message, Throwable cause) {
         System.err.println("[ButcherKnifePlugin.error] " + message);
         cause.printStackTrace(System.err);
     }
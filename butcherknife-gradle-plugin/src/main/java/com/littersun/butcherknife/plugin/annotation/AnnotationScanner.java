@@ -18,124 +18,328 @@ package com.littersun.butcherknife.plugin.annotation;
 
 import com.android.build.api.transform.DirectoryInput;
 import com.android.build.api.transform.JarInput;
+import com.android.build.api.transform.Status;
 import com.android.build.api.transform.TransformInput;
 import com.android.utils.FileUtils;
+import com.littersun.butcherknife.annotations.AfterCall;
+import com.littersun.butcherknife.annotations.AfterSuperExecute;
+import com.littersun.butcherknife.annotations.BeforeCall;
+import com.littersun.butcherknife.annotations.BeforeSuperExecute;
 import com.littersun.butcherknife.plugin.Context;
 import com.littersun.butcherknife.plugin.Log;
 import com.littersun.butcherknife.plugin.annotation.visitor.AnnotationClassVisitor;
 import com.littersun.butcherknife.plugin.entity.InjectMethod;
 import com.littersun.butcherknife.plugin.entity.PointcutClass;
 import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+import com.littersun.butcherknife.plugin.hierarchy.ClassInfo;
+import com.littersun.butcherknife.plugin.hierarchy.ClassInfoVisitor;
+import com.littersun.butcherknife.plugin.inject.ConstantPoolFilter;
+import com.littersun.butcherknife.plugin.inject.ConstantPoolIndex;
+import com.littersun.butcherknife.plugin.report.TransformProfiler;
 
 import org.apache.commons.io.IOUtils;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Method;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class AnnotationScanner {
-    private final Collection<TransformInput> mTransformInputs;
+    // 与 butcherknife-compiler 中 AspectProcessor 生成的文件保持一致
+    private static final String ASPECT_INDEX = "META-INF/butcherknife/aspects";
+
     private final Log mLog;
-    private final ClassLoader mClassLoader;
+    private final ClassHierarchy mClassHierarchy;
+    private final ConstantPoolIndex mConstantPoolIndex;
+    private final TransformProfiler mProfiler;
 
-    private final Map<String, PointcutClass> mCallPointcutClasses = new HashMap<>();
+    private final Map<String, PointcutClass> mCallPointcutClasses = new TreeMap<>();
 
-    private final Map<String, PointcutClass> mExecutePointcutClasses = new HashMap<>();
+    private final Map<String, PointcutClass> mExecutePointcutClasses = new TreeMap<>();
 
-    public AnnotationScanner(Collection<TransformInput> inputs, Log log, ClassLoader classLoader) {
-        mTransformInputs = inputs;
-        mLog = log;
-        mClassLoader = classLoader;
-        startScanningAnnotation();
-    }
+    private final Set<String> mAspectClasses = new TreeSet<>();
 
-    private void startScanningAnnotation() {
-        for (TransformInput input : mTransformInputs) {
+    private final List<PointcutDeclaration> mPointcutDeclarations = new ArrayList<>();
+
+    public AnnotationScanner(Collection<TransformInput> inputs, Log log, ClassHierarchy classHierarchy, ConstantPoolIndex constantPoolIndex,
+                             TransformProfiler profiler) throws IOException {
+        this(log, classHierarchy, constantPoolIndex, profiler);
+        for (TransformInput input : inputs) {
             for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
-                for (File file : FileUtils.getAllFiles(directoryInput.getFile())) {
-                    if (file.getName().endsWith(".class")) {
-                        visitClass(file);
-                    }
-                }
+                scanDirectory(directoryInput.getName(), directoryInput.getFile());
             }
 
             for (JarInput jarInput : input.getJarInputs()) {
-                try {
-                    ZipInputStream jar = new ZipInputStream(new FileInputStream(jarInput.getFile()));
-                    ZipEntry entry;
-                    while ((entry = jar.getNextEntry()) != null) {
-                        if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
-                            visitClass(jar);
+                if (jarInput.getStatus() != Status.REMOVED) {
+                    scanJar(jarInput.getName(), jarInput.getFile());
+                }
+            }
+        }
+        resolvePointcutDeclarations();
+    }
+
+    public AnnotationScanner(List<File> classpath, Log log, ClassHierarchy classHierarchy) throws IOException {
+        this(log, classHierarchy, null, new TransformProfiler(false));
+        for (File file : classpath) {
+            if (file.isDirectory()) {
+                scanDirectory(file.getName(), file);
+            } else if (file.isFile() && file.getName().endsWith(".jar")) {
+                scanJar(file.getName(), file);
+            }
+        }
+        resolvePointcutDeclarations();
+    }
+
+    private AnnotationScanner(Log log, ClassHierarchy classHierarchy, ConstantPoolIndex constantPoolIndex, TransformProfiler profiler) {
+        mLog = log;
+        mClassHierarchy = classHierarchy;
+        mConstantPoolIndex = constantPoolIndex;
+        mProfiler = profiler;
+    }
+
+    // 根据 getAspectState 的输出还原织入规则，不需要再次扫描 class
+    public static AnnotationScanner fromAspectState(List<String> aspectState, Log log) {
+        AnnotationScanner scanner = new AnnotationScanner(log, null, null, new TransformProfiler(false));
+        for (String line : aspectState) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(" ");
+            if (parts.length == 2 && "aspect".equals(parts[0])) {
+                scanner.addAspectClass(parts[1]);
+                continue;
+            }
+            // 第 6 项为 sampleRate，为 1 时省略
+            if (parts.length != 5 && parts.length != 6) {
+                throw new IllegalArgumentException("illegal aspect state: " + line);
+            }
+            int pointcutIndex = parts[1].indexOf('#');
+            int pointcutDescIndex = parts[1].indexOf('(', pointcutIndex);
+            int injectIndex = parts[3].indexOf('#');
+            int injectDescIndex = parts[3].indexOf('(', injectIndex);
+            Map<String, PointcutClass> classMap = "call".equals(parts[0]) ? scanner.mCallPointcutClasses : scanner.mExecutePointcutClasses;
+            scanner.putInjectMethod(classMap, parts[1].substring(0, pointcutIndex),
+                    parts[1].substring(pointcutIndex + 1, pointcutDescIndex), parts[1].substring(pointcutDescIndex),
+                    parts[3].substring(0, injectIndex), parts[3].substring(injectIndex + 1, injectDescIndex), parts[3].substring(injectDescIndex),
+                    "after".equals(parts[2]), Integer.parseInt(parts[4]), parts.length > 5 ? Integer.parseInt(parts[5]) : 1);
+        }
+        return scanner;
+    }
+
+    // 只读取编译期生成的织入规则，不扫描 class
+    public static AnnotationScanner fromAspectIndex(List<File> classpath, Log log) {
+        List<String> aspectState = new ArrayList<>();
+        for (File file : classpath) {
+            try {
+                if (file.isDirectory()) {
+                    File index = new File(file, ASPECT_INDEX);
+                    if (index.isFile()) {
+                        aspectState.addAll(Files.readAllLines(index.toPath(), StandardCharsets.UTF_8));
+                    }
+                } else if (file.isFile() && file.getName().endsWith(".jar")) {
+                    try (ZipFile zipFile = new ZipFile(file)) {
+                        ZipEntry entry = zipFile.getEntry(ASPECT_INDEX);
+                        if (entry != null) {
+                            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                                aspectState.addAll(IOUtils.readLines(inputStream, StandardCharsets.UTF_8));
+                            }
                         }
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
+            } catch (IOException e) {
+                log.error("read aspect index failed: " + file, e);
+            }
+        }
+        return fromAspectState(aspectState, log);
+    }
+
+    private void scanDirectory(String unit, File dir) throws IOException {
+        TransformProfiler.Sample sample = mProfiler.begin();
+        int scannedClasses = 0;
+        for (File file : FileUtils.getAllFiles(dir)) {
+            if (!file.getName().endsWith(".class")) {
+                continue;
+            }
+            try {
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                visitClass(bytes);
+                scannedClasses++;
+                if (mConstantPoolIndex != null) {
+                    mConstantPoolIndex.putClassFile(file, bytes);
+                }
+            } catch (IOException e) {
+                // 漏扫切面或切点会静默丢失织入，直接让构建失败
+                mLog.error("scan class failed: " + file, e);
+                throw e;
             }
         }
+        mProfiler.addScannedClasses(unit, scannedClasses);
+        mProfiler.end(sample, unit, TransformProfiler.Phase.SCAN);
     }
 
-    private void visitClass(File file) {
-        try {
-            visitClass(new FileInputStream(file));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    private void scanJar(String unit, File file) throws IOException {
+        TransformProfiler.Sample sample = mProfiler.begin();
+        JarScanCache.Entry entry = JarScanCache.getInstance().get(file);
+        if (entry == null) {
+            entry = readJar(file);
+            JarScanCache.getInstance().put(file, entry);
+            mProfiler.addScannedClasses(unit, entry.getEntrySummaries().size());
+        } else {
+            mLog.debug("scan jar from daemon cache: %s", file);
+        }
+        for (ClassInfo classInfo : entry.getClassInfos()) {
+            mClassHierarchy.putClassInfo(classInfo);
+        }
+        mAspectClasses.addAll(entry.getAspectClasses());
+        mPointcutDeclarations.addAll(entry.getPointcutDeclarations());
+        if (mConstantPoolIndex != null) {
+            mConstantPoolIndex.putJar(file, entry.getEntrySummaries());
         }
+        mProfiler.end(sample, unit, TransformProfiler.Phase.SCAN);
     }
 
-    private void visitClass(InputStream inputStream) {
-        try {
-            visitClass(IOUtils.toByteArray(inputStream));
+    // 每个 jar 单独扫描到一个临时的 AnnotationScanner 中，扫描结果可以在多次构建之间复用
+    private JarScanCache.Entry readJar(File file) throws IOException {
+        ClassHierarchy jarClassHierarchy = new ClassHierarchy(mLog, Collections.emptyList());
+        AnnotationScanner jarScanner = new AnnotationScanner(mLog, jarClassHierarchy, null, mProfiler);
+        Map<String, long[]> entrySummaries = new HashMap<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                byte[] bytes;
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    // 按 entry 的大小一次分配缓冲区
+                    bytes = entry.getSize() >= 0 ? IOUtils.toByteArray(inputStream, entry.getSize()) : IOUtils.toByteArray(inputStream);
+                }
+                jarScanner.visitClass(bytes);
+                entrySummaries.put(entry.getName(), ConstantPoolFilter.summarize(bytes));
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            mLog.error("scan jar failed: " + file, e);
+            throw e;
         }
+        return new JarScanCache.Entry(new ArrayList<>(jarClassHierarchy.getLoadedClassInfos()), jarScanner.mAspectClasses,
+                jarScanner.mPointcutDeclarations, entrySummaries);
     }
 
     private void visitClass(byte[] bytes) {
         ClassReader classReader = new ClassReader(bytes);
-        classReader.accept(new AnnotationClassVisitor(this, new Context(mLog, mClassLoader)), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
-    }
-
-    public void putCallInjectMethod(String pointcutClassName, String pointcutMethodName,
-                                    String pointcutMethodDesc, String injectClassName, String injectMethodName,
-                                    String injectMethodDesc, boolean isAfter) {
-        mLog.info("putCallInjectMethod: pointcutClassName = " + pointcutClassName
-                + ", pointcutMethodName = " + pointcutMethodName
-                + ", pointcutMethodDesc = " + pointcutMethodDesc
-                + ", injectClassName = " + injectClassName
-                + ", injectMethodName = " + injectMethodName
-                + ", injectMethodDesc = " + injectMethodDesc
-                + ", isAfter = " + isAfter
-        );
-        putInjectMethod(mCallPointcutClasses, pointcutClassName, pointcutMethodName, pointcutMethodDesc, injectClassName, injectMethodName, injectMethodDesc, isAfter);
-    }
-
-    public void putSuperExecuteInjectMethod(String pointcutClassName, String pointcutMethodName,
-                                            String pointcutMethodDesc, String injectClassName, String injectMethodName,
-                                            String injectMethodDesc, boolean isAfter) {
-        mLog.info("putSuperExecuteInjectMethod: pointcutClassName = " + pointcutClassName
-                + ", pointcutMethodName = " + pointcutMethodName
-                + ", pointcutMethodDesc = " + pointcutMethodDesc
-                + ", injectClassName = " + injectClassName
-                + ", injectMethodName = " + injectMethodName
-                + ", injectMethodDesc = " + injectMethodDesc
-                + ", isAfter = " + isAfter
-        );
-        putInjectMethod(mExecutePointcutClasses, pointcutClassName, pointcutMethodName, pointcutMethodDesc, injectClassName, injectMethodName, injectMethodDesc, isAfter);
+        classReader.accept(new AnnotationClassVisitor(this, new Context(mLog, mClassHierarchy), new ClassInfoVisitor(mClassHierarchy)),
+                ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+    }
+
+    public void putPointcutAnnotation(Class<?> annotation, String pointcutClassName, String pointcutMethodName,
+                                      String injectClassName, String injectMethodName, String injectMethodDesc, int precedence, int sampleRate) {
+        mPointcutDeclarations.add(new PointcutDeclaration(annotation, pointcutClassName, pointcutMethodName,
+                injectClassName, injectMethodName, injectMethodDesc, precedence, sampleRate));
+    }
+
+    private void resolvePointcutDeclarations() {
+        for (PointcutDeclaration declaration : mPointcutDeclarations) {
+            if (mClassHierarchy.getClassInfo(declaration.mPointcutClassName) == null) {
+                mLog.error("pointcut class not found: " + declaration.mPointcutClassName);
+                continue;
+            }
+            String pointcutMethodDesc = getPointcutMethodDesc(declaration);
+            if (pointcutMethodDesc == null) {
+                throw new RuntimeException("pointcutClassName = " + declaration.mPointcutClassName + ", pointcutMethodName = " + declaration.mPointcutMethodName + ", pointcutMethodDesc is NULL");
+            }
+
+            if (declaration.mSampleRate < 1) {
+                mLog.error("sampleRate must be positive: " + declaration.mInjectClassName + "#" + declaration.mInjectMethodName);
+                continue;
+            }
+
+            if (declaration.mAnnotation == AfterCall.class
+                    || declaration.mAnnotation == BeforeCall.class) {
+                putCallInjectMethod(declaration.mPointcutClassName, declaration.mPointcutMethodName,
+                        pointcutMethodDesc, declaration.mInjectClassName, declaration.mInjectMethodName, declaration.mInjectMethodDesc,
+                        declaration.isAfter(), declaration.mPrecedence, declaration.mSampleRate);
+            } else if (declaration.mAnnotation == AfterSuperExecute.class
+                    || declaration.mAnnotation == BeforeSuperExecute.class) {
+                putSuperExecuteInjectMethod(declaration.mPointcutClassName, declaration.mPointcutMethodName,
+                        pointcutMethodDesc, declaration.mInjectClassName, declaration.mInjectMethodName, declaration.mInjectMethodDesc,
+                        declaration.isAfter(), declaration.mPrecedence, declaration.mSampleRate);
+            }
+        }
+        mPointcutDeclarations.clear();
+    }
+
+    private String getPointcutMethodDescStart(String methodName, String methodDesc) {
+        Method method = new Method(methodName, methodDesc);
+        Type[] argumentTypes = method.getArgumentTypes();
+        if (argumentTypes.length <= 1) {
+            return "()";
+        }
+        Type[] pointcutArgumentTypes = new Type[argumentTypes.length - 1];
+        System.arraycopy(argumentTypes, 1, pointcutArgumentTypes, 0, pointcutArgumentTypes.length);
+
+        method = new Method(methodName, Type.getType(void.class), pointcutArgumentTypes);
+        String descriptor = method.getDescriptor();
+        return descriptor.substring(0, descriptor.length() - 1);
+    }
+
+    private String getPointcutMethodDesc(PointcutDeclaration declaration) {
+        String objectPointcutMethodDescStart = getPointcutMethodDescStart(declaration.mInjectMethodName, declaration.mInjectMethodDesc);
+        String staticPointcutMethodDescStart = declaration.mInjectMethodDesc.substring(0, declaration.mInjectMethodDesc.length() - 1);
+        ClassInfo classInfo = mClassHierarchy.getClassInfo(declaration.mPointcutClassName);
+        while (classInfo != null && !"java/lang/Object".equals(classInfo.getName())) {
+            for (Method method : classInfo.getMethods()) {
+                if (method.getName().equals(declaration.mPointcutMethodName)
+                        && (method.getDescriptor().startsWith(objectPointcutMethodDescStart) || method.getDescriptor().startsWith(staticPointcutMethodDescStart))) {
+                    return method.getDescriptor();
+                }
+            }
+            classInfo = classInfo.getSuperName() == null ? null : mClassHierarchy.getClassInfo(classInfo.getSuperName());
+        }
+        return null;
+    }
+
+    public void addAspectClass(String aspectClassName) {
+        mAspectClasses.add(aspectClassName);
+    }
+
+    private void putCallInjectMethod(String pointcutClassName, String pointcutMethodName,
+                                     String pointcutMethodDesc, String injectClassName, String injectMethodName,
+                                     String injectMethodDesc, boolean isAfter, int precedence, int sampleRate) {
+        if (mLog.isInfoEnabled()) {
+            mLog.info("putCallInjectMethod: pointcutClassName = %s, pointcutMethodName = %s, pointcutMethodDesc = %s, injectClassName = %s, injectMethodName = %s, injectMethodDesc = %s, isAfter = %s, precedence = %d, sampleRate = %d",
+                    pointcutClassName, pointcutMethodName, pointcutMethodDesc, injectClassName, injectMethodName, injectMethodDesc, isAfter, precedence, sampleRate);
+        }
+        putInjectMethod(mCallPointcutClasses, pointcutClassName, pointcutMethodName, pointcutMethodDesc, injectClassName, injectMethodName, injectMethodDesc, isAfter, precedence, sampleRate);
+    }
+
+    private void putSuperExecuteInjectMethod(String pointcutClassName, String pointcutMethodName,
+                                             String pointcutMethodDesc, String injectClassName, String injectMethodName,
+                                             String injectMethodDesc, boolean isAfter, int precedence, int sampleRate) {
+        if (mLog.isInfoEnabled()) {
+            mLog.info("putSuperExecuteInjectMethod: pointcutClassName = %s, pointcutMethodName = %s, pointcutMethodDesc = %s, injectClassName = %s, injectMethodName = %s, injectMethodDesc = %s, isAfter = %s, precedence = %d, sampleRate = %d",
+                    pointcutClassName, pointcutMethodName, pointcutMethodDesc, injectClassName, injectMethodName, injectMethodDesc, isAfter, precedence, sampleRate);
+        }
+        putInjectMethod(mExecutePointcutClasses, pointcutClassName, pointcutMethodName, pointcutMethodDesc, injectClassName, injectMethodName, injectMethodDesc, isAfter, precedence, sampleRate);
     }
 
     private void putInjectMethod(Map<String, PointcutClass> classMap, String pointcutClassName,
                                  String pointcutMethodName, String pointcutMethodDesc, String injectClassName,
-                                 String injectMethodName, String injectMethodDesc, boolean isAfter) {
+                                 String injectMethodName, String injectMethodDesc, boolean isAfter, int precedence, int sampleRate) {
         PointcutClass pointcutClass = classMap.get(pointcutClassName);
         if (pointcutClass == null) {
             pointcutClass = new PointcutClass(pointcutClassName);
@@ -146,7 +350,7 @@ public class AnnotationScanner {
             pointcutMethod = new PointcutMethod(pointcutMethodName, pointcutMethodDesc);
             pointcutClass.addPointcutMethod(pointcutMethod);
         }
-        pointcutMethod.addInjectMethod(new InjectMethod(injectClassName, injectMethodName, injectMethodDesc, isAfter));
+        pointcutMethod.addInjectMethod(new InjectMethod(injectClassName, injectMethodName, injectMethodDesc, isAfter, precedence, sampleRate));
     }
 
     public Map<String, PointcutClass> getCallPointcutClasses() {
@@ -157,4 +361,62 @@ public class AnnotationScanner {
         return Collections.unmodifiableMap(mExecutePointcutClasses);
     }
 
+    public Set<String> getAspectClasses() {
+        return Collections.unmodifiableSet(mAspectClasses);
+    }
+
+    // 描述当前的 Aspect 类及其织入点，增量编译时用于判断织入规则是否发生变化
+    public List<String> getAspectState() {
+        List<String> state = new ArrayList<>();
+        for (String aspectClass : mAspectClasses) {
+            state.add("aspect " + aspectClass);
+        }
+        state.addAll(describePointcuts("call", mCallPointcutClasses));
+        state.addAll(describePointcuts("execute", mExecutePointcutClasses));
+        return state;
+    }
+
+    private Set<String> describePointcuts(String type, Map<String, PointcutClass> classMap) {
+        Set<String> pointcuts = new TreeSet<>();
+        for (PointcutClass pointcutClass : classMap.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
+                    pointcuts.add(type + " " + pointcutClass.getName() + "#" + pointcutMethod.getName() + pointcutMethod.getDesc()
+                            + " " + (injectMethod.isAfter() ? "after " : "before ")
+                            + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc()
+                            + " " + injectMethod.getPrecedence()
+                            + (injectMethod.getSampleRate() > 1 ? " " + injectMethod.getSampleRate() : ""));
+                }
+            }
+        }
+        return pointcuts;
+    }
+
+    static final class PointcutDeclaration {
+        final Class<?> mAnnotation;
+        final String mPointcutClassName;
+        final String mPointcutMethodName;
+        final String mInjectClassName;
+        final String mInjectMethodName;
+        final String mInjectMethodDesc;
+        final int mPrecedence;
+        final int mSampleRate;
+
+        PointcutDeclaration(Class<?> annotation, String pointcutClassName, String pointcutMethodName,
+                            String injectClassName, String injectMethodName, String injectMethodDesc, int precedence, int sampleRate) {
+            this.mAnnotation = annotation;
+            this.mPointcutClassName = pointcutClassName;
+            this.mPointcutMethodName = pointcutMethodName;
+            this.mInjectClassName = injectClassName;
+            this.mInjectMethodName = injectMethodName;
+            this.mInjectMethodDesc = injectMethodDesc;
+            this.mPrecedence = precedence;
+            this.mSampleRate = sampleRate;
+        }
+
+        boolean isAfter() {
+            return mAnnotation == AfterCall.class
+                    || mAnnotation == AfterSuperExecute.class;
+        }
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.annotation;
+
+import com.littersun.butcherknife.plugin.hierarchy.ClassInfo;
+
+import org.objectweb.asm.commons.Method;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// jar 的扫描结果在同一个 daemon 的多次构建及多个 variant 之间共享，jar 的路径、大小或修改时间变化后失效。
+// 按估算的内存占用计算容量，超过上限时淘汰最久没有使用的 jar，扫描结果通过 SoftReference 持有，daemon 内存不足时可以被回收
+final class JarScanCache {
+    private static final long MAX_CACHED_BYTES = 64L * 1024 * 1024;
+    private static final JarScanCache INSTANCE = new JarScanCache(MAX_CACHED_BYTES);
+
+    private final long mMaxBytes;
+    private final Map<String, CachedEntry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mCachedBytes;
+
+    private JarScanCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    static JarScanCache getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized Entry get(File jar) {
+        CachedEntry cachedEntry = mEntries.get(jar.getAbsolutePath());
+        if (cachedEntry == null) {
+            return null;
+        }
+        Entry entry = cachedEntry.mEntry.get();
+        if (entry == null) {
+            // 已经被 GC 回收
+            mEntries.remove(jar.getAbsolutePath());
+            mCachedBytes -= cachedEntry.mWeight;
+            return null;
+        }
+        return cachedEntry.mFingerprint.equals(fingerprint(jar)) ? entry : null;
+    }
+
+    synchronized void put(File jar, Entry entry) {
+        CachedEntry cachedEntry = new CachedEntry(entry, fingerprint(jar));
+        if (cachedEntry.mWeight > mMaxBytes) {
+            return;
+        }
+        CachedEntry previous = mEntries.put(jar.getAbsolutePath(), cachedEntry);
+        if (previous != null) {
+            mCachedBytes -= previous.mWeight;
+        }
+        mCachedBytes += cachedEntry.mWeight;
+        Iterator<CachedEntry> iterator = mEntries.values().iterator();
+        while (mCachedBytes > mMaxBytes && iterator.hasNext()) {
+            CachedEntry eldest = iterator.next();
+            if (eldest == cachedEntry) {
+                break;
+            }
+            mCachedBytes -= eldest.mWeight;
+            iterator.remove();
+        }
+    }
+
+    private static String fingerprint(File jar) {
+        return jar.length() + ":" + jar.lastModified();
+    }
+
+    private static final class CachedEntry {
+        final SoftReference<Entry> mEntry;
+        final String mFingerprint;
+        final long mWeight;
+
+        CachedEntry(Entry entry, String fingerprint) {
+            mEntry = new SoftReference<>(entry);
+            mFingerprint = fingerprint;
+            mWeight = entry.estimateSize();
+        }
+    }
+
+    static final class Entry {
+        private final List<ClassInfo> mClassInfos;
+        private final Set<String> mAspectClasses;
+        private final List<AnnotationScanner.PointcutDeclaration> mPointcutDeclarations;
+        private final Map<String, long[]> mEntrySummaries;
+
+        Entry(List<ClassInfo> classInfos, Set<String> aspectClasses,
+              List<AnnotationScanner.PointcutDeclaration> pointcutDeclarations, Map<String, long[]> entrySummaries) {
+            mClassInfos = Collections.unmodifiableList(classInfos);
+            mAspectClasses = Collections.unmodifiableSet(aspectClasses);
+            mPointcutDeclarations = Collections.unmodifiableList(pointcutDeclarations);
+            mEntrySummaries = Collections.unmodifiableMap(entrySummaries);
+        }
+
+        List<ClassInfo> getClassInfos() {
+            return mClassInfos;
+        }
+
+        Set<String> getAspectClasses() {
+            return mAspectClasses;
+        }
+
+        List<AnnotationScanner.PointcutDeclaration> getPointcutDeclarations() {
+            return mPointcutDeclarations;
+        }
+
+        Map<String, long[]> getEntrySummaries() {
+            return mEntrySummaries;
+        }
+
+        // 粗略估算占用的字节数，字符串按每个字符 2 字节加上对象头计算，只用于决定淘汰的顺序
+        long estimateSize() {
+            long size = 0;
+            for (ClassInfo classInfo : mClassInfos) {
+                size += 64 + estimateSize(classInfo.getName()) + estimateSize(classInfo.getSuperName());
+                for (String anInterface : classInfo.getInterfaces()) {
+                    size += estimateSize(anInterface);
+                }
+                for (Method method : classInfo.getMethods()) {
+                    size += 32 + estimateSize(method.getName()) + estimateSize(method.getDescriptor());
+                }
+            }
+            for (Map.Entry<String, long[]> summary : mEntrySummaries.entrySet()) {
+                size += 48 + estimateSize(summary.getKey()) + 16 + summary.getValue().length * 8L;
+            }
+            return size + (mAspectClasses.size() + mPointcutDeclarations.size()) * 128L;
+        }
+
+        private static long estimateSize(String value) {
+            return value == null ? 0 : 40 + value.length() * 2L;
+        }
+    }
+}
@@ -32,15 +32,15 @@ import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.commons.Method;
 
 public class AnnotationClassVisitor extends ClassVisitor {
     private final AnnotationScanner mAnnotationScanner;
     private final Context mContext;
     private boolean mIsAspectClass = false;
+    private int mPrecedence = 0;
 
-    public AnnotationClassVisitor(AnnotationScanner annotationScanner, Context context) {
-        super(context.getASMVersion());
+    public AnnotationClassVisitor(AnnotationScanner annotationScanner, Context context, ClassVisitor cv) {
+        super(context.getASMVersion(), cv);
         mAnnotationScanner = annotationScanner;
         mContext = context;
     }
@@ -55,16 +55,27 @@ public class AnnotationClassVisitor extends ClassVisitor {
         if (desc.equals(Type.getType(Aspect.class).getDescriptor())) {
             System.err.println("Find Aspect class is " + mContext.getClassName());
             mIsAspectClass = true;
+            mAnnotationScanner.addAspectClass(mContext.getClassName());
+            return new AnnotationVisitor(mContext.getASMVersion(), super.visitAnnotation(desc, visible)) {
+                @Override
+                public void visit(String name, Object value) {
+                    if ("precedence".equals(name)) {
+                        mPrecedence = (Integer) value;
+                    }
+                    super.visit(name, value);
+                }
+            };
         }
         return super.visitAnnotation(desc, visible);
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
         if (mIsAspectClass) {
-            return new MethodAnnotationScanner(name, desc);
+            return new MethodAnnotationScanner(mv, name, desc);
         } else {
-            return super.visitMethod(access, name, desc, signature, exceptions);
+            return mv;
         }
     }
 
@@ -73,8 +84,8 @@ public class AnnotationClassVisitor extends ClassVisitor {
         private final String mInjectMethodDesc;
         private AspectAnnotationVisitor mAnnotationVisitor;
 
-        private MethodAnnotationScanner(String methodName, String methodDesc) {
-            super(mContext.getASMVersion());
+        private MethodAnnotationScanner(MethodVisitor mv, String methodName, String methodDesc) {
+            super(mContext.getASMVersion(), mv);
             mInjectMethodName = methodName;
             mInjectMethodDesc = methodDesc;
         }
@@ -105,72 +116,18 @@ public class AnnotationClassVisitor extends ClassVisitor {
             return super.visitAnnotation(desc, visible);
         }
 
-        private boolean isAfterAnnotation(Class<?> annotation) {
-            return annotation == AfterCall.class
-                    || annotation == AfterSuperExecute.class;
-        }
-
         @Override
         public void visitEnd() {
             if (mAnnotationVisitor != null) {
                 for (PointcutAnnotation pointcutAnnotation : mAnnotationVisitor.getPointcutAnnotations()) {
-                    try {
-                        String pointcutMethodDesc = getPointcutMethodDesc(pointcutAnnotation.clazz, pointcutAnnotation.method);
-                        if (pointcutMethodDesc == null) {
-                            throw new RuntimeException("pointcutClassName = " + pointcutAnnotation.clazz + ", pointcutMethodName = " + pointcutAnnotation.method + ", pointcutMethodDesc is NULL");
-                        }
-
-                        if (pointcutAnnotation.annotation == AfterCall.class
-                                || pointcutAnnotation.annotation == BeforeCall.class) {
-                            mAnnotationScanner.putCallInjectMethod(Type.getType(pointcutAnnotation.clazz).getInternalName(), pointcutAnnotation.method,
-                                    pointcutMethodDesc, mContext.getClassName(), mInjectMethodName, mInjectMethodDesc,
-                                    isAfterAnnotation(pointcutAnnotation.annotation));
-                        } else if (pointcutAnnotation.annotation == AfterSuperExecute.class
-                                || pointcutAnnotation.annotation == BeforeSuperExecute.class) {
-                            mAnnotationScanner.putSuperExecuteInjectMethod(Type.getType(pointcutAnnotation.clazz).getInternalName(), pointcutAnnotation.method,
-                                    pointcutMethodDesc, mContext.getClassName(), mInjectMethodName, mInjectMethodDesc,
-                                    isAfterAnnotation(pointcutAnnotation.annotation));
-                        }
-                    } catch (ClassNotFoundException e) {
-                        e.printStackTrace();
-                    }
+                    // 切点类可能位于尚未扫描的输入中，描述符在全部扫描完成后再解析
+                    mAnnotationScanner.putPointcutAnnotation(pointcutAnnotation.annotation,
+                            Type.getType(pointcutAnnotation.clazz).getInternalName(), pointcutAnnotation.method,
+                            mContext.getClassName(), mInjectMethodName, mInjectMethodDesc, mPrecedence, pointcutAnnotation.sampleRate);
                 }
             }
             super.visitEnd();
         }
-
-        private String getPointcutMethodDescStart(String methodName, String methodDesc) {
-            Method method = new Method(methodName, methodDesc);
-            Type[] argumentTypes = method.getArgumentTypes();
-            if (argumentTypes.length <= 1) {
-                return "()";
-            }
-            Type[] pointcutArgumentTypes = new Type[argumentTypes.length - 1];
-            System.arraycopy(argumentTypes, 1, pointcutArgumentTypes, 0, pointcutArgumentTypes.length);
-
-            method = new Method(methodName, Type.getType(void.class), pointcutArgumentTypes);
-            String descriptor = method.getDescriptor();
-            return descriptor.substring(0, descriptor.length() - 1);
-        }
-
-
-        private String getPointcutMethodDesc(String pointcutClass, String pointcutMethodName) throws ClassNotFoundException {
-            Class<?> aClass = mContext.getClassLoader().loadClass(Type.getType(pointcutClass).getClassName());
-            while (aClass != Object.class) {
-                String objectPointcutMethodDescStart = getPointcutMethodDescStart(mInjectMethodName, mInjectMethodDesc);
-                String staticPointcutMethodDescStart = mInjectMethodDesc.substring(0, mInjectMethodDesc.length() - 1);
-                for (java.lang.reflect.Method declaredMethod : aClass.getDeclaredMethods()) {
-                    Method method = Method.getMethod(declaredMethod);
-                    if (method.getName().equals(pointcutMethodName) &&
-                            (method.getDescriptor().startsWith(objectPointcutMethodDescStart) || method.getDescriptor().startsWith(staticPointcutMethodDescStart))) {
-                        return method.getDescriptor();
-                    }
-                }
-                aClass = aClass.getSuperclass();
-            }
-
-            return null;
-        }
     }
 
 }
@@ -20,10 +20,12 @@ class PointcutAnnotation {
     public final Class<?> annotation;
     public final String clazz;
     public final String method;
+    public final int sampleRate;
 
-    PointcutAnnotation(Class<?> annotation, String clazz, String method) {
+    PointcutAnnotation(Class<?> annotation, String clazz, String method, int sampleRate) {
         this.annotation = annotation;
         this.clazz = clazz;
         this.method = method;
+        this.sampleRate = sampleRate;
     }
 }
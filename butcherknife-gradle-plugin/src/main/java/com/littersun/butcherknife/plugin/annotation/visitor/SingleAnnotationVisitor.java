@@ -22,6 +22,7 @@ public class SingleAnnotationVisitor extends AspectAnnotationVisitor {
     private final Class<?> mAnnotationClass;
     private String mPointcutClass;
     private String mPointcutMethod;
+    private int mSampleRate = 1;
 
     public SingleAnnotationVisitor(Context context, Class<?> annotationClass) {
         super(context);
@@ -38,6 +39,9 @@ public class SingleAnnotationVisitor extends AspectAnnotationVisitor {
             case "method":
                 mPointcutMethod = value.toString();
                 break;
+            case "sampleRate":
+                mSampleRate = (Integer) value;
+                break;
             default:
                 break;
         }
@@ -45,7 +49,7 @@ public class SingleAnnotationVisitor extends AspectAnnotationVisitor {
 
     @Override
     public void visitEnd() {
-        addPointcutAnnotation(new PointcutAnnotation(mAnnotationClass, mPointcutClass, mPointcutMethod));
+        addPointcutAnnotation(new PointcutAnnotation(mAnnotationClass, mPointcutClass, mPointcutMethod, mSampleRate));
         super.visitEnd();
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.cache;
+
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 以 class 内容、织入规则及插件版本为 key 缓存织入结果，多个构建（或多台机器通过共享目录）之间可以复用
+public class WeaveCache {
+    private static final int MAGIC = 0x424b5745;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mCacheDir;
+    private final String mModelHash;
+    private final Log mLog;
+
+    public WeaveCache(File cacheDir, String modelHash, Log log) {
+        mCacheDir = cacheDir;
+        mModelHash = modelHash;
+        mLog = log;
+    }
+
+    // 返回 null 表示没有可用的缓存
+    public Entry get(byte[] classBytes, ClassHierarchy classHierarchy) {
+        File file = getCacheFile(classBytes);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (inputStream.readInt() != MAGIC) {
+                return null;
+            }
+            // 织入结果依赖于类的继承关系，继承关系发生变化时缓存失效
+            int queryCount = inputStream.readInt();
+            Map<String, Boolean> assignableQueries = new LinkedHashMap<>();
+            for (int i = 0; i < queryCount; i++) {
+                String subClassName = inputStream.readUTF();
+                String superClassName = inputStream.readUTF();
+                boolean isAssignable = inputStream.readBoolean();
+                if (classHierarchy.isAssignable(subClassName, superClassName) != isAssignable) {
+                    return null;
+                }
+                assignableQueries.put(subClassName + " " + superClassName, isAssignable);
+            }
+            int pointcutCount = inputStream.readInt();
+            Map<String, Integer> wovenPointcuts = new LinkedHashMap<>();
+            for (int i = 0; i < pointcutCount; i++) {
+                wovenPointcuts.put(inputStream.readUTF(), inputStream.readInt());
+            }
+            if (!inputStream.readBoolean()) {
+                return new Entry(null, assignableQueries, wovenPointcuts);
+            }
+            byte[] modifiedClass = new byte[inputStream.readInt()];
+            inputStream.readFully(modifiedClass);
+            return new Entry(modifiedClass, assignableQueries, wovenPointcuts);
+        } catch (IOException e) {
+            mLog.warning("read weave cache failed: " + file, e);
+            return null;
+        }
+    }
+
+    public void put(byte[] classBytes, Map<String, Boolean> assignableQueries, Map<String, Integer> wovenPointcuts, byte[] modifiedClass) {
+        File file = getCacheFile(classBytes);
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(assignableQueries.size());
+            for (Map.Entry<String, Boolean> query : assignableQueries.entrySet()) {
+                int index = query.getKey().indexOf(' ');
+                outputStream.writeUTF(query.getKey().substring(0, index));
+                outputStream.writeUTF(query.getKey().substring(index + 1));
+                outputStream.writeBoolean(query.getValue());
+            }
+            outputStream.writeInt(wovenPointcuts.size());
+            for (Map.Entry<String, Integer> pointcut : wovenPointcuts.entrySet()) {
+                outputStream.writeUTF(pointcut.getKey());
+                outputStream.writeInt(pointcut.getValue());
+            }
+            outputStream.writeBoolean(modifiedClass != null);
+            if (modifiedClass != null) {
+                outputStream.writeInt(modifiedClass.length);
+                outputStream.write(modifiedClass);
+            }
+            outputStream.flush();
+
+            // 缓存目录可能被多个进程共享，先写临时文件再移动
+            file.getParentFile().mkdirs();
+            File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            Files.write(tmpFile.toPath(), byteArrayOutputStream.toByteArray());
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            mLog.warning("write weave cache failed: " + file, e);
+        }
+    }
+
+    private File getCacheFile(byte[] classBytes) {
+        MessageDigest digest = newDigest();
+        digest.update(classBytes);
+        digest.update(mModelHash.getBytes(StandardCharsets.UTF_8));
+        String key = toHex(digest.digest());
+        return new File(new File(mCacheDir, key.substring(0, 2)), key);
+    }
+
+    public static String hash(Iterable<String> lines) {
+        MessageDigest digest = newDigest();
+        for (String line : lines) {
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    public static final class Entry {
+        private final byte[] mModifiedClass;
+        private final Map<String, Boolean> mAssignableQueries;
+        private final Map<String, Integer> mWovenPointcuts;
+
+        private Entry(byte[] modifiedClass, Map<String, Boolean> assignableQueries, Map<String, Integer> wovenPointcuts) {
+            mModifiedClass = modifiedClass;
+            mAssignableQueries = Collections.unmodifiableMap(assignableQueries);
+            mWovenPointcuts = Collections.unmodifiableMap(wovenPointcuts);
+        }
+
+        // 返回 null 表示该类不需要修改
+        public byte[] getModifiedClass() {
+            return mModifiedClass;
+        }
+
+        // 织入时查询过的继承关系，格式与 Context#getAssignableQueries 一致
+        public Map<String, Boolean> getAssignableQueries() {
+            return mAssignableQueries;
+        }
+
+        // 切点 -> 织入的次数
+        public Map<String, Integer> getWovenPointcuts() {
+            return mWovenPointcuts;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.cache;
+
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 切点到输出文件（目录中的 class 或者 jar）的反向索引，织入规则变化时只需要重新织入受影响的输出
+public class WeaveIndex {
+    private static final String HEADER = "# weave-index 2";
+    private static final String POINTCUTS = "pointcuts";
+    private static final String QUERIES = "queries";
+
+    // 输出文件 -> 其中织入过的切点，没有织入任何切点的输出不记录
+    private final Map<String, Set<String>> mOutputs = new ConcurrentHashMap<>();
+    // 输出文件 -> 织入时查询过的继承关系（"子类 父类" -> 结果），上游类的父类型变化时据此找出需要重新织入的输出
+    private final Map<String, Map<String, Boolean>> mQueries = new ConcurrentHashMap<>();
+
+    // 索引不存在或者无法读取时返回 null
+    public static WeaveIndex read(File indexFile, Log log) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        WeaveIndex weaveIndex = new WeaveIndex();
+        try {
+            List<String> lines = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8);
+            // 旧格式的索引没有记录继承关系，无法判断哪些输出需要重新织入
+            if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+                return null;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t");
+                if (parts.length < 2) {
+                    return null;
+                }
+                if (POINTCUTS.equals(parts[0])) {
+                    Set<String> pointcuts = new TreeSet<>();
+                    for (int i = 2; i < parts.length; i++) {
+                        pointcuts.add(parts[i]);
+                    }
+                    weaveIndex.mOutputs.put(parts[1], pointcuts);
+                } else if (QUERIES.equals(parts[0])) {
+                    Map<String, Boolean> queries = new TreeMap<>();
+                    for (int i = 2; i < parts.length; i++) {
+                        int index = parts[i].lastIndexOf(' ');
+                        queries.put(parts[i].substring(0, index), Boolean.parseBoolean(parts[i].substring(index + 1)));
+                    }
+                    weaveIndex.mQueries.put(parts[1], queries);
+                } else {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            log.warning("read weave index failed: " + indexFile, e);
+            return null;
+        }
+        return weaveIndex;
+    }
+
+    public void write(File indexFile) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (Map.Entry<String, Set<String>> entry : new TreeMap<>(mOutputs).entrySet()) {
+            lines.add(POINTCUTS + "\t" + entry.getKey() + "\t" + String.join("\t", entry.getValue()));
+        }
+        for (Map.Entry<String, Map<String, Boolean>> entry : new TreeMap<>(mQueries).entrySet()) {
+            StringBuilder line = new StringBuilder(QUERIES).append('\t').append(entry.getKey());
+            for (Map.Entry<String, Boolean> query : entry.getValue().entrySet()) {
+                line.append('\t').append(query.getKey()).append(' ').append(query.getValue());
+            }
+            lines.add(line.toString());
+        }
+        indexFile.getParentFile().mkdirs();
+        Files.write(indexFile.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    public void put(File output, Collection<String> wovenPointcuts, Map<String, Boolean> assignableQueries) {
+        String path = output.getAbsolutePath();
+        if (wovenPointcuts.isEmpty()) {
+            mOutputs.remove(path);
+        } else {
+            mOutputs.put(path, new TreeSet<>(wovenPointcuts));
+        }
+        // 没有织入任何切点的输出也可能因为继承关系变化而需要织入，查询结果需要单独记录
+        if (assignableQueries.isEmpty()) {
+            mQueries.remove(path);
+        } else {
+            mQueries.put(path, new TreeMap<>(assignableQueries));
+        }
+    }
+
+    public void remove(File output) {
+        mOutputs.remove(output.getAbsolutePath());
+        mQueries.remove(output.getAbsolutePath());
+    }
+
+    // 织入过任意一个切点的输出
+    public Set<File> getOutputs(Set<String> pointcuts) {
+        Set<File> outputs = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : mOutputs.entrySet()) {
+            for (String pointcut : entry.getValue()) {
+                if (pointcuts.contains(pointcut)) {
+                    outputs.add(new File(entry.getKey()));
+                    break;
+                }
+            }
+        }
+        return outputs;
+    }
+
+    // 继承关系查询结果与当前类层次不一致的输出
+    public Set<File> getHierarchyChangedOutputs(ClassHierarchy classHierarchy) {
+        Set<File> outputs = new HashSet<>();
+        for (Map.Entry<String, Map<String, Boolean>> entry : mQueries.entrySet()) {
+            for (Map.Entry<String, Boolean> query : entry.getValue().entrySet()) {
+                int index = query.getKey().indexOf(' ');
+                if (classHierarchy.isAssignable(query.getKey().substring(0, index), query.getKey().substring(index + 1)) != query.getValue()) {
+                    outputs.add(new File(entry.getKey()));
+                    break;
+                }
+            }
+        }
+        return outputs;
+    }
+
+    // 两次织入规则中发生变化的切点，格式与 Context#recordPointcut 一致
+    public static Set<String> diffPointcuts(List<String> previousState, List<String> currentState) {
+        Set<String> previousLines = new HashSet<>(previousState);
+        Set<String> currentLines = new HashSet<>(currentState);
+        Set<String> pointcuts = new TreeSet<>();
+        for (String line : previousState) {
+            if (!currentLines.contains(line)) {
+                addPointcut(pointcuts, line);
+            }
+        }
+        for (String line : currentState) {
+            if (!previousLines.contains(line)) {
+                addPointcut(pointcuts, line);
+            }
+        }
+        return pointcuts;
+    }
+
+    public static Set<String> getPointcuts(List<String> aspectState) {
+        Set<String> pointcuts = new TreeSet<>();
+        for (String line : aspectState) {
+            addPointcut(pointcuts, line);
+        }
+        return pointcuts;
+    }
+
+    // 返回 null 表示该行不是切点，例如 "aspect X"
+    public static String getPointcut(String aspectStateLine) {
+        String[] parts = aspectStateLine.split(" ");
+        if (parts.length != 5 && parts.length != 6) {
+            return null;
+        }
+        return parts[0] + " " + parts[1];
+    }
+
+    private static void addPointcut(Set<String> pointcuts, String aspectStateLine) {
+        String pointcut = getPointcut(aspectStateLine);
+        if (pointcut != null) {
+            pointcuts.add(pointcut);
+        }
+    }
+}
@@ -16,17 +16,25 @@
 
 package com.littersun.butcherknife.plugin.entity;
 
-public class InjectMethod {
+public class InjectMethod implements Comparable<InjectMethod> {
     private final String mClassName;
     private final String mMethodName;
     private final String mMethodDesc;
     private final boolean mIsAfter;
+    private final int mPrecedence;
+    private final int mSampleRate;
 
-    public InjectMethod(String className, String methodName, String methodDesc, boolean isAfter) {
+    public InjectMethod(String className, String methodName, String methodDesc, boolean isAfter, int precedence) {
+        this(className, methodName, methodDesc, isAfter, precedence, 1);
+    }
+
+    public InjectMethod(String className, String methodName, String methodDesc, boolean isAfter, int precedence, int sampleRate) {
         mClassName = className;
         mMethodName = methodName;
         mMethodDesc = methodDesc;
         mIsAfter = isAfter;
+        mPrecedence = precedence;
+        mSampleRate = sampleRate;
     }
 
     public String getClassName() {
@@ -45,6 +53,33 @@ public class InjectMethod {
         return mIsAfter;
     }
 
+    public int getPrecedence() {
+        return mPrecedence;
+    }
+
+    // 每 sampleRate 次执行到织入点时调用一次，1 表示每次都调用
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int compareTo(InjectMethod o) {
+        int result = Integer.compare(mPrecedence, o.mPrecedence);
+        if (result == 0) {
+            result = mClassName.compareTo(o.mClassName);
+        }
+        if (result == 0) {
+            result = mMethodName.compareTo(o.mMethodName);
+        }
+        if (result == 0) {
+            result = mMethodDesc.compareTo(o.mMethodDesc);
+        }
+        if (result == 0) {
+            result = Boolean.compare(mIsAfter, o.mIsAfter);
+        }
+        return result;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -16,37 +16,33 @@
 
 package com.littersun.butcherknife.plugin.entity;
 
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class PointcutClass {
     private final String mName;
-    private final Set<PointcutMethod> mPointcutMethods = new HashSet<>();
+    private final Map<String, PointcutMethod> mPointcutMethods = new TreeMap<>();
 
     public PointcutClass(String name) {
         mName = name;
     }
 
     public void addPointcutMethod(PointcutMethod method) {
-        mPointcutMethods.add(method);
+        mPointcutMethods.put(method.getName() + method.getDesc(), method);
     }
 
     public String getName() {
         return mName;
     }
 
-    public Set<PointcutMethod> getPointcutMethods() {
-        return Collections.unmodifiableSet(mPointcutMethods);
+    public Collection<PointcutMethod> getPointcutMethods() {
+        return Collections.unmodifiableCollection(mPointcutMethods.values());
     }
 
     public PointcutMethod getPointcutMethod(String name, String desc) {
-        for (PointcutMethod method : mPointcutMethods) {
-            if (name.equals(method.getName()) && desc.equals(method.getDesc())) {
-                return method;
-            }
-        }
-        return null;
+        return mPointcutMethods.get(name + desc);
     }
 
     @Override
@@ -16,14 +16,17 @@
 
 package com.littersun.butcherknife.plugin.entity;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class PointcutMethod {
     private final String mName;
     private final String mDesc;
-    private final Set<InjectMethod> mInjectMethods = new HashSet<>();
+    // 按 Aspect 的 precedence 排序，保证每次织入的顺序一致
+    private final Set<InjectMethod> mInjectMethods = new TreeSet<>();
 
     public PointcutMethod(String name, String desc) {
         mName = name;
@@ -50,6 +53,27 @@ public class PointcutMethod {
         return Collections.unmodifiableSet(mInjectMethods);
     }
 
+    public List<InjectMethod> getBeforeInjectMethods() {
+        List<InjectMethod> injectMethods = new ArrayList<>();
+        for (InjectMethod injectMethod : mInjectMethods) {
+            if (!injectMethod.isAfter()) {
+                injectMethods.add(injectMethod);
+            }
+        }
+        return injectMethods;
+    }
+
+    // After 类型的织入与 Before 的顺序相反，precedence 越小的越靠外层
+    public List<InjectMethod> getAfterInjectMethods() {
+        List<InjectMethod> injectMethods = new ArrayList<>();
+        for (InjectMethod injectMethod : mInjectMethods) {
+            if (injectMethod.isAfter()) {
+                injectMethods.add(0, injectMethod);
+            }
+        }
+        return injectMethods;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
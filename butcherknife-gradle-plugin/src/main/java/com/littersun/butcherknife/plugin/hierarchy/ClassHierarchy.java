@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.hierarchy;
+
+import com.android.annotations.Nullable;
+import com.littersun.butcherknife.plugin.Log;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+// 基于字节码构建的类继承关系索引，替代 ClassLoader 加载类来判断继承关系
+public class ClassHierarchy implements Closeable {
+    private final Log mLog;
+    private final List<File> mClasspath;
+    private final File mSnapshotDir;
+    private final Set<File> mSnapshotJars;
+    private final Map<String, ClassInfo> mClasses = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> mSuperTypes = new ConcurrentHashMap<>();
+    private final Set<String> mMissingClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private List<JarFile> mJarFiles;
+    private List<HierarchySnapshot> mSnapshots;
+
+    // classpath 可以同时包含目录和 jar，未通过 putClassInfo 添加的类按顺序在其中查找
+    public ClassHierarchy(Log log, List<File> classpath) {
+        this(log, classpath, null, Collections.emptyList());
+    }
+
+    // snapshotJars 中的 jar（例如 android.jar）从 snapshotDir 中的快照查找，不再打开 jar
+    public ClassHierarchy(Log log, List<File> classpath, @Nullable File snapshotDir, Collection<File> snapshotJars) {
+        mLog = log;
+        mClasspath = classpath == null ? Collections.emptyList() : classpath;
+        mSnapshotDir = snapshotDir;
+        mSnapshotJars = new HashSet<>(snapshotJars);
+    }
+
+    public void putClassInfo(ClassInfo classInfo) {
+        // 与 ClassLoader 的行为保持一致，同名的类以最先出现的为准
+        mClasses.putIfAbsent(classInfo.getName(), classInfo);
+    }
+
+    public ClassInfo getClassInfo(String className) {
+        ClassInfo classInfo = mClasses.get(className);
+        if (classInfo == null && !mMissingClasses.contains(className)) {
+            classInfo = loadClassInfo(className);
+            if (classInfo == null) {
+                mMissingClasses.add(className);
+            }
+        }
+        return classInfo;
+    }
+
+    public boolean isAssignable(String subClassName, String superClassName) {
+        subClassName = subClassName.replace('.', '/');
+        superClassName = superClassName.replace('.', '/');
+        return subClassName.equals(superClassName) || getSuperTypes(subClassName).contains(superClassName);
+    }
+
+    public Set<String> getSuperTypes(String className) {
+        Set<String> superTypes = mSuperTypes.get(className);
+        if (superTypes != null) {
+            return superTypes;
+        }
+
+        superTypes = new HashSet<>();
+        ClassInfo classInfo = getClassInfo(className);
+        if (classInfo != null) {
+            if (classInfo.getSuperName() != null) {
+                superTypes.add(classInfo.getSuperName());
+                superTypes.addAll(getSuperTypes(classInfo.getSuperName()));
+            }
+            for (String anInterface : classInfo.getInterfaces()) {
+                superTypes.add(anInterface);
+                superTypes.addAll(getSuperTypes(anInterface));
+            }
+        }
+        superTypes = Collections.unmodifiableSet(superTypes);
+        Set<String> previous = mSuperTypes.putIfAbsent(className, superTypes);
+        return previous != null ? previous : superTypes;
+    }
+
+    // 未添加的类从 classpath 中读取，子类可以提供其它的来源
+    protected synchronized ClassInfo loadClassInfo(String className) {
+        ClassInfo classInfo = mClasses.get(className);
+        if (classInfo != null) {
+            return classInfo;
+        }
+        List<JarFile> jarFiles = getJarFiles();
+        for (int i = 0; i < mClasspath.size(); i++) {
+            File file = mClasspath.get(i);
+            HierarchySnapshot snapshot = mSnapshots.get(i);
+            if (snapshot != null) {
+                classInfo = snapshot.getClassInfo(className);
+                if (classInfo != null) {
+                    putClassInfo(classInfo);
+                    return mClasses.get(className);
+                }
+                continue;
+            }
+            JarFile jarFile = jarFiles.get(i);
+            try {
+                if (jarFile == null) {
+                    File classFile = new File(file, className + ".class");
+                    if (classFile.isFile()) {
+                        return readClassInfo(className, Files.readAllBytes(classFile.toPath()));
+                    }
+                    continue;
+                }
+                ZipEntry entry = jarFile.getEntry(className + ".class");
+                if (entry == null) {
+                    continue;
+                }
+                try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                    return readClassInfo(className, IOUtils.toByteArray(inputStream));
+                }
+            } catch (IOException e) {
+                mLog.warning("read class failed: " + className + " in " + file, e);
+            }
+        }
+        return null;
+    }
+
+    private ClassInfo readClassInfo(String className, byte[] bytes) {
+        ClassReader classReader = new ClassReader(bytes);
+        classReader.accept(new ClassInfoVisitor(this), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+        return mClasses.get(className);
+    }
+
+    public Collection<ClassInfo> getLoadedClassInfos() {
+        return mClasses.values();
+    }
+
+    // 与 mClasspath 一一对应，目录以及使用快照的 jar 对应的位置为 null
+    private List<JarFile> getJarFiles() {
+        if (mJarFiles == null) {
+            mJarFiles = new ArrayList<>();
+            mSnapshots = new ArrayList<>();
+            for (File file : mClasspath) {
+                JarFile jarFile = null;
+                HierarchySnapshot snapshot = null;
+                if (mSnapshotDir != null && mSnapshotJars.contains(file) && file.isFile()) {
+                    snapshot = HierarchySnapshot.open(mLog, mSnapshotDir, file);
+                }
+                mSnapshots.add(snapshot);
+                if (snapshot == null && file.isFile()) {
+                    try {
+                        jarFile = new JarFile(file);
+                    } catch (IOException e) {
+                        mLog.warning("open classpath failed: " + file, e);
+                    }
+                }
+                mJarFiles.add(jarFile);
+            }
+        }
+        return mJarFiles;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mJarFiles == null) {
+            return;
+        }
+        for (JarFile jarFile : mJarFiles) {
+            if (jarFile != null) {
+                jarFile.close();
+            }
+        }
+        mJarFiles = null;
+        mSnapshots = null;
+    }
+}
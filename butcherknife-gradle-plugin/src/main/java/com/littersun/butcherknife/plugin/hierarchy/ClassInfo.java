@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.hierarchy;
+
+import org.objectweb.asm.commons.Method;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ClassInfo {
+    private final String mName;
+    private final String mSuperName;
+    private final String[] mInterfaces;
+    private final List<Method> mMethods;
+
+    public ClassInfo(String name, String superName, String[] interfaces, List<Method> methods) {
+        mName = name;
+        mSuperName = superName;
+        mInterfaces = interfaces == null ? new String[]{} : interfaces;
+        mMethods = Collections.unmodifiableList(methods);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getSuperName() {
+        return mSuperName;
+    }
+
+    public String[] getInterfaces() {
+        return mInterfaces.clone();
+    }
+
+    public List<Method> getMethods() {
+        return mMethods;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.hierarchy;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Method;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClassInfoVisitor extends ClassVisitor {
+    private final ClassHierarchy mClassHierarchy;
+    private final List<Method> mMethods = new ArrayList<>();
+    private String mName;
+    private String mSuperName;
+    private String[] mInterfaces;
+
+    public ClassInfoVisitor(ClassHierarchy classHierarchy) {
+        super(Opcodes.ASM6);
+        mClassHierarchy = classHierarchy;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mName = name;
+        mSuperName = superName;
+        mInterfaces = interfaces;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        mMethods.add(new Method(name, desc));
+        return super.visitMethod(access, name, desc, signature, exceptions);
+    }
+
+    @Override
+    public void visitEnd() {
+        mClassHierarchy.putClassInfo(new ClassInfo(mName, mSuperName, mInterfaces, mMethods));
+        super.visitEnd();
+    }
+}
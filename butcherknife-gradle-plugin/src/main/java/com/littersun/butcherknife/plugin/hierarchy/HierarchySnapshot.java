@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.hierarchy;
+
+import com.littersun.butcherknife.plugin.Log;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.Method;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+// android.jar 等不会变化的 jar 的继承关系快照，只生成一次，之后的构建通过内存映射直接查找，不再解析 jar
+public final class HierarchySnapshot {
+    private static final int MAGIC = 0x424b4853;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+    // 同一个 daemon 中的多次构建复用已经映射的快照
+    private static final Map<String, HierarchySnapshot> sSnapshots = new ConcurrentHashMap<>();
+
+    private final ByteBuffer mBuffer;
+    private final int mClassCount;
+
+    private HierarchySnapshot(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mClassCount = buffer.getInt(HEADER_SIZE - 4);
+    }
+
+    // 快照不存在或者 jar 发生变化时重新生成，失败时返回 null
+    public static HierarchySnapshot open(Log log, File snapshotDir, File jar) {
+        File snapshotFile = getSnapshotFile(snapshotDir, jar);
+        String key = snapshotFile.getAbsolutePath();
+        HierarchySnapshot snapshot = sSnapshots.get(key);
+        if (snapshot != null && snapshot.matches(jar)) {
+            return snapshot;
+        }
+        try {
+            snapshot = map(snapshotFile);
+            if (snapshot == null || !snapshot.matches(jar)) {
+                log.info("generate hierarchy snapshot: %s -> %s", jar, snapshotFile);
+                write(log, jar, snapshotFile);
+                snapshot = map(snapshotFile);
+            }
+        } catch (IOException e) {
+            log.warning("open hierarchy snapshot failed: " + snapshotFile, e);
+            return null;
+        }
+        if (snapshot != null) {
+            sSnapshots.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    public ClassInfo getClassInfo(String className) {
+        int offset = findEntry(className.getBytes(StandardCharsets.UTF_8));
+        if (offset < 0) {
+            return null;
+        }
+        int[] position = {offset};
+        String name = readString(position);
+        String superName = readString(position);
+        String[] interfaces = new String[mBuffer.getShort(position[0]) & 0xFFFF];
+        position[0] += 2;
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = readString(position);
+        }
+        int methodCount = mBuffer.getInt(position[0]);
+        position[0] += 4;
+        List<Method> methods = new ArrayList<>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            methods.add(new Method(readString(position), readString(position)));
+        }
+        return new ClassInfo(name, superName.isEmpty() ? null : superName, interfaces, methods);
+    }
+
+    private boolean matches(File jar) {
+        return mBuffer.getLong(8) == jar.length() && mBuffer.getLong(16) == jar.lastModified();
+    }
+
+    // 类名按 UTF-8 字节排序，二分查找时不需要解码字符串
+    private int findEntry(byte[] className) {
+        int low = 0;
+        int high = mClassCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = mBuffer.getInt(HEADER_SIZE + mid * 4);
+            int result = compare(offset, className);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int offset, byte[] className) {
+        int length = mBuffer.getShort(offset) & 0xFFFF;
+        int start = offset + 2;
+        for (int i = 0; i < length && i < className.length; i++) {
+            int result = (mBuffer.get(start + i) & 0xFF) - (className[i] & 0xFF);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return length - className.length;
+    }
+
+    // 只使用绝对位置读取，多个线程可以同时查找
+    private String readString(int[] position) {
+        int length = mBuffer.getShort(position[0]) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(position[0] + 2 + i);
+        }
+        position[0] += 2 + length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static File getSnapshotFile(File snapshotDir, File jar) {
+        // 以所在目录区分不同的 compileSdkVersion，例如 android-30-android.jar
+        String name = jar.getParentFile().getName() + "-" + jar.getName() + "-"
+                + Integer.toHexString(jar.getAbsolutePath().hashCode()) + ".snapshot";
+        return new File(snapshotDir, name);
+    }
+
+    private static HierarchySnapshot map(File snapshotFile) throws IOException {
+        if (!snapshotFile.isFile() || snapshotFile.length() < HEADER_SIZE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            return new HierarchySnapshot(buffer);
+        }
+    }
+
+    private static void write(Log log, File jar, File snapshotFile) throws IOException {
+        ClassHierarchy collector = new ClassHierarchy(log, Collections.emptyList());
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                    ClassReader classReader = new ClassReader(IOUtils.toByteArray(inputStream));
+                    classReader.accept(new ClassInfoVisitor(collector), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+                }
+            }
+        }
+
+        List<ClassInfo> classInfos = new ArrayList<>(collector.getLoadedClassInfos());
+        List<byte[]> names = new ArrayList<>(classInfos.size());
+        for (ClassInfo classInfo : classInfos) {
+            names.add(classInfo.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        List<Integer> order = new ArrayList<>(classInfos.size());
+        for (int i = 0; i < classInfos.size(); i++) {
+            order.add(i);
+        }
+        order.sort((o1, o2) -> compareBytes(names.get(o1), names.get(o2)));
+
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        DataOutputStream entryStream = new DataOutputStream(entryBytes);
+        int entriesStart = HEADER_SIZE + classInfos.size() * 4;
+        int[] offsets = new int[classInfos.size()];
+        for (int i = 0; i < order.size(); i++) {
+            ClassInfo classInfo = classInfos.get(order.get(i));
+            offsets[i] = entriesStart + entryStream.size();
+            writeString(entryStream, classInfo.getName());
+            writeString(entryStream, classInfo.getSuperName() == null ? "" : classInfo.getSuperName());
+            String[] interfaces = classInfo.getInterfaces();
+            entryStream.writeShort(interfaces.length);
+            for (String anInterface : interfaces) {
+                writeString(entryStream, anInterface);
+            }
+            entryStream.writeInt(classInfo.getMethods().size());
+            for (Method method : classInfo.getMethods()) {
+                writeString(entryStream, method.getName());
+                writeString(entryStream, method.getDescriptor());
+            }
+        }
+        entryStream.flush();
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(entriesStart + entryBytes.size());
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+        outputStream.writeLong(jar.length());
+        outputStream.writeLong(jar.lastModified());
+        outputStream.writeInt(classInfos.size());
+        for (int offset : offsets) {
+            outputStream.writeInt(offset);
+        }
+        entryBytes.writeTo(outputStream);
+        outputStream.flush();
+
+        // 快照目录可能被多个进程共享，先写临时文件再移动
+        snapshotFile.getParentFile().mkdirs();
+        File tmpFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getParentFile());
+        Files.write(tmpFile.toPath(), byteArrayOutputStream.toByteArray());
+        try {
+            Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeShort(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static int compareBytes(byte[] bytes1, byte[] bytes2) {
+        for (int i = 0; i < bytes1.length && i < bytes2.length; i++) {
+            int result = (bytes1[i] & 0xFF) - (bytes2[i] & 0xFF);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return bytes1.length - bytes2.length;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.android.annotations.Nullable;
+import com.littersun.butcherknife.plugin.entity.InjectMethod;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// 同一个切点在同一位置有多个织入方法时，生成 ButcherKnife$$Dispatch 中的一个静态方法依次调用它们，
+// 织入点只调用这一个方法，减少织入的字节码和 dex 中的方法引用。
+// 带运行时开关或采样的织入方法需要在织入点加载参数之前检查，这样的切点不合并
+public final class AdviceDispatcher {
+    public static final String CLASS_NAME = "com/littersun/butcherknife/ButcherKnife$$Dispatch";
+
+    private final Map<PointcutMethod, InjectMethod> mBeforeDispatchMethods = new IdentityHashMap<>();
+    private final Map<PointcutMethod, InjectMethod> mAfterDispatchMethods = new IdentityHashMap<>();
+    private final List<DispatchMethod> mDispatchMethods = new ArrayList<>();
+    private final Set<String> mMethodNames = new HashSet<>();
+    @Nullable
+    private final JoinPointSwitches mJoinPointSwitches;
+    @Nullable
+    private final AdviceSampler mAdviceSampler;
+
+    public AdviceDispatcher(Map<String, PointcutClass> callPointcutClasses, Map<String, PointcutClass> superExecutePointcutClasses,
+                            @Nullable JoinPointSwitches joinPointSwitches, @Nullable AdviceSampler adviceSampler) {
+        mJoinPointSwitches = joinPointSwitches;
+        mAdviceSampler = adviceSampler;
+        for (PointcutClass pointcutClass : callPointcutClasses.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                addDispatchMethods("Call", pointcutClass.getName(), pointcutMethod, false);
+            }
+        }
+        for (PointcutClass pointcutClass : superExecutePointcutClasses.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                addDispatchMethods("Execute", pointcutClass.getName(), pointcutMethod, true);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return mDispatchMethods.isEmpty();
+    }
+
+    public List<InjectMethod> getBeforeInjectMethods(PointcutMethod pointcutMethod) {
+        InjectMethod dispatchMethod = mBeforeDispatchMethods.get(pointcutMethod);
+        return dispatchMethod == null ? pointcutMethod.getBeforeInjectMethods() : Collections.singletonList(dispatchMethod);
+    }
+
+    public List<InjectMethod> getAfterInjectMethods(PointcutMethod pointcutMethod) {
+        InjectMethod dispatchMethod = mAfterDispatchMethods.get(pointcutMethod);
+        return dispatchMethod == null ? pointcutMethod.getAfterInjectMethods() : Collections.singletonList(dispatchMethod);
+    }
+
+    public byte[] generateClass() {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+                CLASS_NAME, null, "java/lang/Object", null);
+        for (DispatchMethod dispatchMethod : mDispatchMethods) {
+            InjectMethod method = dispatchMethod.mMethod;
+            GeneratorAdapter adapter = new GeneratorAdapter(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                    new Method(method.getMethodName(), method.getMethodDesc()), null, null, classWriter);
+            adapter.visitCode();
+            int argumentCount = Type.getArgumentTypes(method.getMethodDesc()).length;
+            for (InjectMethod injectMethod : dispatchMethod.mInjectMethods) {
+                // 不接收调用对象的织入方法跳过第一个参数
+                int start = argumentCount - Type.getArgumentTypes(injectMethod.getMethodDesc()).length;
+                for (int i = start; i < argumentCount; i++) {
+                    adapter.loadArg(i);
+                }
+                adapter.invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
+            }
+            adapter.returnValue();
+            adapter.endMethod();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private void addDispatchMethods(String type, String owner, PointcutMethod pointcutMethod, boolean hasReceiver) {
+        addDispatchMethod("before" + type, owner, pointcutMethod, pointcutMethod.getBeforeInjectMethods(), hasReceiver, mBeforeDispatchMethods);
+        addDispatchMethod("after" + type, owner, pointcutMethod, pointcutMethod.getAfterInjectMethods(), hasReceiver, mAfterDispatchMethods);
+    }
+
+    private void addDispatchMethod(String prefix, String owner, PointcutMethod pointcutMethod, List<InjectMethod> injectMethods,
+                                   boolean hasReceiver, Map<PointcutMethod, InjectMethod> dispatchMethods) {
+        if (injectMethods.size() < 2) {
+            return;
+        }
+        for (InjectMethod injectMethod : injectMethods) {
+            // 在分发方法中检查时参数已经加载，开关关闭或者未采样时仍然有加载参数的开销
+            if ((mJoinPointSwitches != null && mJoinPointSwitches.hasSwitch(injectMethod))
+                    || (mAdviceSampler != null && mAdviceSampler.hasSampler(injectMethod))) {
+                return;
+            }
+        }
+        Type[] argumentTypes = Type.getArgumentTypes(pointcutMethod.getDesc());
+        boolean takesReceiver = hasReceiver;
+        for (InjectMethod injectMethod : injectMethods) {
+            if (Type.getArgumentTypes(injectMethod.getMethodDesc()).length > argumentTypes.length) {
+                takesReceiver = true;
+            }
+        }
+        List<Type> dispatchArgumentTypes = new ArrayList<>();
+        if (takesReceiver) {
+            dispatchArgumentTypes.add(Type.getObjectType(owner));
+        }
+        Collections.addAll(dispatchArgumentTypes, argumentTypes);
+        String desc = Type.getMethodDescriptor(Type.VOID_TYPE, dispatchArgumentTypes.toArray(new Type[0]));
+
+        // 方法名只由切点决定，织入规则变化后未受影响的输出中的引用仍然有效
+        String name = prefix + "$" + owner.replace('/', '_') + "$" + pointcutMethod.getName().replace('<', '_').replace('>', '_')
+                + "$" + Integer.toHexString(pointcutMethod.getDesc().hashCode());
+        if (!mMethodNames.add(name)) {
+            // 极少数情况下描述符的 hash 冲突，冲突的切点不合并
+            return;
+        }
+        InjectMethod method = new InjectMethod(CLASS_NAME, name, desc, injectMethods.get(0).isAfter(), 0);
+        dispatchMethods.put(pointcutMethod, method);
+        mDispatchMethods.add(new DispatchMethod(method, injectMethods));
+    }
+
+    private static final class DispatchMethod {
+        private final InjectMethod mMethod;
+        private final List<InjectMethod> mInjectMethods;
+
+        DispatchMethod(InjectMethod method, List<InjectMethod> injectMethods) {
+            mMethod = method;
+            mInjectMethods = injectMethods;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.entity.InjectMethod;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+// 把很小的织入方法的字节码直接复制到织入点，不再调用 invokestatic。只内联满足以下条件的织入方法：
+// 静态、没有异常处理、没有跳转、不调用自身、指令数不超过上限，所在的类（及其父类）没有静态初始化代码
+// （内联后不再触发类的初始化），并且引用的类和成员都是 public 的（内联后代码位于织入点所在的类中）。
+// 指令按原样复制，跳转的目标仍然是织入方法中的 label，同一个方法中内联多次时会重复定义，所以不支持跳转
+public final class AdviceInliner {
+    private final Log mLog;
+    private final List<File> mClasspath;
+    private final int mMaxInstructions;
+    private final Map<String, ClassNode> mClasses = new HashMap<>();
+    private final Map<String, MethodNode> mInlineMethods = new TreeMap<>();
+    private final List<String> mState = new ArrayList<>();
+    private List<JarFile> mJarFiles;
+
+    public AdviceInliner(Log log, List<File> classpath, int maxInstructions,
+                         Collection<PointcutClass> callPointcutClasses, Collection<PointcutClass> superExecutePointcutClasses) {
+        mLog = log;
+        mClasspath = classpath;
+        mMaxInstructions = maxInstructions;
+        List<PointcutClass> pointcutClasses = new ArrayList<>(callPointcutClasses);
+        pointcutClasses.addAll(superExecutePointcutClasses);
+        try {
+            for (PointcutClass pointcutClass : pointcutClasses) {
+                for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                    for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
+                        prepare(injectMethod);
+                    }
+                }
+            }
+        } finally {
+            closeJarFiles();
+        }
+        for (Map.Entry<String, MethodNode> entry : mInlineMethods.entrySet()) {
+            mState.add("inline " + entry.getKey() + " " + hash(entry.getValue()));
+        }
+        mClasses.clear();
+    }
+
+    public boolean isEmpty() {
+        return mInlineMethods.isEmpty();
+    }
+
+    // 被内联的方法及其字节码的摘要，方法体变化后织入缓存和之前的输出都需要失效
+    public List<String> getState() {
+        return Collections.unmodifiableList(mState);
+    }
+
+    // 调用前织入方法的参数已经在操作数栈上，局部变量通过 adapter 分配，其它指令直接写入 mv，不再经过织入的 visitor
+    public boolean inline(InjectMethod injectMethod, GeneratorAdapter adapter, MethodVisitor mv) {
+        MethodNode methodNode = mInlineMethods.get(getKey(injectMethod));
+        if (methodNode == null) {
+            return false;
+        }
+        Type[] argumentTypes = Type.getArgumentTypes(methodNode.desc);
+        Map<Integer, Integer> locals = new HashMap<>();
+        int[] argumentLocals = new int[argumentTypes.length];
+        int slot = 0;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            argumentLocals[i] = adapter.newLocal(argumentTypes[i]);
+            locals.put(slot, argumentLocals[i]);
+            slot += argumentTypes[i].getSize();
+        }
+        for (int i = argumentTypes.length - 1; i >= 0; i--) {
+            adapter.storeLocal(argumentLocals[i]);
+        }
+        for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn.getOpcode() < 0 || insn.getOpcode() == Opcodes.RETURN) {
+                continue;
+            }
+            if (insn instanceof VarInsnNode) {
+                VarInsnNode varInsn = (VarInsnNode) insn;
+                Type type = getLocalType(varInsn.getOpcode());
+                Integer local = locals.get(varInsn.var);
+                if (local == null) {
+                    local = adapter.newLocal(type);
+                    locals.put(varInsn.var, local);
+                }
+                if (varInsn.getOpcode() >= Opcodes.ISTORE) {
+                    adapter.storeLocal(local, type);
+                } else {
+                    adapter.loadLocal(local, type);
+                }
+            } else if (insn instanceof IincInsnNode) {
+                IincInsnNode iincInsn = (IincInsnNode) insn;
+                adapter.iinc(locals.get(iincInsn.var), iincInsn.incr);
+            } else {
+                insn.accept(mv);
+            }
+        }
+        return true;
+    }
+
+    private void prepare(InjectMethod injectMethod) {
+        String key = getKey(injectMethod);
+        if (mInlineMethods.containsKey(key)) {
+            return;
+        }
+        ClassNode classNode = readClass(injectMethod.getClassName());
+        if (classNode == null) {
+            return;
+        }
+        for (MethodNode methodNode : classNode.methods) {
+            if (methodNode.name.equals(injectMethod.getMethodName()) && methodNode.desc.equals(injectMethod.getMethodDesc())) {
+                if (!hasStaticInitializer(classNode) && canInline(classNode, methodNode)) {
+                    mLog.info("inline advice: %s", key);
+                    mInlineMethods.put(key, methodNode);
+                }
+                return;
+            }
+        }
+    }
+
+    // 只有 return 的 <clinit> 不算，读取不到的父类按有初始化代码处理
+    private boolean hasStaticInitializer(ClassNode classNode) {
+        while (classNode != null) {
+            for (MethodNode methodNode : classNode.methods) {
+                if (methodNode.name.equals("<clinit>")) {
+                    for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                        if (insn.getOpcode() >= 0 && insn.getOpcode() != Opcodes.RETURN) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            if (classNode.superName == null || classNode.superName.equals("java/lang/Object")) {
+                return false;
+            }
+            ClassNode superNode = readClass(classNode.superName);
+            if (superNode == null) {
+                return true;
+            }
+            classNode = superNode;
+        }
+        return false;
+    }
+
+    private boolean canInline(ClassNode owner, MethodNode methodNode) {
+        if ((methodNode.access & Opcodes.ACC_STATIC) == 0 || (methodNode.access & Opcodes.ACC_SYNCHRONIZED) != 0
+                || !methodNode.tryCatchBlocks.isEmpty()) {
+            return false;
+        }
+        int instructions = 0;
+        AbstractInsnNode last = null;
+        for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn.getOpcode() < 0) {
+                continue;
+            }
+            instructions++;
+            last = insn;
+            if (instructions > mMaxInstructions || !canInline(owner, methodNode, insn)) {
+                return false;
+            }
+        }
+        // 只有一个位于末尾的 return，内联后直接执行织入点之后的代码，中间的 return 需要跳转到末尾
+        for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn.getOpcode() == Opcodes.RETURN && insn != last) {
+                return false;
+            }
+        }
+        return last != null && last.getOpcode() == Opcodes.RETURN;
+    }
+
+    private boolean canInline(ClassNode owner, MethodNode methodNode, AbstractInsnNode insn) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.INSN:
+                int opcode = insn.getOpcode();
+                return opcode != Opcodes.ATHROW && opcode != Opcodes.MONITORENTER && opcode != Opcodes.MONITOREXIT
+                        && (opcode < Opcodes.IRETURN || opcode > Opcodes.ARETURN);
+            case AbstractInsnNode.INT_INSN:
+            case AbstractInsnNode.IINC_INSN:
+                return true;
+            case AbstractInsnNode.VAR_INSN:
+                return insn.getOpcode() != Opcodes.RET;
+            case AbstractInsnNode.LDC_INSN:
+                Object constant = ((LdcInsnNode) insn).cst;
+                return !(constant instanceof Type) || isAccessible((Type) constant);
+            case AbstractInsnNode.TYPE_INSN:
+                return isAccessible(Type.getObjectType(((TypeInsnNode) insn).desc));
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                return isAccessible(Type.getType(((MultiANewArrayInsnNode) insn).desc));
+            case AbstractInsnNode.FIELD_INSN:
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                return isAccessible(fieldInsn.owner, fieldInsn.name, fieldInsn.desc, true);
+            case AbstractInsnNode.METHOD_INSN:
+                MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                if (methodInsn.owner.equals(owner.name) && methodInsn.name.equals(methodNode.name) && methodInsn.desc.equals(methodNode.desc)) {
+                    return false;
+                }
+                if (methodInsn.owner.startsWith("[")) {
+                    return isAccessible(Type.getType(methodInsn.owner));
+                }
+                return isAccessible(methodInsn.owner, methodInsn.name, methodInsn.desc, false);
+            default:
+                // 跳转、switch、invokedynamic 等
+                return false;
+        }
+    }
+
+    private boolean isAccessible(Type type) {
+        if (type.getSort() == Type.ARRAY) {
+            type = type.getElementType();
+        }
+        if (type.getSort() != Type.OBJECT) {
+            return true;
+        }
+        ClassNode classNode = readClass(type.getInternalName());
+        return classNode != null && (classNode.access & Opcodes.ACC_PUBLIC) != 0;
+    }
+
+    private boolean isAccessible(String owner, String name, String desc, boolean isField) {
+        ClassNode classNode = readClass(owner);
+        if (classNode == null || (classNode.access & Opcodes.ACC_PUBLIC) == 0) {
+            return false;
+        }
+        // 继承的成员在父类中查找
+        while (classNode != null) {
+            if (isField) {
+                for (FieldNode fieldNode : classNode.fields) {
+                    if (fieldNode.name.equals(name) && fieldNode.desc.equals(desc)) {
+                        return (fieldNode.access & Opcodes.ACC_PUBLIC) != 0;
+                    }
+                }
+            } else {
+                for (MethodNode methodNode : classNode.methods) {
+                    if (methodNode.name.equals(name) && methodNode.desc.equals(desc)) {
+                        return (methodNode.access & Opcodes.ACC_PUBLIC) != 0;
+                    }
+                }
+            }
+            classNode = classNode.superName == null ? null : readClass(classNode.superName);
+        }
+        return false;
+    }
+
+    private ClassNode readClass(String className) {
+        if (mClasses.containsKey(className)) {
+            return mClasses.get(className);
+        }
+        ClassNode classNode = null;
+        byte[] bytes = readClassBytes(className);
+        if (bytes != null) {
+            classNode = new ClassNode(Opcodes.ASM6);
+            new ClassReader(bytes).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+        mClasses.put(className, classNode);
+        return classNode;
+    }
+
+    private byte[] readClassBytes(String className) {
+        List<JarFile> jarFiles = getJarFiles();
+        for (int i = 0; i < mClasspath.size(); i++) {
+            File file = mClasspath.get(i);
+            JarFile jarFile = jarFiles.get(i);
+            try {
+                if (jarFile == null) {
+                    File classFile = new File(file, className + ".class");
+                    if (classFile.isFile()) {
+                        return Files.readAllBytes(classFile.toPath());
+                    }
+                    continue;
+                }
+                ZipEntry entry = jarFile.getEntry(className + ".class");
+                if (entry == null) {
+                    continue;
+                }
+                try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                    return IOUtils.toByteArray(inputStream);
+                }
+            } catch (IOException e) {
+                mLog.warning("read class failed: " + className + " in " + file, e);
+            }
+        }
+        return null;
+    }
+
+    // 与 mClasspath 一一对应，目录对应的位置为 null
+    private List<JarFile> getJarFiles() {
+        if (mJarFiles == null) {
+            mJarFiles = new ArrayList<>();
+            for (File file : mClasspath) {
+                JarFile jarFile = null;
+                if (file.isFile()) {
+                    try {
+                        jarFile = new JarFile(file);
+                    } catch (IOException e) {
+                        mLog.warning("open classpath failed: " + file, e);
+                    }
+                }
+                mJarFiles.add(jarFile);
+            }
+        }
+        return mJarFiles;
+    }
+
+    private void closeJarFiles() {
+        if (mJarFiles == null) {
+            return;
+        }
+        for (JarFile jarFile : mJarFiles) {
+            if (jarFile == null) {
+                continue;
+            }
+            try {
+                jarFile.close();
+            } catch (IOException e) {
+                mLog.warning("close classpath failed: " + jarFile.getName(), e);
+            }
+        }
+        mJarFiles = null;
+    }
+
+    private static Type getLocalType(int opcode) {
+        switch (opcode) {
+            case Opcodes.ILOAD:
+            case Opcodes.ISTORE:
+                return Type.INT_TYPE;
+            case Opcodes.LLOAD:
+            case Opcodes.LSTORE:
+                return Type.LONG_TYPE;
+            case Opcodes.FLOAD:
+            case Opcodes.FSTORE:
+                return Type.FLOAT_TYPE;
+            case Opcodes.DLOAD:
+            case Opcodes.DSTORE:
+                return Type.DOUBLE_TYPE;
+            default:
+                return Type.getObjectType("java/lang/Object");
+        }
+    }
+
+    private static String getKey(InjectMethod injectMethod) {
+        return injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc();
+    }
+
+    private static String hash(MethodNode methodNode) {
+        ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "Inline", null, "java/lang/Object", null);
+        methodNode.accept(classWriter);
+        classWriter.visitEnd();
+        CRC32 crc32 = new CRC32();
+        crc32.update(classWriter.toByteArray());
+        return Long.toHexString(crc32.getValue());
+    }
+}
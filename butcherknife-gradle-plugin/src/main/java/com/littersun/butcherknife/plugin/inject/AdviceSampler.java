@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.entity.InjectMethod;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// 设置了 sampleRate 的织入方法，每个织入点（切点与织入方法的组合）对应生成的 ButcherKnife$$Samples 中的一个计数器，
+// 织入的代码每次先递增计数器，只有计数器是 sampleRate 的倍数时才加载参数并调用织入方法。
+// 计数器不加锁，多线程同时执行时可能丢失计数，只影响采样的精度
+public final class AdviceSampler {
+    public static final String CLASS_NAME = "com/littersun/butcherknife/ButcherKnife$$Samples";
+    private static final Type CLASS_TYPE = Type.getObjectType(CLASS_NAME);
+
+    private final Map<InjectMethod, String> mCounters = new IdentityHashMap<>();
+    private final Set<String> mFieldNames = new TreeSet<>();
+    private final List<String> mState = new ArrayList<>();
+
+    public AdviceSampler(Map<String, PointcutClass> callPointcutClasses, Map<String, PointcutClass> superExecutePointcutClasses) {
+        Map<String, InjectMethod> joinPoints = new TreeMap<>();
+        addJoinPoints("call", callPointcutClasses, joinPoints);
+        addJoinPoints("execute", superExecutePointcutClasses, joinPoints);
+        for (Map.Entry<String, InjectMethod> joinPoint : joinPoints.entrySet()) {
+            // 字段名只由织入点决定，织入规则变化后未受影响的输出中的引用仍然有效
+            String name = "s$" + Integer.toHexString(joinPoint.getKey().hashCode());
+            String fieldName = name;
+            for (int i = 2; !mFieldNames.add(fieldName); i++) {
+                fieldName = name + "$" + i;
+            }
+            if (!fieldName.equals(name)) {
+                // 极少数情况下 hash 冲突，追加的序号依赖其它织入点，需要记录到织入选项中
+                mState.add("sample " + fieldName + " " + joinPoint.getKey());
+            }
+            mCounters.put(joinPoint.getValue(), fieldName);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mCounters.isEmpty();
+    }
+
+    public boolean hasSampler(InjectMethod injectMethod) {
+        return mCounters.containsKey(injectMethod);
+    }
+
+    // 没有采样到时跳到 skipLabel，sampleRate 为 2 的幂时用位与代替取余
+    public void visitGuard(InjectMethod injectMethod, GeneratorAdapter adapter, Label skipLabel) {
+        String fieldName = mCounters.get(injectMethod);
+        int sampleRate = injectMethod.getSampleRate();
+        adapter.getStatic(CLASS_TYPE, fieldName, Type.INT_TYPE);
+        adapter.push(1);
+        adapter.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        adapter.dup();
+        adapter.putStatic(CLASS_TYPE, fieldName, Type.INT_TYPE);
+        if ((sampleRate & (sampleRate - 1)) == 0) {
+            adapter.push(sampleRate - 1);
+            adapter.math(GeneratorAdapter.AND, Type.INT_TYPE);
+        } else {
+            adapter.push(sampleRate);
+            adapter.math(GeneratorAdapter.REM, Type.INT_TYPE);
+        }
+        adapter.ifZCmp(GeneratorAdapter.NE, skipLabel);
+    }
+
+    public List<String> getState() {
+        return mState;
+    }
+
+    public byte[] generateClass() {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+                CLASS_NAME, null, "java/lang/Object", null);
+        for (String fieldName : mFieldNames) {
+            classWriter.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, fieldName, Type.INT_TYPE.getDescriptor(), null, null).visitEnd();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private static void addJoinPoints(String type, Map<String, PointcutClass> pointcutClasses, Map<String, InjectMethod> joinPoints) {
+        for (PointcutClass pointcutClass : pointcutClasses.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
+                    if (injectMethod.getSampleRate() <= 1) {
+                        continue;
+                    }
+                    joinPoints.put(type + " " + pointcutClass.getName() + "#" + pointcutMethod.getName() + pointcutMethod.getDesc()
+                            + " " + (injectMethod.isAfter() ? "after " : "before ")
+                            + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc(), injectMethod);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// 直接扫描 class 文件的常量池，只有引用了切点方法名或切点类名的类才可能需要织入，其余类无需经过 ASM 处理
+public class ConstantPoolFilter {
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+    // 每个 Utf8 常量占 10 位，两个哈希函数的误判率约为 3%
+    private static final int SUMMARY_BITS_PER_CONSTANT = 10;
+
+    // 按长度分组的候选名称（Modified UTF-8 编码），长度不匹配的常量无需比较内容
+    private final Map<Integer, List<byte[]>> mNamesByLength = new HashMap<>();
+
+    public ConstantPoolFilter(Map<String, PointcutClass> callPointcutClasses, Map<String, PointcutClass> executePointcutClasses) {
+        Set<String> names = new HashSet<>();
+        for (PointcutClass pointcutClass : callPointcutClasses.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                names.add(pointcutMethod.getName());
+            }
+        }
+        for (PointcutClass pointcutClass : executePointcutClasses.values()) {
+            // 继承/实现切点类，或者以 lambda 实现切点接口
+            names.add(pointcutClass.getName());
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                names.add(pointcutMethod.getName());
+            }
+        }
+        for (String name : names) {
+            byte[] encoded = encode(name);
+            List<byte[]> sameLengthNames = mNamesByLength.get(encoded.length);
+            if (sameLengthNames == null) {
+                sameLengthNames = new ArrayList<>();
+                mNamesByLength.put(encoded.length, sameLengthNames);
+            }
+            sameLengthNames.add(encoded);
+        }
+    }
+
+    public boolean mayMatch(byte[] classBytes) {
+        if (mNamesByLength.isEmpty()) {
+            return false;
+        }
+        return visitUtf8Constants(classBytes, this::matches);
+    }
+
+    // 判断扫描阶段记录的摘要中是否可能包含候选名称
+    public boolean mayMatchSummary(long[] summary) {
+        for (List<byte[]> sameLengthNames : mNamesByLength.values()) {
+            for (byte[] name : sameLengthNames) {
+                int hash = hash(name, 0, name.length);
+                if (isBitSet(summary, hash) && isBitSet(summary, hash * 0x9E3779B9)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 把常量池中所有的 Utf8 常量记录到布隆过滤器中，位数按常量的数量确定，数组的长度即为过滤器的大小，
+    // 常量很多的类也不会因为位被占满而总是判断为可能匹配
+    public static long[] summarize(byte[] classBytes) {
+        int[] hashes;
+        try {
+            hashes = new int[readUnsignedShort(classBytes, 8)];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return new long[]{-1L};
+        }
+        int[] hashCount = new int[1];
+        boolean isUnknown = visitUtf8Constants(classBytes, (bytes, offset, length) -> {
+            hashes[hashCount[0]++] = hash(bytes, offset, length);
+            return false;
+        });
+        if (isUnknown) {
+            return new long[]{-1L};
+        }
+        long[] summary = new long[Math.max(1, (hashCount[0] * SUMMARY_BITS_PER_CONSTANT + 63) / 64)];
+        for (int i = 0; i < hashCount[0]; i++) {
+            setBit(summary, hashes[i]);
+            setBit(summary, hashes[i] * 0x9E3779B9);
+        }
+        return summary;
+    }
+
+    // 依次访问常量池中的 Utf8 常量，visitor 返回 true 或者遇到无法解析的常量时返回 true
+    private static boolean visitUtf8Constants(byte[] classBytes, Utf8Visitor visitor) {
+        try {
+            int count = readUnsignedShort(classBytes, 8);
+            int offset = 10;
+            for (int i = 1; i < count; i++) {
+                switch (classBytes[offset]) {
+                    case CONSTANT_UTF8:
+                        int length = readUnsignedShort(classBytes, offset + 1);
+                        if (visitor.visit(classBytes, offset + 3, length)) {
+                            return true;
+                        }
+                        offset += 3 + length;
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        offset += 3;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        offset += 4;
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        offset += 5;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        offset += 9;
+                        i++;
+                        break;
+                    default:
+                        // 无法识别的常量，交给 ASM 处理
+                        return true;
+                }
+            }
+            return false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        // FNV-1a
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static void setBit(long[] summary, int hash) {
+        int bit = (hash & Integer.MAX_VALUE) % (summary.length * 64);
+        summary[bit >>> 6] |= 1L << (bit & 63);
+    }
+
+    private static boolean isBitSet(long[] summary, int hash) {
+        int bit = (hash & Integer.MAX_VALUE) % (summary.length * 64);
+        return (summary[bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    private boolean matches(byte[] classBytes, int offset, int length) {
+        List<byte[]> candidates = mNamesByLength.get(length);
+        if (candidates == null) {
+            return false;
+        }
+        for (byte[] candidate : candidates) {
+            if (regionEquals(classBytes, offset, candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(byte[] classBytes, int offset, byte[] candidate) {
+        for (int i = 0; i < candidate.length; i++) {
+            if (classBytes[offset + i] != candidate[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static byte[] encode(String name) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            new DataOutputStream(outputStream).writeUTF(name);
+            byte[] bytes = outputStream.toByteArray();
+            // 去掉 writeUTF 写入的两字节长度
+            return Arrays.copyOfRange(bytes, 2, bytes.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(name, e);
+        }
+    }
+
+    private interface Utf8Visitor {
+        boolean visit(byte[] bytes, int offset, int length);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 扫描注解时顺便记录每个 class 的常量池摘要，织入阶段据此跳过不可能被织入的 class，不用再次读取和解压
+public class ConstantPoolIndex {
+    private final Map<File, long[]> mClassFileSummaries = new ConcurrentHashMap<>();
+    private final Map<File, Map<String, long[]>> mJarSummaries = new ConcurrentHashMap<>();
+
+    public void putClassFile(File file, byte[] classBytes) {
+        mClassFileSummaries.put(file, ConstantPoolFilter.summarize(classBytes));
+    }
+
+    public long[] getClassFileSummary(File file) {
+        return mClassFileSummaries.get(file);
+    }
+
+    // 只有完整扫描过的 jar 才会记录，key 为 entry 名称
+    public void putJar(File jar, Map<String, long[]> entrySummaries) {
+        mJarSummaries.put(jar, Collections.unmodifiableMap(entrySummaries));
+    }
+
+    public Map<String, long[]> getJarSummaries(File jar) {
+        return mJarSummaries.get(jar);
+    }
+}
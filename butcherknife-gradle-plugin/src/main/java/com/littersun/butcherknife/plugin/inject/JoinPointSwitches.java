@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.entity.InjectMethod;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// 开启 switchboardEnabled 后，每个织入点（切点与织入方法的组合）分配一个编号，同一个 Aspect 的编号连续，
+// 织入的代码调用织入方法前先检查生成的 ButcherKnife$$Switches.FLAGS 中对应的开关，运行时由 Switchboard 修改
+public final class JoinPointSwitches {
+    public static final String CLASS_NAME = "com/littersun/butcherknife/ButcherKnife$$Switches";
+    private static final Type CLASS_TYPE = Type.getObjectType(CLASS_NAME);
+    private static final Type FLAGS_TYPE = Type.getType(boolean[].class);
+    private static final Type ASPECTS_TYPE = Type.getType(String[].class);
+    private static final Type ASPECT_STARTS_TYPE = Type.getType(int[].class);
+
+    private final Map<InjectMethod, Integer> mIds = new IdentityHashMap<>();
+    private final List<String> mAspects = new ArrayList<>();
+    private final List<Integer> mAspectStarts = new ArrayList<>();
+    private final List<String> mJoinPoints = new ArrayList<>();
+
+    public JoinPointSwitches(Map<String, PointcutClass> callPointcutClasses, Map<String, PointcutClass> superExecutePointcutClasses) {
+        // Aspect -> 织入点描述 -> 织入方法，排序后分配编号，织入规则不变时编号不变
+        Map<String, Map<String, InjectMethod>> aspects = new TreeMap<>();
+        addJoinPoints("call", callPointcutClasses, aspects);
+        addJoinPoints("execute", superExecutePointcutClasses, aspects);
+        for (Map.Entry<String, Map<String, InjectMethod>> aspect : aspects.entrySet()) {
+            mAspects.add(aspect.getKey().replace('/', '.'));
+            mAspectStarts.add(mJoinPoints.size());
+            for (Map.Entry<String, InjectMethod> joinPoint : aspect.getValue().entrySet()) {
+                mIds.put(joinPoint.getValue(), mJoinPoints.size());
+                mJoinPoints.add(aspect.getKey().replace('/', '.') + "\t" + joinPoint.getKey());
+            }
+        }
+        mAspectStarts.add(mJoinPoints.size());
+    }
+
+    // 生成的分发方法等没有编号的织入方法不需要检查开关
+    public boolean hasSwitch(InjectMethod injectMethod) {
+        return mIds.containsKey(injectMethod);
+    }
+
+    // 开关关闭时跳到 skipLabel，只有一次数组读取和一次跳转
+    public void visitGuard(InjectMethod injectMethod, GeneratorAdapter adapter, Label skipLabel) {
+        adapter.getStatic(CLASS_TYPE, "FLAGS", FLAGS_TYPE);
+        adapter.push(mIds.get(injectMethod));
+        adapter.arrayLoad(Type.BOOLEAN_TYPE);
+        adapter.ifZCmp(GeneratorAdapter.EQ, skipLabel);
+    }
+
+    // 编号随织入规则变化，变化后之前的输出全部失效
+    public List<String> getState() {
+        CRC32 crc32 = new CRC32();
+        for (String joinPoint : mJoinPoints) {
+            crc32.update(joinPoint.getBytes(StandardCharsets.UTF_8));
+            crc32.update('\n');
+        }
+        List<String> state = new ArrayList<>();
+        state.add("switchboard " + mJoinPoints.size() + " " + Long.toHexString(crc32.getValue()));
+        return state;
+    }
+
+    // 每行为 编号、Aspect、织入点类型、切点、织入方法，以 tab 分隔
+    public void writeMapping(File mappingFile) throws IOException {
+        List<String> lines = new ArrayList<>(mJoinPoints.size());
+        for (int i = 0; i < mJoinPoints.size(); i++) {
+            lines.add(i + "\t" + mJoinPoints.get(i));
+        }
+        mappingFile.getParentFile().mkdirs();
+        Files.write(mappingFile.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    public byte[] generateClass() {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+                CLASS_NAME, null, "java/lang/Object", null);
+        int access = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL;
+        classWriter.visitField(access, "FLAGS", FLAGS_TYPE.getDescriptor(), null, null).visitEnd();
+        classWriter.visitField(access, "ASPECTS", ASPECTS_TYPE.getDescriptor(), null, null).visitEnd();
+        classWriter.visitField(access, "ASPECT_STARTS", ASPECT_STARTS_TYPE.getDescriptor(), null, null).visitEnd();
+
+        GeneratorAdapter adapter = new GeneratorAdapter(Opcodes.ACC_STATIC, Method.getMethod("void <clinit> ()"), null, null, classWriter);
+        adapter.visitCode();
+        // 默认全部开启
+        adapter.push(mJoinPoints.size());
+        adapter.newArray(Type.BOOLEAN_TYPE);
+        adapter.dup();
+        adapter.push(true);
+        adapter.invokeStatic(Type.getType("Ljava/util/Arrays;"), Method.getMethod("void fill (boolean[], boolean)"));
+        adapter.putStatic(CLASS_TYPE, "FLAGS", FLAGS_TYPE);
+
+        adapter.push(mAspects.size());
+        adapter.newArray(Type.getType(String.class));
+        for (int i = 0; i < mAspects.size(); i++) {
+            adapter.dup();
+            adapter.push(i);
+            adapter.push(mAspects.get(i));
+            adapter.arrayStore(Type.getType(String.class));
+        }
+        adapter.putStatic(CLASS_TYPE, "ASPECTS", ASPECTS_TYPE);
+
+        adapter.push(mAspectStarts.size());
+        adapter.newArray(Type.INT_TYPE);
+        for (int i = 0; i < mAspectStarts.size(); i++) {
+            adapter.dup();
+            adapter.push(i);
+            adapter.push(mAspectStarts.get(i));
+            adapter.arrayStore(Type.INT_TYPE);
+        }
+        adapter.putStatic(CLASS_TYPE, "ASPECT_STARTS", ASPECT_STARTS_TYPE);
+        adapter.returnValue();
+        adapter.endMethod();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private static void addJoinPoints(String type, Map<String, PointcutClass> pointcutClasses, Map<String, Map<String, InjectMethod>> aspects) {
+        for (PointcutClass pointcutClass : pointcutClasses.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
+                    String joinPoint = type + "\t" + pointcutClass.getName() + "#" + pointcutMethod.getName() + pointcutMethod.getDesc()
+                            + "\t" + (injectMethod.isAfter() ? "after " : "before ") + injectMethod.getMethodName() + injectMethod.getMethodDesc();
+                    aspects.computeIfAbsent(injectMethod.getClassName(), key -> new TreeMap<>()).put(joinPoint, injectMethod);
+                }
+            }
+        }
+    }
+}
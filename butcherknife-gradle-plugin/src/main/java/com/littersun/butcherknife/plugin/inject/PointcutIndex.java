@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.Context;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 扫描完成后构建的切点索引，先按方法名、再按描述符查找，最后才通过继承关系判断调用者是否匹配
+public final class PointcutIndex {
+    private static final int NO_MATCH = -1;
+
+    private final Map<String, Map<String, Candidate[]>> mCandidates;
+    // owner -> (方法名 + 描述符 -> 匹配的候选下标)，包括没有匹配的结果
+    private final Map<String, Map<String, Integer>> mOwnerResults;
+
+    // cacheOwnerResults 为 true 时缓存每个 owner 的匹配结果，只能在继承关系不变的范围内使用
+    public PointcutIndex(Map<String, PointcutClass> pointcutClasses, boolean cacheOwnerResults) {
+        Map<String, Map<String, List<Candidate>>> candidates = new HashMap<>();
+        for (PointcutClass pointcutClass : pointcutClasses.values()) {
+            for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
+                Map<String, List<Candidate>> byDesc = candidates.get(pointcutMethod.getName());
+                if (byDesc == null) {
+                    byDesc = new HashMap<>();
+                    candidates.put(pointcutMethod.getName(), byDesc);
+                }
+                List<Candidate> sameMethods = byDesc.get(pointcutMethod.getDesc());
+                if (sameMethods == null) {
+                    sameMethods = new ArrayList<>();
+                    byDesc.put(pointcutMethod.getDesc(), sameMethods);
+                }
+                sameMethods.add(new Candidate(pointcutClass.getName(), pointcutMethod));
+            }
+        }
+
+        Map<String, Map<String, Candidate[]>> frozen = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<Candidate>>> nameEntry : candidates.entrySet()) {
+            Map<String, Candidate[]> byDesc = new HashMap<>();
+            for (Map.Entry<String, List<Candidate>> descEntry : nameEntry.getValue().entrySet()) {
+                byDesc.put(descEntry.getKey(), descEntry.getValue().toArray(new Candidate[0]));
+            }
+            frozen.put(nameEntry.getKey(), Collections.unmodifiableMap(byDesc));
+        }
+        mCandidates = Collections.unmodifiableMap(frozen);
+        mOwnerResults = cacheOwnerResults ? new ConcurrentHashMap<>() : null;
+    }
+
+    public boolean isEmpty() {
+        return mCandidates.isEmpty();
+    }
+
+    // 只按方法名和描述符判断，不查询继承关系
+    public boolean mayMatch(String name, String desc) {
+        Map<String, Candidate[]> byDesc = mCandidates.get(name);
+        return byDesc != null && byDesc.containsKey(desc);
+    }
+
+    public PointcutMethod find(Context context, String owner, String name, String desc) {
+        Map<String, Candidate[]> byDesc = mCandidates.get(name);
+        if (byDesc == null) {
+            return null;
+        }
+        Candidate[] candidates = byDesc.get(desc);
+        if (candidates == null) {
+            return null;
+        }
+
+        Map<String, Integer> results = null;
+        if (mOwnerResults != null) {
+            results = mOwnerResults.get(owner);
+            if (results == null) {
+                results = new ConcurrentHashMap<>();
+                Map<String, Integer> previous = mOwnerResults.putIfAbsent(owner, results);
+                if (previous != null) {
+                    results = previous;
+                }
+            }
+            Integer cached = results.get(name + desc);
+            if (cached != null) {
+                // 命中缓存时同样记录依赖的继承关系，织入缓存需要据此校验
+                int matched = cached;
+                int end = matched == NO_MATCH ? candidates.length : matched + 1;
+                for (int i = 0; i < end; i++) {
+                    context.recordAssignable(owner, candidates[i].mOwner, i == matched);
+                }
+                return matched == NO_MATCH ? null : found(context, candidates[matched], name, desc);
+            }
+        }
+
+        int matched = NO_MATCH;
+        for (int i = 0; i < candidates.length; i++) {
+            if (context.isAssignable(owner, candidates[i].mOwner)) {
+                matched = i;
+                break;
+            }
+        }
+        if (results != null) {
+            results.put(name + desc, matched);
+        }
+        return matched == NO_MATCH ? null : found(context, candidates[matched], name, desc);
+    }
+
+    private static PointcutMethod found(Context context, Candidate candidate, String name, String desc) {
+        context.recordPointcut("call", candidate.mOwner, name, desc);
+        return candidate.mPointcutMethod;
+    }
+
+    private static final class Candidate {
+        final String mOwner;
+        final PointcutMethod mPointcutMethod;
+
+        Candidate(String owner, PointcutMethod pointcutMethod) {
+            this.mOwner = owner;
+            this.mPointcutMethod = pointcutMethod;
+        }
+    }
+}
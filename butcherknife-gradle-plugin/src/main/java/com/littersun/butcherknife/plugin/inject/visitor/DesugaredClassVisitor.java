@@ -22,19 +22,20 @@ import com.littersun.butcherknife.plugin.entity.InjectMethod;
 import com.littersun.butcherknife.plugin.entity.PointcutMethod;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AdviceAdapter;
-import org.objectweb.asm.commons.Method;
 
-import java.util.Set;
+import java.util.Map;
 
 public class DesugaredClassVisitor extends ClassVisitor {
     private final Context mContext;
     private final Log mLog;
-    private final Set<PointcutMethod> mPointcutMethods;
+    // key 为 name + desc，合并了多个 lambda 的切点不在分发类中，织入点依次调用每个织入方法
+    private final Map<String, PointcutMethod> mPointcutMethods;
 
-    public DesugaredClassVisitor(ClassVisitor cv, Context context, Set<PointcutMethod> pointcutMethods) {
+    public DesugaredClassVisitor(ClassVisitor cv, Context context, Map<String, PointcutMethod> pointcutMethods) {
         super(context.getASMVersion(), cv);
         mContext = context;
         mLog = context.getLog();
@@ -44,71 +45,52 @@ public class DesugaredClassVisitor extends ClassVisitor {
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         MethodVisitor methodVisitor = super.visitMethod(access, name, desc, signature, exceptions);
-        return new DesugaredMethodVisitor(mContext.getASMVersion(), methodVisitor, access, name, desc);
-    }
-
-    private PointcutMethod findPointcutMethod(String name, String desc) {
-        if (mPointcutMethods.isEmpty()) {
-            return null;
-        }
-
-        for (PointcutMethod pointcutMethod : mPointcutMethods) {
-            if (name.equals(pointcutMethod.getName()) && desc.equals(pointcutMethod.getDesc())) {
-                return pointcutMethod;
-            }
+        PointcutMethod pointcutMethod = mPointcutMethods.get(name + desc);
+        if (pointcutMethod == null) {
+            return methodVisitor;
         }
-        return null;
+        return new DesugaredMethodVisitor(mContext.getASMVersion(), methodVisitor, access, name, desc, pointcutMethod);
     }
 
     private final class DesugaredMethodVisitor extends AdviceAdapter {
-        private final String mName;
         private final String mDesc;
+        private final PointcutMethod mPointcutMethod;
 
-        protected DesugaredMethodVisitor(int api, MethodVisitor mv, int access, String name, String desc) {
+        protected DesugaredMethodVisitor(int api, MethodVisitor mv, int access, String name, String desc, PointcutMethod pointcutMethod) {
             super(api, mv, access, name, desc);
-            mName = name;
             mDesc = desc;
+            mPointcutMethod = pointcutMethod;
         }
 
         @Override
         protected void onMethodEnter() {
-            PointcutMethod pointcutMethod = findPointcutMethod(mName, mDesc);
-            if (pointcutMethod == null) {
-                return;
-            }
-
-            for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
-                if (!injectMethod.isAfter()) {
-                    visitInsn(ACONST_NULL);
-                    int injectArgsLen = Type.getArgumentTypes(injectMethod.getMethodDesc()).length - 1;
-                    int originArgsLen = Type.getArgumentTypes(mDesc).length;
-                    if (injectArgsLen != 0) {
-                        loadArgs(originArgsLen - injectArgsLen, injectArgsLen);
-                    }
-                    invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
+            for (InjectMethod injectMethod : mContext.getBeforeInjectMethods(mPointcutMethod)) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                visitInsn(ACONST_NULL);
+                int injectArgsLen = Type.getArgumentTypes(injectMethod.getMethodDesc()).length - 1;
+                int originArgsLen = Type.getArgumentTypes(mDesc).length;
+                if (injectArgsLen != 0) {
+                    loadArgs(originArgsLen - injectArgsLen, injectArgsLen);
                 }
+                mContext.invokeInjectMethod(injectMethod, this, mv);
+                mContext.endAdviceGuard(skipLabel, this);
             }
             mContext.markModified();
         }
 
         @Override
         protected void onMethodExit(int opcode) {
-            PointcutMethod pointcutMethod = findPointcutMethod(mName, mDesc);
-            if (pointcutMethod == null) {
-                return;
-            }
-            for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
-                if (injectMethod.isAfter()) {
-                    visitInsn(ACONST_NULL);
-                    int injectArgsLen = Type.getArgumentTypes(injectMethod.getMethodDesc()).length - 1;
-                    int originArgsLen = Type.getArgumentTypes(mDesc).length;
-                    if (injectArgsLen != 0) {
-                        loadArgs(originArgsLen - injectArgsLen, injectArgsLen);
-                    }
-                    invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
+            for (InjectMethod injectMethod : mContext.getAfterInjectMethods(mPointcutMethod)) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                visitInsn(ACONST_NULL);
+                int injectArgsLen = Type.getArgumentTypes(injectMethod.getMethodDesc()).length - 1;
+                int originArgsLen = Type.getArgumentTypes(mDesc).length;
+                if (injectArgsLen != 0) {
+                    loadArgs(originArgsLen - injectArgsLen, injectArgsLen);
                 }
+                mContext.invokeInjectMethod(injectMethod, this, mv);
+                mContext.endAdviceGuard(skipLabel, this);
             }
-            mPointcutMethods.remove(pointcutMethod);
             mContext.markModified();
         }
     }
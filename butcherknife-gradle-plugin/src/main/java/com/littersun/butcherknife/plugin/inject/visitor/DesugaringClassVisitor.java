@@ -16,6 +16,7 @@
 
 package com.littersun.butcherknife.plugin.inject.visitor;
 
+import com.android.annotations.Nullable;
 import com.littersun.butcherknife.plugin.Context;
 import com.littersun.butcherknife.plugin.Log;
 import com.littersun.butcherknife.plugin.entity.InjectMethod;
@@ -24,6 +25,7 @@ import com.littersun.butcherknife.plugin.entity.PointcutMethod;
 
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -31,10 +33,8 @@ import org.objectweb.asm.commons.AdviceAdapter;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
 import static org.objectweb.asm.Opcodes.ACONST_NULL;
 
@@ -44,21 +44,30 @@ public class DesugaringClassVisitor extends ClassVisitor {
     private final Context mContext;
     private final Log mLog;
     private final Map<String, PointcutClass> mExecutePointcutClasses;
+    private final JoinPointAnalyzer mJoinPointAnalyzer;
 
-    private final Set<PointcutMethod> mPointcutMethods = new HashSet<>();
-    private final HashMap<String, GenerateMethodBlock> mGenerateMethodBlocks = new HashMap<>();
+    // 实现方法在此类中的 lambda，key 为实现方法的 name + desc
+    private final Map<String, PointcutMethod> mPointcutMethods = new LinkedHashMap<>();
+    // 按出现顺序生成 lambda$butcherknife$N 方法，保证每次生成的编号一致
+    private final Map<String, GenerateMethodBlock> mGenerateMethodBlocks = new LinkedHashMap<>();
     private int mGenerateMethodIndex = 0;
 
-    public DesugaringClassVisitor(ClassVisitor cv, Context context, Map<String, PointcutClass> executePointcutClasses) {
+    // joinPointAnalyzer 为 null 时包装所有的方法
+    public DesugaringClassVisitor(ClassVisitor cv, Context context, Map<String, PointcutClass> executePointcutClasses,
+                                  @Nullable JoinPointAnalyzer joinPointAnalyzer) {
         super(context.getASMVersion(), cv);
         mContext = context;
         mLog = context.getLog();
         mExecutePointcutClasses = executePointcutClasses;
+        mJoinPointAnalyzer = joinPointAnalyzer;
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         MethodVisitor methodVisitor = super.visitMethod(access, name, desc, signature, exceptions);
+        if (mJoinPointAnalyzer != null && !mJoinPointAnalyzer.hasLambdaJoinPoint(name, desc)) {
+            return methodVisitor;
+        }
         return new DesugaringMethodVisitor(mContext.getASMVersion(), methodVisitor, access, name, desc);
     }
 
@@ -76,30 +85,72 @@ public class DesugaringClassVisitor extends ClassVisitor {
         super.visitEnd();
     }
 
-    public Set<PointcutMethod> getPointcutMethods() {
+    public Map<String, PointcutMethod> getPointcutMethods() {
         return mPointcutMethods;
     }
 
+    // 返回 lambda 对应的切点方法，不是切点或者交给 InjectExecuteSuperClassVisitor 处理时返回 null
+    static PointcutMethod findLambdaPointcutMethod(Context context, Map<String, PointcutClass> executePointcutClasses,
+                                                   String methodName, String lambdaMethodName, String desc, Object[] bsmArgs) {
+        int index = desc.lastIndexOf(")L");
+        if (index == -1) {
+            return null;
+        }
+        String interfaceClazzName = desc.substring(index + 2, desc.length() - 1);
+        PointcutClass pointcutClass = executePointcutClasses.get(interfaceClazzName);
+        if (pointcutClass == null) {
+            return null;
+        }
+        String lambdaMethodDesc = ((Type) bsmArgs[0]).getDescriptor();
+        PointcutMethod pointcutMethod = pointcutClass.getPointcutMethod(lambdaMethodName, lambdaMethodDesc);
+        if (pointcutMethod == null) {
+            return null;
+        }
+
+        Handle handle = (Handle) bsmArgs[1];
+        if (lambdaMethodName.equals(handle.getName())) {
+            // 校验实现方法是不是实现了对应接口的实现方法， 如果是则过滤，交给 InjectExecuteSuperClassVisitor 进行处理
+            if (context.isAssignable(handle.getOwner(), interfaceClazzName)) {
+                context.getLog().debug("DesugaringClassVisitor(%s): skipped on method %s", context.getClassName(), methodName);
+                return null;
+            }
+        }
+        return pointcutMethod;
+    }
+
+    // 同一个实现方法可能被多个 lambda 引用，合并它们的织入方法
+    static void addLambdaPointcutMethod(Map<String, PointcutMethod> pointcutMethods, Handle handle, PointcutMethod pointcutMethod) {
+        String key = handle.getName() + handle.getDesc();
+        PointcutMethod needInjectMethod = pointcutMethods.get(key);
+        if (needInjectMethod == null) {
+            needInjectMethod = new PointcutMethod(handle.getName(), handle.getDesc());
+            pointcutMethods.put(key, needInjectMethod);
+        }
+        needInjectMethod.addInjectMethods(pointcutMethod.getInjectMethods());
+    }
+
     private void generateMethod(GenerateMethodBlock methodBlock) {
-        mLog.debug(TAG + ": generateMethod: " + methodBlock.mMethodName + "#" + methodBlock.mMethodDesc);
+        if (mLog.isDebugEnabled()) {
+            mLog.debug("%s: generateMethod: %s#%s", TAG, methodBlock.mMethodName, methodBlock.mMethodDesc);
+        }
         int access = Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC + Opcodes.ACC_SYNTHETIC;
         MethodVisitor visitor = super.visitMethod(access, methodBlock.mMethodName, methodBlock.mMethodDesc, null, null);
         GeneratorAdapter adapter = new GeneratorAdapter(visitor, access, methodBlock.mMethodName, methodBlock.mMethodDesc);
         adapter.visitCode();
         Type[] arguments = Type.getArgumentTypes(methodBlock.mMethodDesc);
         boolean isStaticOrigin = methodBlock.mOriginHandle.getTag() == Opcodes.H_INVOKESTATIC;
-        for (InjectMethod injectMethod : methodBlock.mPointcutMethod.getInjectMethods()) {
-            if (!injectMethod.isAfter()) {
-                adapter.visitInsn(ACONST_NULL);
-                if (isStaticOrigin) {
-                    adapter.loadArgs();
-                } else {
-                    if (arguments.length > 1) {
-                        adapter.loadArgs(1, arguments.length - 1);
-                    }
+        for (InjectMethod injectMethod : mContext.getBeforeInjectMethods(methodBlock.mPointcutMethod)) {
+            Label skipLabel = mContext.beginAdviceGuard(injectMethod, adapter);
+            adapter.visitInsn(ACONST_NULL);
+            if (isStaticOrigin) {
+                adapter.loadArgs();
+            } else {
+                if (arguments.length > 1) {
+                    adapter.loadArgs(1, arguments.length - 1);
                 }
-                adapter.invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
             }
+            mContext.invokeInjectMethod(injectMethod, adapter, adapter);
+            mContext.endAdviceGuard(skipLabel, adapter);
         }
 
         adapter.loadArgs();
@@ -121,18 +172,18 @@ public class DesugaringClassVisitor extends ClassVisitor {
                 break;
         }
 
-        for (InjectMethod injectMethod : methodBlock.mPointcutMethod.getInjectMethods()) {
-            if (injectMethod.isAfter()) {
-                adapter.visitInsn(ACONST_NULL);
-                if (isStaticOrigin) {
-                    adapter.loadArgs();
-                } else {
-                    if (arguments.length > 1) {
-                        adapter.loadArgs(1, arguments.length - 1);
-                    }
+        for (InjectMethod injectMethod : mContext.getAfterInjectMethods(methodBlock.mPointcutMethod)) {
+            Label skipLabel = mContext.beginAdviceGuard(injectMethod, adapter);
+            adapter.visitInsn(ACONST_NULL);
+            if (isStaticOrigin) {
+                adapter.loadArgs();
+            } else {
+                if (arguments.length > 1) {
+                    adapter.loadArgs(1, arguments.length - 1);
                 }
-                adapter.invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
             }
+            mContext.invokeInjectMethod(injectMethod, adapter, adapter);
+            mContext.endAdviceGuard(skipLabel, adapter);
         }
 
         adapter.returnValue();
@@ -150,40 +201,21 @@ public class DesugaringClassVisitor extends ClassVisitor {
 
         @Override
         public void visitInvokeDynamicInsn(String lambdaMethodName, String desc, Handle bsm, Object... bsmArgs) {
-            int index = desc.lastIndexOf(")L");
-            if (index == -1) {
-                super.visitInvokeDynamicInsn(lambdaMethodName, desc, bsm, bsmArgs);
-                return;
-            }
-            String interfaceClazzName = desc.substring(index + 2, desc.length() - 1);
-            PointcutClass pointcutClass = mExecutePointcutClasses.get(interfaceClazzName);
-            if (pointcutClass == null) {
-                super.visitInvokeDynamicInsn(lambdaMethodName, desc, bsm, bsmArgs);
-                return;
-            }
-            String lambdaMethodDesc = ((Type) bsmArgs[0]).getDescriptor();
-            PointcutMethod pointcutMethod = pointcutClass.getPointcutMethod(lambdaMethodName, lambdaMethodDesc);
+            PointcutMethod pointcutMethod = findLambdaPointcutMethod(mContext, mExecutePointcutClasses, mName, lambdaMethodName, desc, bsmArgs);
             if (pointcutMethod == null) {
                 super.visitInvokeDynamicInsn(lambdaMethodName, desc, bsm, bsmArgs);
                 return;
             }
 
+            int index = desc.lastIndexOf(")L");
+            String interfaceClazzName = desc.substring(index + 2, desc.length() - 1);
             Handle handle = (Handle) bsmArgs[1];
-            if (lambdaMethodName.equals(handle.getName())) {
-                // 校验实现方法是不是实现了对应接口的实现方法， 如果是则过滤，交给 InjectExecuteSuperClassVisitor 进行处理
-                if (mContext.isAssignable(handle.getOwner(), interfaceClazzName)) {
-                    mLog.debug(String.format("DesugaringClassVisitor(%s): skipped on method %s", mContext.getClassName(), mName));
-                    super.visitInvokeDynamicInsn(lambdaMethodName, desc, bsm, bsmArgs);
-                    return;
-                }
-            }
+            mContext.recordPointcut("execute", interfaceClazzName, pointcutMethod.getName(), pointcutMethod.getDesc());
 
             if (handle.getOwner().equals(mContext.getClassName())) {
                 // 实现方法在此类中
                 super.visitInvokeDynamicInsn(lambdaMethodName, desc, bsm, bsmArgs);
-                PointcutMethod needInjectMethod = new PointcutMethod(handle.getName(), handle.getDesc());
-                needInjectMethod.addInjectMethods(pointcutMethod.getInjectMethods());
-                mPointcutMethods.add(needInjectMethod);
+                addLambdaPointcutMethod(mPointcutMethods, handle, pointcutMethod);
             } else {
                 String key = interfaceClazzName + handle.getOwner() + handle.getName() + handle.getDesc();
                 GenerateMethodBlock methodBlock = mGenerateMethodBlocks.get(key);
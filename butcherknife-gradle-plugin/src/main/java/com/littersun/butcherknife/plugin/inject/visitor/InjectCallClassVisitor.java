@@ -16,33 +16,38 @@
 
 package com.littersun.butcherknife.plugin.inject.visitor;
 
+import com.android.annotations.Nullable;
 import com.littersun.butcherknife.plugin.Context;
 import com.littersun.butcherknife.plugin.Log;
 import com.littersun.butcherknife.plugin.entity.InjectMethod;
-import com.littersun.butcherknife.plugin.entity.PointcutClass;
 import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+import com.littersun.butcherknife.plugin.inject.PointcutIndex;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
-import org.objectweb.asm.commons.Method;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class InjectCallClassVisitor extends ClassVisitor {
     private final Context mContext;
     private final Log mLog;
-    private final Map<String, PointcutClass> mPointcutClasses;
+    private final PointcutIndex mPointcutIndex;
+    private final JoinPointAnalyzer mJoinPointAnalyzer;
     private String mCurrentClass;
 
-    public InjectCallClassVisitor(ClassVisitor classVisitor, Context context, Map<String, PointcutClass> pointcutClasses) {
+    // joinPointAnalyzer 为 null 时包装所有的方法
+    public InjectCallClassVisitor(ClassVisitor classVisitor, Context context, PointcutIndex pointcutIndex, @Nullable JoinPointAnalyzer joinPointAnalyzer) {
         super(context.getASMVersion(), classVisitor);
         mContext = context;
         mLog = mContext.getLog();
-        mPointcutClasses = pointcutClasses;
+        mPointcutIndex = pointcutIndex;
+        mJoinPointAnalyzer = joinPointAnalyzer;
     }
 
     @Override
@@ -54,6 +59,9 @@ public class InjectCallClassVisitor extends ClassVisitor {
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (mJoinPointAnalyzer != null && !mJoinPointAnalyzer.hasCallJoinPoint(name, desc)) {
+            return mv;
+        }
         return new AroundMethodVisitor(mv, access, name, desc);
     }
 
@@ -65,75 +73,167 @@ public class InjectCallClassVisitor extends ClassVisitor {
 
         @Override
         public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-            PointcutMethod pointcutMethod = findPointcutMethod(owner, name, desc);
+            PointcutMethod pointcutMethod = mPointcutIndex.find(mContext, owner, name, desc);
 
             if (pointcutMethod != null) {
-                Method originalMethod = new Method(name, desc);
-                int callObject = -1;
-                int[] locals = new int[originalMethod.getArgumentTypes().length];
-                for (int i = locals.length - 1; i >= 0; i--) {
-                    locals[i] = newLocal(originalMethod.getArgumentTypes()[i]);
-                    storeLocal(locals[i]);
-                }
-                if (opcode != Opcodes.INVOKESTATIC) {
-                    callObject = newLocal(Type.getObjectType(owner));
-                    storeLocal(callObject);
+                Type[] argumentTypes = Type.getArgumentTypes(desc);
+                boolean isStatic = opcode == Opcodes.INVOKESTATIC;
+                int valuesSize = isStatic ? 0 : 1;
+                for (Type argumentType : argumentTypes) {
+                    valuesSize += argumentType.getSize();
                 }
-                for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
-                    if (!injectMethod.isAfter()) {
-                        if (callObject >= 0) {
-                            loadLocal(callObject);
-                        }
-                        for (int tmpLocal : locals) {
-                            loadLocal(tmpLocal);
-                        }
-                        invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
-                        mLog.debug(mCurrentClass + ": " + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc() + " ===Before===> " + owner + "#" + name + desc);
+                List<InjectMethod> beforeInjectMethods = mContext.getBeforeInjectMethods(pointcutMethod);
+                List<InjectMethod> afterInjectMethods = mContext.getAfterInjectMethods(pointcutMethod);
+                List<InjectMethod> injectMethods = new ArrayList<>(beforeInjectMethods);
+                injectMethods.addAll(afterInjectMethods);
+                boolean needReceiver = false;
+                boolean needArgumentsOnly = false;
+                for (InjectMethod injectMethod : injectMethods) {
+                    if (isStatic) {
+                        continue;
+                    }
+                    if (takesReceiver(injectMethod, argumentTypes)) {
+                        needReceiver = true;
+                    } else if (argumentTypes.length > 0) {
+                        needArgumentsOnly = true;
                     }
                 }
+                // 织入方法只使用调用时的全部操作数（或者都不使用），并且操作数不超过两个 slot 时，通过 DUP 复制，不使用局部变量
+                if (!needArgumentsOnly && valuesSize <= 2) {
+                    injectWithDup(beforeInjectMethods, afterInjectMethods, opcode, owner, name, desc, itf, isStatic, argumentTypes, valuesSize);
+                } else {
+                    injectWithLocals(beforeInjectMethods, afterInjectMethods, opcode, owner, name, desc, itf, argumentTypes, needReceiver);
+                }
+                mContext.markModified();
+            } else {
+                super.visitMethodInsn(opcode, owner, name, desc, itf);
+            }
+        }
 
-                if (callObject >= 0) {
-                    loadLocal(callObject);
+        private void injectWithDup(List<InjectMethod> beforeInjectMethods, List<InjectMethod> afterInjectMethods, int opcode, String owner, String name, String desc, boolean itf,
+                                   boolean isStatic, Type[] argumentTypes, int valuesSize) {
+            for (InjectMethod injectMethod : beforeInjectMethods) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                if (isStatic || takesReceiver(injectMethod, argumentTypes)) {
+                    dupValues(valuesSize);
                 }
+                invokeInjectMethod(injectMethod, "Before", owner, name, desc);
+                mContext.endAdviceGuard(skipLabel, this);
+            }
 
-                for (int tmpLocal : locals) {
-                    loadLocal(tmpLocal);
+            int lastAfterIndex = -1;
+            for (int i = 0; i < afterInjectMethods.size(); i++) {
+                if (isStatic || takesReceiver(afterInjectMethods.get(i), argumentTypes)) {
+                    lastAfterIndex = i;
                 }
-                super.visitMethodInsn(opcode, owner, name, desc, itf);
+            }
+            boolean keepValues = lastAfterIndex >= 0 && valuesSize > 0;
+            // 有开关或者采样的织入方法可能被跳过，不能直接使用保留的操作数，最后再弹出
+            boolean consumeValues = keepValues && !mContext.hasAdviceGuard(afterInjectMethods.get(lastAfterIndex));
+            if (keepValues) {
+                dupValues(valuesSize);
+            }
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+            if (keepValues) {
+                // 把返回值移到保留的操作数下面，最后一个织入方法直接使用保留的操作数
+                moveReturnValueBelow(Type.getReturnType(desc).getSize(), valuesSize);
+            }
 
-                for (InjectMethod injectMethod : pointcutMethod.getInjectMethods()) {
-                    if (injectMethod.isAfter()) {
-                        if (callObject >= 0) {
-                            loadLocal(callObject);
-                        }
-                        for (int tmpLocal : locals) {
-                            loadLocal(tmpLocal);
-                        }
-                        invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
-                        mLog.debug(mCurrentClass + ": " + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc() + " ===After===> " + owner + "#" + name + desc);
-                    }
+            for (int i = 0; i < afterInjectMethods.size(); i++) {
+                InjectMethod injectMethod = afterInjectMethods.get(i);
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                if (keepValues && (isStatic || takesReceiver(injectMethod, argumentTypes)) && !(consumeValues && i == lastAfterIndex)) {
+                    dupValues(valuesSize);
                 }
-                mContext.markModified();
-            } else {
-                super.visitMethodInsn(opcode, owner, name, desc, itf);
+                invokeInjectMethod(injectMethod, "After", owner, name, desc);
+                mContext.endAdviceGuard(skipLabel, this);
+            }
+            if (keepValues && !consumeValues) {
+                popValues(valuesSize);
             }
         }
-    }
 
-    private PointcutMethod findPointcutMethod(String className, String methodName, String methodDesc) {
-        PointcutClass pointcutClass = findPointcutClass(className);
-        if (pointcutClass != null) {
-            return pointcutClass.getPointcutMethod(methodName, methodDesc);
+        // 只保存织入方法需要的操作数，不需要调用对象时调用对象保留在操作数栈上
+        private void injectWithLocals(List<InjectMethod> beforeInjectMethods, List<InjectMethod> afterInjectMethods, int opcode, String owner, String name, String desc, boolean itf,
+                                      Type[] argumentTypes, boolean needReceiver) {
+            int callObject = -1;
+            int[] locals = new int[argumentTypes.length];
+            for (int i = locals.length - 1; i >= 0; i--) {
+                locals[i] = newLocal(argumentTypes[i]);
+                storeLocal(locals[i]);
+            }
+            if (needReceiver) {
+                callObject = newLocal(Type.getObjectType(owner));
+                storeLocal(callObject);
+            }
+            for (InjectMethod injectMethod : beforeInjectMethods) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                loadValues(takesReceiver(injectMethod, argumentTypes) ? callObject : -1, locals);
+                invokeInjectMethod(injectMethod, "Before", owner, name, desc);
+                mContext.endAdviceGuard(skipLabel, this);
+            }
+
+            loadValues(callObject, locals);
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+
+            for (InjectMethod injectMethod : afterInjectMethods) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                loadValues(takesReceiver(injectMethod, argumentTypes) ? callObject : -1, locals);
+                invokeInjectMethod(injectMethod, "After", owner, name, desc);
+                mContext.endAdviceGuard(skipLabel, this);
+            }
         }
-        return null;
-    }
 
-    private PointcutClass findPointcutClass(String className) {
-        for (String clazz : mPointcutClasses.keySet()) {
-            if (mContext.isAssignable(className, clazz)) {
-                return mPointcutClasses.get(clazz);
+        private void loadValues(int callObject, int[] locals) {
+            if (callObject >= 0) {
+                loadLocal(callObject);
+            }
+            for (int local : locals) {
+                loadLocal(local);
             }
         }
-        return null;
+
+        private void dupValues(int valuesSize) {
+            if (valuesSize == 1) {
+                dup();
+            } else if (valuesSize == 2) {
+                dup2();
+            }
+        }
+
+        private void popValues(int valuesSize) {
+            if (valuesSize == 1) {
+                pop();
+            } else if (valuesSize == 2) {
+                pop2();
+            }
+        }
+
+        private void moveReturnValueBelow(int returnSize, int valuesSize) {
+            if (returnSize == 1 && valuesSize == 1) {
+                swap();
+            } else if (returnSize == 1) {
+                dupX2();
+                pop();
+            } else if (returnSize == 2 && valuesSize == 1) {
+                dup2X1();
+                pop2();
+            } else if (returnSize == 2) {
+                dup2X2();
+                pop2();
+            }
+        }
+
+        private void invokeInjectMethod(InjectMethod injectMethod, String position, String owner, String name, String desc) {
+            mContext.invokeInjectMethod(injectMethod, this, mv);
+            if (mLog.isDebugEnabled()) {
+                mLog.debug("%s: %s#%s%s ===%s===> %s#%s%s", mCurrentClass, injectMethod.getClassName(), injectMethod.getMethodName(), injectMethod.getMethodDesc(), position, owner, name, desc);
+            }
+        }
+    }
+
+    // 织入方法的参数与切点方法相同，或者比切点方法多一个调用对象作为第一个参数
+    private static boolean takesReceiver(InjectMethod injectMethod, Type[] argumentTypes) {
+        return Type.getArgumentTypes(injectMethod.getMethodDesc()).length > argumentTypes.length;
     }
 }
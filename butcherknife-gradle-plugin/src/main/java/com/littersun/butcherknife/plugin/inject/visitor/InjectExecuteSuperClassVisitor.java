@@ -24,6 +24,7 @@ import com.littersun.butcherknife.plugin.entity.PointcutClass;
 import com.littersun.butcherknife.plugin.entity.PointcutMethod;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AdviceAdapter;
@@ -79,8 +80,9 @@ public class InjectExecuteSuperClassVisitor extends ClassVisitor {
         for (PointcutClass pointcutClass : mPointcutClasses) {
             PointcutMethod pointcutMethod = pointcutClass.getPointcutMethod(name, desc);
             if (pointcutMethod != null) {
+                mContext.recordPointcut("execute", pointcutClass.getName(), name, desc);
                 mOverrideMethods.add(pointcutMethod);
-                return new InjectMethodVisitor(mv, access, name, desc, pointcutMethod.getInjectMethods());
+                return new InjectMethodVisitor(mv, access, name, desc, pointcutMethod);
             }
         }
         return mv;
@@ -91,26 +93,30 @@ public class InjectExecuteSuperClassVisitor extends ClassVisitor {
         for (PointcutClass pointcutClass : mPointcutClasses) {
             for (PointcutMethod pointcutMethod : pointcutClass.getPointcutMethods()) {
                 if (!mOverrideMethods.contains(pointcutMethod)) {
-                    Set<InjectMethod> injectMethods = pointcutMethod.getInjectMethods();
+                    mContext.recordPointcut("execute", pointcutClass.getName(), pointcutMethod.getName(), pointcutMethod.getDesc());
                     Method m = new Method(pointcutMethod.getName(), pointcutMethod.getDesc());
                     GeneratorAdapter mg = new GeneratorAdapter(ACC_PUBLIC, m, null, null, cv);
-                    for (InjectMethod injectMethod : injectMethods) {
-                        if (!injectMethod.isAfter()) {
-                            mg.loadThis();
-                            mg.loadArgs();
-                            mg.invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
-                            mLog.debug("Method Add: " + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc() + " ===ExecuteBefore===> " + mCurrentClass + "#" + pointcutMethod.getName() + pointcutMethod.getDesc());
+                    for (InjectMethod injectMethod : mContext.getBeforeInjectMethods(pointcutMethod)) {
+                        Label skipLabel = mContext.beginAdviceGuard(injectMethod, mg);
+                        mg.loadThis();
+                        mg.loadArgs();
+                        mContext.invokeInjectMethod(injectMethod, mg, mg);
+                        mContext.endAdviceGuard(skipLabel, mg);
+                        if (mLog.isDebugEnabled()) {
+                            mLog.debug("Method Add: %s#%s%s ===ExecuteBefore===> %s#%s%s", injectMethod.getClassName(), injectMethod.getMethodName(), injectMethod.getMethodDesc(), mCurrentClass, pointcutMethod.getName(), pointcutMethod.getDesc());
                         }
                     }
                     mg.loadThis();
                     mg.loadArgs();
                     mg.invokeConstructor(Type.getObjectType(pointcutClass.getName()), new Method(pointcutMethod.getName(), pointcutMethod.getDesc()));
-                    for (InjectMethod injectMethod : injectMethods) {
-                        if (injectMethod.isAfter()) {
-                            mg.loadThis();
-                            mg.loadArgs();
-                            mg.invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
-                            mLog.debug("Method Add: " + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc() + " ===ExecuteAfter===> " + mCurrentClass + "#" + pointcutMethod.getName() + pointcutMethod.getDesc());
+                    for (InjectMethod injectMethod : mContext.getAfterInjectMethods(pointcutMethod)) {
+                        Label skipLabel = mContext.beginAdviceGuard(injectMethod, mg);
+                        mg.loadThis();
+                        mg.loadArgs();
+                        mContext.invokeInjectMethod(injectMethod, mg, mg);
+                        mContext.endAdviceGuard(skipLabel, mg);
+                        if (mLog.isDebugEnabled()) {
+                            mLog.debug("Method Add: %s#%s%s ===ExecuteAfter===> %s#%s%s", injectMethod.getClassName(), injectMethod.getMethodName(), injectMethod.getMethodDesc(), mCurrentClass, pointcutMethod.getName(), pointcutMethod.getDesc());
                         }
                     }
                     mg.returnValue();
@@ -124,37 +130,41 @@ public class InjectExecuteSuperClassVisitor extends ClassVisitor {
     private final class InjectMethodVisitor extends AdviceAdapter {
         private final String mPointcutMethodName;
         private final String mPointcutMethodDesc;
-        private final Set<InjectMethod> mInjectMethods;
+        private final PointcutMethod mPointcutMethod;
 
-        protected InjectMethodVisitor(MethodVisitor mv, int access, String name, String desc, Set<InjectMethod> injectMethods) {
+        protected InjectMethodVisitor(MethodVisitor mv, int access, String name, String desc, PointcutMethod pointcutMethod) {
             super(mContext.getASMVersion(), mv, access, name, desc);
             mPointcutMethodName = name;
             mPointcutMethodDesc = desc;
-            mInjectMethods = injectMethods;
+            mPointcutMethod = pointcutMethod;
         }
 
         @Override
         protected void onMethodEnter() {
             super.onMethodEnter();
-            for (InjectMethod injectMethod : mInjectMethods) {
-                if (!injectMethod.isAfter()) {
-                    loadThis();
-                    loadArgs();
-                    invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
-                    mLog.debug("Method Insert: " + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc() + " ===ExecuteBefore===> " + mCurrentClass + "#" + mPointcutMethodName + mPointcutMethodDesc);
+            for (InjectMethod injectMethod : mContext.getBeforeInjectMethods(mPointcutMethod)) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                loadThis();
+                loadArgs();
+                mContext.invokeInjectMethod(injectMethod, this, mv);
+                mContext.endAdviceGuard(skipLabel, this);
+                if (mLog.isDebugEnabled()) {
+                    mLog.debug("Method Insert: %s#%s%s ===ExecuteBefore===> %s#%s%s", injectMethod.getClassName(), injectMethod.getMethodName(), injectMethod.getMethodDesc(), mCurrentClass, mPointcutMethodName, mPointcutMethodDesc);
                 }
             }
         }
 
         @Override
         protected void onMethodExit(int opcode) {
-            for (InjectMethod injectMethod : mInjectMethods) {
-                if (injectMethod.isAfter()) {
-                    loadThis();
-                    loadArgs();
-                    invokeStatic(Type.getObjectType(injectMethod.getClassName()), new Method(injectMethod.getMethodName(), injectMethod.getMethodDesc()));
+            for (InjectMethod injectMethod : mContext.getAfterInjectMethods(mPointcutMethod)) {
+                Label skipLabel = mContext.beginAdviceGuard(injectMethod, this);
+                loadThis();
+                loadArgs();
+                mContext.invokeInjectMethod(injectMethod, this, mv);
+                mContext.endAdviceGuard(skipLabel, this);
+                if (mLog.isDebugEnabled()) {
+                    mLog.debug("Method Insert: %s#%s%s ===ExecuteAfter===> %s#%s%s", injectMethod.getClassName(), injectMethod.getMethodName(), injectMethod.getMethodDesc(), mCurrentClass, mPointcutMethodName, mPointcutMethodDesc);
                 }
-                mLog.debug("Method Insert: " + injectMethod.getClassName() + "#" + injectMethod.getMethodName() + injectMethod.getMethodDesc() + " ===ExecuteAfter===> " + mCurrentClass + "#" + mPointcutMethodName + mPointcutMethodDesc);
             }
             super.onMethodExit(opcode);
         }
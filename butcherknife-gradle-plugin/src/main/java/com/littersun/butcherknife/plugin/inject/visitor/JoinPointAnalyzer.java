@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject.visitor;
+
+import com.littersun.butcherknife.plugin.Context;
+import com.littersun.butcherknife.plugin.entity.PointcutClass;
+import com.littersun.butcherknife.plugin.entity.PointcutMethod;
+import com.littersun.butcherknife.plugin.inject.PointcutIndex;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// 织入前先分析每个方法中是否可能存在织入点，没有织入点的方法不需要包装，ASM 可以直接复制原始字节码
+public class JoinPointAnalyzer extends ClassVisitor {
+    private final Context mContext;
+    private final PointcutIndex mCallPointcutIndex;
+    private final Map<String, PointcutClass> mExecutePointcutClasses;
+    private final Set<String> mCallMethods = new HashSet<>();
+    private final Set<String> mLambdaMethods = new HashSet<>();
+    // lambda 的实现方法可能出现在 invokedynamic 之前，预先找出来以便在同一次遍历中织入
+    private final Map<String, PointcutMethod> mLambdaPointcutMethods = new LinkedHashMap<>();
+    private boolean mHasExecutePointcut;
+
+    public JoinPointAnalyzer(Context context, PointcutIndex callPointcutIndex, Map<String, PointcutClass> executePointcutClasses) {
+        super(context.getASMVersion());
+        mContext = context;
+        mCallPointcutIndex = callPointcutIndex;
+        mExecutePointcutClasses = executePointcutClasses;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mHasExecutePointcut = mExecutePointcutClasses.containsKey(superName);
+        if (interfaces != null) {
+            for (String anInterface : interfaces) {
+                mHasExecutePointcut |= mExecutePointcutClasses.containsKey(anInterface);
+            }
+        }
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        String method = name + desc;
+        return new MethodVisitor(api) {
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String insnName, String insnDesc, boolean itf) {
+                if (mCallPointcutIndex.mayMatch(insnName, insnDesc)) {
+                    mCallMethods.add(method);
+                }
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String insnName, String insnDesc, Handle bsm, Object... bsmArgs) {
+                int index = insnDesc.lastIndexOf(")L");
+                if (index == -1 || !mExecutePointcutClasses.containsKey(insnDesc.substring(index + 2, insnDesc.length() - 1))) {
+                    return;
+                }
+                mLambdaMethods.add(method);
+                PointcutMethod pointcutMethod = DesugaringClassVisitor.findLambdaPointcutMethod(mContext, mExecutePointcutClasses, name, insnName, insnDesc, bsmArgs);
+                if (pointcutMethod != null) {
+                    Handle handle = (Handle) bsmArgs[1];
+                    if (handle.getOwner().equals(mContext.getClassName())) {
+                        DesugaringClassVisitor.addLambdaPointcutMethod(mLambdaPointcutMethods, handle, pointcutMethod);
+                    }
+                }
+            }
+        };
+    }
+
+    // 父类或接口是切点类时需要重写或插入切点方法
+    public boolean hasExecutePointcut() {
+        return mHasExecutePointcut;
+    }
+
+    public boolean hasCallJoinPoint(String name, String desc) {
+        return mCallMethods.contains(name + desc);
+    }
+
+    public boolean hasLambdaJoinPoint(String name, String desc) {
+        return mLambdaMethods.contains(name + desc);
+    }
+
+    // 实现方法在此类中的 lambda，key 为实现方法的 name + desc
+    public Map<String, PointcutMethod> getLambdaPointcutMethods() {
+        return mLambdaPointcutMethods;
+    }
+
+    public boolean isEmpty() {
+        return !mHasExecutePointcut && mCallMethods.isEmpty() && mLambdaMethods.isEmpty();
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// 记录扫描和织入过程中每个输入（目录或 jar）各阶段的耗时及织入统计，构建结束后输出 JSON 和 HTML 报告
+public final class TransformProfiler {
+    public enum Phase {
+        SCAN, READ, WEAVE, WRITE
+    }
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final boolean mIsEnabled;
+    private final boolean mIsCpuTimeSupported;
+    private final long mStartTime = System.nanoTime();
+    private final Map<String, UnitStats> mUnits = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> mJoinPoints = new ConcurrentHashMap<>();
+
+    public TransformProfiler(boolean enabled) {
+        mIsEnabled = enabled;
+        mIsCpuTimeSupported = enabled && THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+    }
+
+    public boolean isEnabled() {
+        return mIsEnabled;
+    }
+
+    // 未开启时返回 null，end 会忽略 null
+    public Sample begin() {
+        if (!mIsEnabled) {
+            return null;
+        }
+        return new Sample(System.nanoTime(), currentThreadCpuTime());
+    }
+
+    public void end(Sample sample, String unit, Phase phase) {
+        if (sample == null) {
+            return;
+        }
+        UnitStats stats = getUnitStats(unit);
+        stats.mWallTimes[phase.ordinal()].add(System.nanoTime() - sample.mWallTime);
+        stats.mCpuTimes[phase.ordinal()].add(currentThreadCpuTime() - sample.mCpuTime);
+    }
+
+    public void addBytes(String unit, long bytesIn, long bytesOut) {
+        if (mIsEnabled) {
+            UnitStats stats = getUnitStats(unit);
+            stats.mBytesIn.add(bytesIn);
+            stats.mBytesOut.add(bytesOut);
+        }
+    }
+
+    public void addScannedClasses(String unit, int count) {
+        if (mIsEnabled) {
+            getUnitStats(unit).mScannedClasses.add(count);
+        }
+    }
+
+    public void addSkippedClasses(String unit, int count) {
+        if (mIsEnabled) {
+            getUnitStats(unit).mSkippedClasses.add(count);
+        }
+    }
+
+    public void addModifiedClasses(String unit, int count) {
+        if (mIsEnabled) {
+            getUnitStats(unit).mModifiedClasses.add(count);
+        }
+    }
+
+    // wovenPointcuts 为切点 -> 织入次数，格式与 Context#recordPointcut 一致
+    public void addJoinPoints(Map<String, Integer> wovenPointcuts) {
+        if (mIsEnabled) {
+            for (Map.Entry<String, Integer> entry : wovenPointcuts.entrySet()) {
+                mJoinPoints.computeIfAbsent(entry.getKey(), key -> new LongAdder()).add(entry.getValue());
+            }
+        }
+    }
+
+    // aspectState 为 AnnotationScanner#getAspectState 的输出，用于把切点的织入次数分配到每个织入方法
+    public void writeReports(File reportDir, String name, List<String> aspectState) throws IOException {
+        if (!mIsEnabled) {
+            return;
+        }
+        long totalWallTime = System.nanoTime() - mStartTime;
+        List<Map.Entry<String, UnitStats>> units = new ArrayList<>(new TreeMap<>(mUnits).entrySet());
+        // 耗时最多的输入排在前面
+        units.sort((o1, o2) -> Long.compare(o2.getValue().getTotalWallTime(), o1.getValue().getTotalWallTime()));
+        Map<String, Long> adviceJoinPoints = getAdviceJoinPoints(aspectState);
+
+        reportDir.mkdirs();
+        Files.write(new File(reportDir, name + ".json").toPath(),
+                toJson(name, totalWallTime, units, adviceJoinPoints).getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(reportDir, name + ".html").toPath(),
+                toHtml(name, totalWallTime, units, adviceJoinPoints).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Map<String, Long> getAdviceJoinPoints(List<String> aspectState) {
+        Map<String, Long> adviceJoinPoints = new TreeMap<>();
+        for (String line : aspectState) {
+            // type pointcutClass#methodDesc before|after injectClass#methodDesc precedence [sampleRate]
+            String[] parts = line.split(" ");
+            if (parts.length != 5 && parts.length != 6) {
+                continue;
+            }
+            LongAdder joinPoints = mJoinPoints.get(parts[0] + " " + parts[1]);
+            adviceJoinPoints.merge(parts[3], joinPoints == null ? 0L : joinPoints.sum(), Long::sum);
+        }
+        return adviceJoinPoints;
+    }
+
+    private String toJson(String name, long totalWallTime, List<Map.Entry<String, UnitStats>> units, Map<String, Long> adviceJoinPoints) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n");
+        builder.append("  \"name\": ").append(jsonString(name)).append(",\n");
+        builder.append("  \"wallTimeMs\": ").append(toMillis(totalWallTime)).append(",\n");
+        builder.append("  \"units\": [");
+        for (int i = 0; i < units.size(); i++) {
+            UnitStats stats = units.get(i).getValue();
+            builder.append(i == 0 ? "\n" : ",\n");
+            builder.append("    {\"name\": ").append(jsonString(units.get(i).getKey()));
+            for (Phase phase : Phase.values()) {
+                String phaseName = phase.name().toLowerCase(Locale.US);
+                builder.append(", \"").append(phaseName).append("WallMs\": ").append(toMillis(stats.mWallTimes[phase.ordinal()].sum()));
+                builder.append(", \"").append(phaseName).append("CpuMs\": ").append(toMillis(stats.mCpuTimes[phase.ordinal()].sum()));
+            }
+            builder.append(", \"bytesIn\": ").append(stats.mBytesIn.sum());
+            builder.append(", \"bytesOut\": ").append(stats.mBytesOut.sum());
+            builder.append(", \"scannedClasses\": ").append(stats.mScannedClasses.sum());
+            builder.append(", \"skippedClasses\": ").append(stats.mSkippedClasses.sum());
+            builder.append(", \"modifiedClasses\": ").append(stats.mModifiedClasses.sum());
+            builder.append("}");
+        }
+        builder.append("\n  ],\n");
+        builder.append("  \"joinPoints\": {");
+        int index = 0;
+        for (Map.Entry<String, Long> entry : adviceJoinPoints.entrySet()) {
+            builder.append(index++ == 0 ? "\n" : ",\n");
+            builder.append("    ").append(jsonString(entry.getKey())).append(": ").append(entry.getValue());
+        }
+        builder.append("\n  }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private String toHtml(String name, long totalWallTime, List<Map.Entry<String, UnitStats>> units, Map<String, Long> adviceJoinPoints) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n");
+        builder.append("<title>ButcherKnife ").append(htmlString(name)).append("</title>\n");
+        builder.append("<style>body{font-family:sans-serif}table{border-collapse:collapse}"
+                + "td,th{border:1px solid #ccc;padding:2px 6px}td.n{text-align:right}</style>\n");
+        builder.append("</head>\n<body>\n");
+        builder.append("<h1>ButcherKnife ").append(htmlString(name)).append("</h1>\n");
+        builder.append("<p>Total: ").append(toMillis(totalWallTime)).append(" ms</p>\n");
+
+        builder.append("<h2>Inputs</h2>\n<table>\n<tr><th>Input</th>");
+        for (Phase phase : Phase.values()) {
+            String phaseName = phase.name().toLowerCase(Locale.US);
+            builder.append("<th>").append(phaseName).append(" wall ms</th><th>").append(phaseName).append(" cpu ms</th>");
+        }
+        builder.append("<th>Bytes in</th><th>Bytes out</th><th>Scanned</th><th>Skipped</th><th>Modified</th></tr>\n");
+        for (Map.Entry<String, UnitStats> unit : units) {
+            UnitStats stats = unit.getValue();
+            builder.append("<tr><td>").append(htmlString(unit.getKey())).append("</td>");
+            for (Phase phase : Phase.values()) {
+                appendCell(builder, toMillis(stats.mWallTimes[phase.ordinal()].sum()));
+                appendCell(builder, toMillis(stats.mCpuTimes[phase.ordinal()].sum()));
+            }
+            appendCell(builder, stats.mBytesIn.sum());
+            appendCell(builder, stats.mBytesOut.sum());
+            appendCell(builder, stats.mScannedClasses.sum());
+            appendCell(builder, stats.mSkippedClasses.sum());
+            appendCell(builder, stats.mModifiedClasses.sum());
+            builder.append("</tr>\n");
+        }
+        builder.append("</table>\n");
+
+        builder.append("<h2>Join points</h2>\n<table>\n<tr><th>Advice</th><th>Join points</th></tr>\n");
+        for (Map.Entry<String, Long> entry : adviceJoinPoints.entrySet()) {
+            builder.append("<tr><td>").append(htmlString(entry.getKey())).append("</td>");
+            appendCell(builder, entry.getValue());
+            builder.append("</tr>\n");
+        }
+        builder.append("</table>\n</body>\n</html>\n");
+        return builder.toString();
+    }
+
+    private static void appendCell(StringBuilder builder, long value) {
+        builder.append("<td class=\"n\">").append(value).append("</td>");
+    }
+
+    private UnitStats getUnitStats(String unit) {
+        return mUnits.computeIfAbsent(unit, key -> new UnitStats());
+    }
+
+    private long currentThreadCpuTime() {
+        return mIsCpuTimeSupported ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static String htmlString(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    public static final class Sample {
+        private final long mWallTime;
+        private final long mCpuTime;
+
+        private Sample(long wallTime, long cpuTime) {
+            mWallTime = wallTime;
+            mCpuTime = cpuTime;
+        }
+    }
+
+    private static final class UnitStats {
+        private final LongAdder[] mWallTimes = newAdders();
+        private final LongAdder[] mCpuTimes = newAdders();
+        private final LongAdder mBytesIn = new LongAdder();
+        private final LongAdder mBytesOut = new LongAdder();
+        private final LongAdder mScannedClasses = new LongAdder();
+        private final LongAdder mSkippedClasses = new LongAdder();
+        private final LongAdder mModifiedClasses = new LongAdder();
+
+        long getTotalWallTime() {
+            long total = 0;
+            for (LongAdder wallTime : mWallTimes) {
+                total += wallTime.sum();
+            }
+            return total;
+        }
+
+        private static LongAdder[] newAdders() {
+            LongAdder[] adders = new LongAdder[Phase.values().length];
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.scope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 按包名逐段编译的类名 glob，例如 com.foo.**、**.R、*$$ViewBinder，
+// 同一前缀的规则共享节点，匹配一个类时只需要沿着类名的各段向下查找
+final class GlobTrie {
+    private final Node mRoot = new Node();
+    private boolean mIsEmpty = true;
+
+    // 不含 '.' 的规则匹配任意包中的类，等价于 **.pattern
+    void add(String pattern) {
+        String glob = pattern.trim();
+        if (glob.isEmpty()) {
+            return;
+        }
+        if (glob.indexOf('.') < 0 && !glob.equals("**")) {
+            glob = "**." + glob;
+        }
+        Node node = mRoot;
+        for (String segment : glob.split("\\.")) {
+            node = node.getOrCreateChild(segment);
+        }
+        node.mIsTerminal = true;
+        mIsEmpty = false;
+    }
+
+    boolean isEmpty() {
+        return mIsEmpty;
+    }
+
+    // className 为内部类名，例如 com/foo/Bar$1
+    boolean matches(String className) {
+        return matches(mRoot, className, 0);
+    }
+
+    private static boolean matches(Node node, String className, int start) {
+        if (start > className.length()) {
+            return node.mIsTerminal || (node.mAnySegments != null && node.mAnySegments.mIsTerminal);
+        }
+        if (node.mAnySegments != null) {
+            // ** 可以匹配零个或多个包名段
+            for (int next = start; ; next = getSegmentEnd(className, next) + 1) {
+                if (matches(node.mAnySegments, className, next)) {
+                    return true;
+                }
+                if (next > className.length()) {
+                    break;
+                }
+            }
+        }
+        int end = getSegmentEnd(className, start);
+        boolean isLastSegment = end == className.length();
+        Node literal = node.mLiterals.get(className.substring(start, end));
+        if (literal != null && matches(literal, className, end + 1)) {
+            return true;
+        }
+        for (int i = 0; i < node.mWildcards.size(); i++) {
+            if (matchesWildcard(node.mWildcards.get(i), className, start, end)
+                    && matches(node.mWildcardNodes.get(i), className, end + 1)) {
+                return true;
+            }
+        }
+        if (isLastSegment) {
+            // 匹配外部类的规则同样匹配它的内部类，例如 **.R 匹配 com/foo/R$id
+            for (int i = end - 1; i > start; i--) {
+                if (className.charAt(i) == '$' && className.charAt(i - 1) != '$'
+                        && matchesOuterClass(node, className, start, i)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesOuterClass(Node node, String className, int start, int end) {
+        Node literal = node.mLiterals.get(className.substring(start, end));
+        if (literal != null && literal.mIsTerminal) {
+            return true;
+        }
+        for (int i = 0; i < node.mWildcards.size(); i++) {
+            if (node.mWildcardNodes.get(i).mIsTerminal && matchesWildcard(node.mWildcards.get(i), className, start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getSegmentEnd(String className, int start) {
+        int end = className.indexOf('/', start);
+        return end < 0 ? className.length() : end;
+    }
+
+    // '*' 匹配任意数量的字符，不使用正则表达式
+    static boolean matchesWildcard(String glob, String value, int start, int end) {
+        int globIndex = 0;
+        int valueIndex = start;
+        int starIndex = -1;
+        int starValueIndex = start;
+        while (valueIndex < end) {
+            if (globIndex < glob.length() && glob.charAt(globIndex) == '*') {
+                starIndex = globIndex;
+                starValueIndex = valueIndex;
+                globIndex++;
+            } else if (globIndex < glob.length() && glob.charAt(globIndex) == value.charAt(valueIndex)) {
+                globIndex++;
+                valueIndex++;
+            } else if (starIndex >= 0) {
+                // 回退到上一个 '*'，让它多匹配一个字符
+                starValueIndex++;
+                globIndex = starIndex + 1;
+                valueIndex = starValueIndex;
+            } else {
+                return false;
+            }
+        }
+        while (globIndex < glob.length() && glob.charAt(globIndex) == '*') {
+            globIndex++;
+        }
+        return globIndex == glob.length();
+    }
+
+    private static final class Node {
+        private final Map<String, Node> mLiterals = new HashMap<>();
+        private final List<String> mWildcards = new ArrayList<>();
+        private final List<Node> mWildcardNodes = new ArrayList<>();
+        private Node mAnySegments;
+        private boolean mIsTerminal;
+
+        Node getOrCreateChild(String segment) {
+            if (segment.equals("**")) {
+                if (mAnySegments == null) {
+                    mAnySegments = new Node();
+                }
+                return mAnySegments;
+            }
+            if (segment.indexOf('*') < 0) {
+                return mLiterals.computeIfAbsent(segment, key -> new Node());
+            }
+            int index = mWildcards.indexOf(segment);
+            if (index >= 0) {
+                return mWildcardNodes.get(index);
+            }
+            Node child = new Node();
+            mWildcards.add(segment);
+            mWildcardNodes.add(child);
+            return child;
+        }
+    }
+}
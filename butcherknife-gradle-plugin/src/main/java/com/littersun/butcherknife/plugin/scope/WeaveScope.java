@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.scope;
+
+import com.android.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 织入范围：类名的 include/exclude 规则编译为 GlobTrie，jar 按名称（通常为 group:name:version）过滤，
+// 在读取 class 之前判断，不在范围内的 jar 直接复制
+public final class WeaveScope {
+    private final GlobTrie mIncludes = new GlobTrie();
+    private final GlobTrie mExcludes = new GlobTrie();
+    private final List<String> mIncludeJars = new ArrayList<>();
+    private final List<String> mExcludeJars = new ArrayList<>();
+    private final List<String> mState = new ArrayList<>();
+
+    public WeaveScope(@Nullable String[] includes, @Nullable String[] excludes, @Nullable String[] excludePackages,
+                      @Nullable String[] includeJars, @Nullable String[] excludeJars) {
+        for (String include : nonNull(includes)) {
+            mIncludes.add(include);
+            mState.add("include " + include);
+        }
+        for (String exclude : nonNull(excludes)) {
+            mExcludes.add(exclude);
+            mState.add("exclude " + exclude);
+        }
+        // excludePackages 排除整个包及其子包
+        for (String excludePackage : nonNull(excludePackages)) {
+            mExcludes.add(excludePackage + ".**");
+            mState.add("exclude " + excludePackage + ".**");
+        }
+        for (String includeJar : nonNull(includeJars)) {
+            mIncludeJars.add(includeJar.trim());
+            mState.add("includeJar " + includeJar);
+        }
+        for (String excludeJar : nonNull(excludeJars)) {
+            mExcludeJars.add(excludeJar.trim());
+            mState.add("excludeJar " + excludeJar);
+        }
+    }
+
+    // className 为内部类名，例如 com/foo/Bar
+    public boolean isClassIncluded(String className) {
+        if (!mIncludes.isEmpty() && !mIncludes.matches(className)) {
+            return false;
+        }
+        return mExcludes.isEmpty() || !mExcludes.matches(className);
+    }
+
+    // entryName 为 jar 或目录中的相对路径，例如 com/foo/Bar.class
+    public boolean isClassFileIncluded(String entryName) {
+        return isClassIncluded(entryName.substring(0, entryName.length() - ".class".length()));
+    }
+
+    public boolean isJarIncluded(String jarName) {
+        if (!mIncludeJars.isEmpty() && !matchesAny(mIncludeJars, jarName)) {
+            return false;
+        }
+        return !matchesAny(mExcludeJars, jarName);
+    }
+
+    // 范围变化后之前的输出全部失效
+    public List<String> getState() {
+        return Collections.unmodifiableList(mState);
+    }
+
+    private static boolean matchesAny(List<String> globs, String value) {
+        for (String glob : globs) {
+            if (GlobTrie.matchesWildcard(glob, value, 0, value.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] nonNull(@Nullable String[] values) {
+        return values == null ? new String[0] : values;
+    }
+}
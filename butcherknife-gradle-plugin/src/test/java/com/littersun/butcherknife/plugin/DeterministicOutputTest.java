@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.zip.ZipFile;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+// 相同的输入在不同的并行度下多次构建，输出的 jar 和 class 需要逐字节相同
+public class DeterministicOutputTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String CALLER = FIXTURE + "Caller";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private TestTransform mTransform;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransform = new TestTransform(mTemporaryFolder.getRoot());
+        mTransform.setAspectState("call " + TARGET + "#mix(IJDLjava/lang/String;)J before " + TRACE + "#beforeMixArgs(IJDLjava/lang/String;)V 0",
+                "call " + TARGET + "#twice(J)J after " + TRACE + "#afterTwice(J)V 0");
+        mTransform.putFixtureClasses("Caller");
+        mTransform.putFixtureJarClasses("Target", "Caller", "SubTarget", "TraceAdvice", "Recorder");
+    }
+
+    @Test
+    public void repeatedBuildsProduceIdenticalBytes() throws IOException {
+        mTransform.getPluginExtension().setParallelism(1);
+        mTransform.transform(false);
+        byte[] jar = Files.readAllBytes(mTransform.getOutputJar().toPath());
+        byte[] caller = Files.readAllBytes(mTransform.getOutputClass(CALLER).toPath());
+        assertFalse(TestWeaver.getMethodCalls(mTransform.getOutputJarClass(CALLER), "callMix").isEmpty());
+
+        mTransform.getPluginExtension().setParallelism(8);
+        mTransform.transform(false);
+        assertArrayEquals(jar, Files.readAllBytes(mTransform.getOutputJar().toPath()));
+        assertArrayEquals(caller, Files.readAllBytes(mTransform.getOutputClass(CALLER).toPath()));
+    }
+
+    @Test
+    public void parallelCompressionIsDeterministic() throws IOException {
+        mTransform.getPluginExtension().setOutputCompression("parallel");
+        mTransform.transform(false);
+        byte[] jar = Files.readAllBytes(mTransform.getOutputJar().toPath());
+        mTransform.transform(false);
+        assertArrayEquals(jar, Files.readAllBytes(mTransform.getOutputJar().toPath()));
+    }
+
+    // 重新写入的 entry 不使用构建时的时间
+    @Test
+    public void modifiedEntriesUseFixedTime() throws IOException {
+        mTransform.transform(false);
+        try (ZipFile zipFile = new ZipFile(mTransform.getOutputJar())) {
+            assertEquals(new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis(),
+                    zipFile.getEntry(CALLER + ".class").getTime());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// 增量构建只处理变化的输入，未变化的输出被改写成标记内容，重新织入后标记会被覆盖
+public class IncrementalTransformTest {
+    private static final byte[] STALE = "stale".getBytes(StandardCharsets.UTF_8);
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String CALLER = FIXTURE + "Caller";
+    private static final String BEFORE_MIX = "call " + TARGET + "#mix(IJDLjava/lang/String;)J before " + TRACE
+            + "#beforeMix(L" + TARGET + ";IJDLjava/lang/String;)V 0";
+    private static final String BEFORE_NAME = "call " + TARGET + "#name()Ljava/lang/String; before " + TRACE
+            + "#beforeName(L" + TARGET + ";)V 0";
+    private static final String MIDDLE = FIXTURE + "Middle";
+    private static final String LEAF = FIXTURE + "Leaf";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private TestTransform mTransform;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransform = new TestTransform(mTemporaryFolder.getRoot());
+        mTransform.setAspectState(BEFORE_MIX, BEFORE_NAME);
+        mTransform.putFixtureClasses("Target", "Caller", "TraceAdvice", "Recorder");
+        mTransform.transform(false);
+    }
+
+    @Test
+    public void changedClassIsRewovenAndUnchangedOutputsAreKept() throws IOException {
+        assertTrue(TestWeaver.getMethodCalls(readOutput(CALLER), "callMix").contains(TRACE + "#beforeMix"));
+        markStale(CALLER);
+        markStale(TARGET);
+
+        mTransform.putFixtureClasses("Caller");
+        mTransform.transform(true);
+        assertTrue(TestWeaver.getMethodCalls(readOutput(CALLER), "callMix").contains(TRACE + "#beforeMix"));
+        assertArrayEquals(STALE, readOutput(TARGET));
+    }
+
+    @Test
+    public void addedAndRemovedClassesUpdateOutputs() throws IOException {
+        mTransform.removeClass(CALLER);
+        mTransform.putFixtureClasses("SubTarget");
+        mTransform.transform(true);
+        assertFalse(mTransform.getOutputClass(CALLER).exists());
+        assertArrayEquals(TestWeaver.readClass("SubTarget"), readOutput(FIXTURE + "SubTarget"));
+    }
+
+    @Test
+    public void optionChangeFallsBackToFullTransform() throws IOException {
+        markStale(TARGET);
+        mTransform.getPluginExtension().setExcludes(new String[]{"*Caller"});
+        mTransform.transform(true);
+        assertArrayEquals(TestWeaver.readClass("Target"), readOutput(TARGET));
+        assertArrayEquals(TestWeaver.readClass("Caller"), readOutput(CALLER));
+    }
+
+    // Leaf 没有变化，但 jar 中的 Middle 不再继承 Target 后，Leaf 中对 Middle#name 的调用不再是织入点
+    @Test
+    public void unchangedClassIsRewovenWhenSuperClassChanges() throws IOException {
+        mTransform.putJarClass(MIDDLE, TestWeaver.generateClass(MIDDLE, TARGET, null));
+        mTransform.putClass(LEAF, TestWeaver.generateClass(LEAF, "java/lang/Object", MIDDLE));
+        mTransform.transform(true);
+        assertTrue(TestWeaver.getMethodCalls(readOutput(LEAF), "callName").contains(TRACE + "#beforeName"));
+        markStale(TARGET);
+
+        mTransform.putJarClass(MIDDLE, TestWeaver.generateClass(MIDDLE, "java/lang/Object", null));
+        mTransform.transform(true);
+        assertArrayEquals(TestWeaver.generateClass(LEAF, "java/lang/Object", MIDDLE), readOutput(LEAF));
+        assertArrayEquals(STALE, readOutput(TARGET));
+    }
+
+    private void markStale(String className) throws IOException {
+        Files.write(mTransform.getOutputClass(className).toPath(), STALE);
+    }
+
+    private byte[] readOutput(String className) throws IOException {
+        File output = mTransform.getOutputClass(className);
+        return Files.readAllBytes(output.toPath());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// 织入规则变化时只重新织入索引中记录了变化切点的输出，其余输出保持不变
+public class ReweaveTest {
+    private static final byte[] STALE = "stale".getBytes(StandardCharsets.UTF_8);
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String CALLER = FIXTURE + "Caller";
+    private static final String NAME_CALLER = FIXTURE + "NameCaller";
+    private static final String BEFORE_MIX = "call " + TARGET + "#mix(IJDLjava/lang/String;)J before " + TRACE
+            + "#beforeMix(L" + TARGET + ";IJDLjava/lang/String;)V 0";
+    private static final String BEFORE_MIX_ARGS = "call " + TARGET + "#mix(IJDLjava/lang/String;)J before " + TRACE
+            + "#beforeMixArgs(IJDLjava/lang/String;)V 0";
+    private static final String BEFORE_NAME = "call " + TARGET + "#name()Ljava/lang/String; before " + TRACE
+            + "#beforeName(L" + TARGET + ";)V 0";
+    private static final String BEFORE_NAME_FIRST = "call " + TARGET + "#name()Ljava/lang/String; before " + TRACE
+            + "#beforeName(L" + TARGET + ";)V 1";
+    private static final String BEFORE_SCALE = "call " + TARGET + "#scale(D)D before " + TRACE + "#beforeScale(D)V 0";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private TestTransform mTransform;
+
+    // Caller 中织入了两个切点，jar 中只织入了 Target#name，Target 没有织入任何切点
+    @Before
+    public void setUp() throws IOException {
+        mTransform = new TestTransform(mTemporaryFolder.getRoot());
+        mTransform.setAspectState(BEFORE_MIX, BEFORE_NAME);
+        mTransform.putFixtureClasses("Target", "Caller", "TraceAdvice", "Recorder");
+        mTransform.putJarClass(NAME_CALLER, TestWeaver.generateClass(NAME_CALLER, "java/lang/Object", TARGET));
+        mTransform.transform(false);
+        assertTrue(TestWeaver.getMethodCalls(mTransform.getOutputJarClass(NAME_CALLER), "callName").contains(TRACE + "#beforeName"));
+        markStale();
+    }
+
+    @Test
+    public void changedAdviceOnlyReweavesOutputsWithThatPointcut() throws IOException {
+        mTransform.setAspectState(BEFORE_MIX_ARGS, BEFORE_NAME);
+        mTransform.transform(true);
+        List<String> calls = TestWeaver.getMethodCalls(readOutput(CALLER), "callMix");
+        assertTrue(calls.contains(TRACE + "#beforeMixArgs"));
+        assertFalse(calls.contains(TRACE + "#beforeMix"));
+        assertArrayEquals(STALE, readOutput(TARGET));
+        assertArrayEquals(STALE, Files.readAllBytes(mTransform.getOutputJar().toPath()));
+    }
+
+    @Test
+    public void changedPrecedenceReweavesEveryOutputWithThatPointcut() throws IOException {
+        mTransform.setAspectState(BEFORE_MIX, BEFORE_NAME_FIRST);
+        mTransform.transform(true);
+        assertTrue(TestWeaver.getMethodCalls(readOutput(CALLER), "callName").contains(TRACE + "#beforeName"));
+        assertTrue(TestWeaver.getMethodCalls(mTransform.getOutputJarClass(NAME_CALLER), "callName").contains(TRACE + "#beforeName"));
+        assertArrayEquals(STALE, readOutput(TARGET));
+    }
+
+    @Test
+    public void removedPointcutIsUnwovenFromIndexedOutputs() throws IOException {
+        mTransform.setAspectState(BEFORE_NAME);
+        mTransform.transform(true);
+        assertFalse(TestWeaver.getMethodCalls(readOutput(CALLER), "callMix").contains(TRACE + "#beforeMix"));
+        assertArrayEquals(STALE, readOutput(TARGET));
+        assertArrayEquals(STALE, Files.readAllBytes(mTransform.getOutputJar().toPath()));
+    }
+
+    // aspect 索引模式下没有常量池摘要，新增切点无法找出可能匹配的输出
+    @Test
+    public void addedPointcutFallsBackToFullTransformWithAspectIndex() throws IOException {
+        mTransform.setAspectState(BEFORE_MIX, BEFORE_NAME, BEFORE_SCALE);
+        mTransform.transform(true);
+        assertTrue(TestWeaver.getMethodCalls(readOutput(CALLER), "callScale").contains(TRACE + "#beforeScale"));
+        assertArrayEquals(TestWeaver.readClass("Target"), readOutput(TARGET));
+        assertTrue(TestWeaver.getMethodCalls(mTransform.getOutputJarClass(NAME_CALLER), "callName").contains(TRACE + "#beforeName"));
+    }
+
+    private void markStale() throws IOException {
+        Files.write(mTransform.getOutputClass(CALLER).toPath(), STALE);
+        Files.write(mTransform.getOutputClass(TARGET).toPath(), STALE);
+        Files.write(mTransform.getOutputJar().toPath(), STALE);
+    }
+
+    private byte[] readOutput(String className) throws IOException {
+        return Files.readAllBytes(mTransform.getOutputClass(className).toPath());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import com.android.build.api.transform.DirectoryInput;
+import com.android.build.api.transform.Format;
+import com.android.build.api.transform.JarInput;
+import com.android.build.api.transform.Status;
+import com.android.build.api.transform.TransformInput;
+import com.android.build.api.transform.TransformInvocation;
+import com.android.build.api.transform.TransformOutputProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+
+// 在临时目录中用一个输入目录和一个输入 jar 运行 ButcherKnifeTransform，两次 transform 之间修改的输入按 AGP 的方式报告状态
+public final class TestTransform {
+    public static final String DIRECTORY_INPUT = "classes";
+    public static final String JAR_INPUT = "lib";
+    private static final String ASPECT_INDEX = "META-INF/butcherknife/aspects";
+
+    private final File mRootDir;
+    private final File mInputDir;
+    private final File mInputJar;
+    private final File mOutputDir;
+    private final PluginExtension mPluginExtension = new PluginExtension();
+    private final Map<String, byte[]> mJarClasses = new TreeMap<>();
+    private final Map<File, Status> mChangedFiles = new HashMap<>();
+    private Status mJarStatus;
+
+    // 织入规则从输入目录中的 aspect 索引读取，不需要带注解的 fixture
+    public TestTransform(File rootDir) {
+        mRootDir = rootDir;
+        mInputDir = new File(rootDir, "input/" + DIRECTORY_INPUT);
+        mInputJar = new File(rootDir, "input/" + JAR_INPUT + ".jar");
+        mOutputDir = new File(rootDir, "output");
+        mInputDir.mkdirs();
+        mPluginExtension.setLogEnabled(false);
+        mPluginExtension.setAspectIndexEnabled(true);
+        mPluginExtension.setCacheEnabled(false);
+    }
+
+    public PluginExtension getPluginExtension() {
+        return mPluginExtension;
+    }
+
+    // aspectState 的格式与 AnnotationScanner#getAspectState 一致
+    public void setAspectState(String... aspectState) throws IOException {
+        writeInput(ASPECT_INDEX, String.join("\n", aspectState).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void putClass(String className, byte[] classBytes) throws IOException {
+        writeInput(className + ".class", classBytes);
+    }
+
+    public void putFixtureClasses(String... simpleNames) throws IOException {
+        for (String simpleName : simpleNames) {
+            putClass(FIXTURE + simpleName, TestWeaver.readClass(simpleName));
+        }
+    }
+
+    public void removeClass(String className) throws IOException {
+        File file = new File(mInputDir, className + ".class");
+        Files.delete(file.toPath());
+        mChangedFiles.put(file, Status.REMOVED);
+    }
+
+    public void putJarClass(String className, byte[] classBytes) throws IOException {
+        mJarClasses.put(className + ".class", classBytes);
+        mJarStatus = mJarStatus == Status.ADDED || !mInputJar.exists() ? Status.ADDED : Status.CHANGED;
+        mInputJar.getParentFile().mkdirs();
+        try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(mInputJar))) {
+            for (Map.Entry<String, byte[]> entry : mJarClasses.entrySet()) {
+                outputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                outputStream.write(entry.getValue());
+                outputStream.closeEntry();
+            }
+        }
+    }
+
+    public void putFixtureJarClasses(String... simpleNames) throws IOException {
+        for (String simpleName : simpleNames) {
+            putJarClass(FIXTURE + simpleName, TestWeaver.readClass(simpleName));
+        }
+    }
+
+    // 非增量构建时所有输入都按新增处理，之后的构建只报告两次 transform 之间修改过的输入
+    public void transform(boolean isIncremental) throws IOException {
+        ButcherKnifeTransform transform = new ButcherKnifeTransform(mPluginExtension, new File(mRootDir, "gradle"), new File(mRootDir, "build"));
+        transform.setAndroidJars(Collections.emptyList());
+        transform.transform(createInvocation(isIncremental));
+        mChangedFiles.clear();
+        mJarStatus = mInputJar.exists() ? Status.NOTCHANGED : null;
+    }
+
+    public File getOutputClass(String className) {
+        return new File(mOutputDir, DIRECTORY_INPUT + "/" + className + ".class");
+    }
+
+    public File getOutputJar() {
+        return new File(mOutputDir, JAR_INPUT + ".jar");
+    }
+
+    // 输出 jar 中不存在该类时返回 null
+    public byte[] getOutputJarClass(String className) throws IOException {
+        try (ZipFile zipFile = new ZipFile(getOutputJar())) {
+            ZipEntry entry = zipFile.getEntry(className + ".class");
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                return IOUtils.toByteArray(inputStream);
+            }
+        }
+    }
+
+    private void writeInput(String relativePath, byte[] bytes) throws IOException {
+        File file = new File(mInputDir, relativePath);
+        if (mChangedFiles.get(file) != Status.ADDED) {
+            mChangedFiles.put(file, file.exists() ? Status.CHANGED : Status.ADDED);
+        }
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), bytes);
+    }
+
+    private TransformInvocation createInvocation(boolean isIncremental) {
+        Map<String, Object> directoryInput = new HashMap<>();
+        directoryInput.put("getName", DIRECTORY_INPUT);
+        directoryInput.put("getFile", mInputDir);
+        directoryInput.put("getChangedFiles", new HashMap<>(mChangedFiles));
+        Map<String, Object> input = new HashMap<>();
+        input.put("getDirectoryInputs", Collections.singletonList(createProxy(DirectoryInput.class, directoryInput)));
+        if (mJarStatus != null) {
+            Map<String, Object> jarInput = new HashMap<>();
+            jarInput.put("getName", JAR_INPUT);
+            jarInput.put("getFile", mInputJar);
+            jarInput.put("getStatus", isIncremental ? mJarStatus : Status.NOTCHANGED);
+            input.put("getJarInputs", Collections.singletonList(createProxy(JarInput.class, jarInput)));
+        }
+        Map<String, Object> context = new HashMap<>();
+        context.put("getTemporaryDir", new File(mRootDir, "tmp"));
+        context.put("getVariantName", "debug");
+        Map<String, Object> invocation = new HashMap<>();
+        invocation.put("getInputs", Collections.singletonList(createProxy(TransformInput.class, input)));
+        invocation.put("getContext", createProxy(com.android.build.api.transform.Context.class, context));
+        invocation.put("getOutputProvider", createOutputProvider());
+        invocation.put("isIncremental", isIncremental);
+        return createProxy(TransformInvocation.class, invocation);
+    }
+
+    private TransformOutputProvider createOutputProvider() {
+        return (TransformOutputProvider) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{TransformOutputProvider.class},
+                (proxy, method, args) -> {
+                    if ("deleteAll".equals(method.getName())) {
+                        FileUtils.deleteDirectory(mOutputDir);
+                        return null;
+                    }
+                    if ("getContentLocation".equals(method.getName())) {
+                        return args[3] == Format.JAR ? new File(mOutputDir, args[0] + ".jar") : new File(mOutputDir, (String) args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    // 只实现 transform 用到的方法，其余集合类型返回空集合
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(Class<T> type, Map<String, Object> values) {
+        return (T) Proxy.newProxyInstance(TestTransform.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (values.containsKey(method.getName())) {
+                return values.get(method.getName());
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + values;
+                default:
+                    break;
+            }
+            if (Set.class.equals(method.getReturnType())) {
+                return Collections.emptySet();
+            }
+            if (Collection.class.equals(method.getReturnType()) || List.class.equals(method.getReturnType())) {
+                return Collections.emptyList();
+            }
+            if (Map.class.equals(method.getReturnType())) {
+                return Collections.emptyMap();
+            }
+            throw new UnsupportedOperationException(type.getSimpleName() + "#" + method.getName());
+        });
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin;
+
+import com.android.annotations.Nullable;
+import com.littersun.butcherknife.plugin.annotation.AnnotationScanner;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+import com.littersun.butcherknife.plugin.inject.AdviceDispatcher;
+import com.littersun.butcherknife.plugin.inject.AdviceInliner;
+import com.littersun.butcherknife.plugin.inject.AdviceSampler;
+import com.littersun.butcherknife.plugin.inject.JoinPointSwitches;
+import com.littersun.butcherknife.plugin.inject.PointcutIndex;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 按给定的织入规则织入 fixture 包中的所有类，再用独立的 ClassLoader 加载，每次加载的静态状态互不影响
+public final class TestWeaver {
+    public static final String FIXTURE = "com/littersun/butcherknife/plugin/fixture/";
+
+    private final Log mLog = new ErrorLog();
+    private final AnnotationScanner mScanner;
+    private final File mClassesDir;
+    private final Map<String, byte[]> mWovenClasses = new HashMap<>();
+    private boolean mIsDispatcherEnabled;
+    private boolean mIsSwitchboardEnabled;
+    private int mInlineAdviceLimit;
+    private AdviceDispatcher mAdviceDispatcher;
+
+    // aspectState 的格式与 AnnotationScanner#getAspectState 一致
+    public TestWeaver(String... aspectState) {
+        mScanner = AnnotationScanner.fromAspectState(Arrays.asList(aspectState), mLog);
+        try {
+            mClassesDir = new File(TestWeaver.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setDispatcherEnabled(boolean dispatcherEnabled) {
+        mIsDispatcherEnabled = dispatcherEnabled;
+    }
+
+    public void setSwitchboardEnabled(boolean switchboardEnabled) {
+        mIsSwitchboardEnabled = switchboardEnabled;
+    }
+
+    public void setInlineAdviceLimit(int inlineAdviceLimit) {
+        mInlineAdviceLimit = inlineAdviceLimit;
+    }
+
+    public ClassLoader weave() throws IOException {
+        JoinPointSwitches joinPointSwitches = mIsSwitchboardEnabled
+                ? new JoinPointSwitches(mScanner.getCallPointcutClasses(), mScanner.getSuperExecutePointcutClasses()) : null;
+        AdviceSampler adviceSampler = new AdviceSampler(mScanner.getCallPointcutClasses(), mScanner.getSuperExecutePointcutClasses());
+        if (adviceSampler.isEmpty()) {
+            adviceSampler = null;
+        }
+        mAdviceDispatcher = mIsDispatcherEnabled ? new AdviceDispatcher(mScanner.getCallPointcutClasses(),
+                mScanner.getSuperExecutePointcutClasses(), joinPointSwitches, adviceSampler) : null;
+        AdviceInliner adviceInliner = mInlineAdviceLimit > 0 ? new AdviceInliner(mLog, Collections.singletonList(mClassesDir), mInlineAdviceLimit,
+                mScanner.getCallPointcutClasses().values(), mScanner.getSuperExecutePointcutClasses().values()) : null;
+        PointcutIndex callPointcutIndex = new PointcutIndex(mScanner.getCallPointcutClasses(), true);
+
+        Map<String, byte[]> classes = new HashMap<>();
+        File[] files = new File(mClassesDir, FIXTURE).listFiles();
+        try (ClassHierarchy classHierarchy = new ClassHierarchy(mLog, Collections.singletonList(mClassesDir))) {
+            for (File file : files == null ? new File[0] : files) {
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                ClassReader classReader = new ClassReader(bytes);
+                Context context = new Context(mLog, classHierarchy);
+                context.setAdviceDispatcher(mAdviceDispatcher);
+                context.setAdviceInliner(adviceInliner);
+                context.setJoinPointSwitches(joinPointSwitches);
+                context.setAdviceSampler(adviceSampler);
+                context.setClassName(classReader.getClassName());
+                byte[] modifiedClass = ButcherKnifeTransform.weaveClass(classReader, context, callPointcutIndex, mScanner.getSuperExecutePointcutClasses());
+                if (modifiedClass != null) {
+                    mWovenClasses.put(classReader.getClassName(), modifiedClass);
+                }
+                classes.put(classReader.getClassName(), modifiedClass != null ? modifiedClass : bytes);
+            }
+        }
+        if (joinPointSwitches != null) {
+            classes.put(JoinPointSwitches.CLASS_NAME, joinPointSwitches.generateClass());
+        }
+        if (adviceSampler != null) {
+            classes.put(AdviceSampler.CLASS_NAME, adviceSampler.generateClass());
+        }
+        if (mAdviceDispatcher != null && !mAdviceDispatcher.isEmpty()) {
+            classes.put(AdviceDispatcher.CLASS_NAME, mAdviceDispatcher.generateClass());
+        }
+        return new WovenClassLoader(classes);
+    }
+
+    public AdviceDispatcher getAdviceDispatcher() {
+        return mAdviceDispatcher;
+    }
+
+    // 织入后的字节码，没有修改时返回 null
+    public byte[] getWovenClass(String simpleName) {
+        return mWovenClasses.get(FIXTURE + simpleName);
+    }
+
+    // 方法中依次调用的方法，格式为 owner#name
+    public static List<String> getMethodCalls(byte[] classBytes, String methodName) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classBytes).accept(classNode, ClassReader.SKIP_FRAMES);
+        List<String> calls = new ArrayList<>();
+        for (MethodNode methodNode : classNode.methods) {
+            if (!methodNode.name.equals(methodName)) {
+                continue;
+            }
+            for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (insn instanceof MethodInsnNode) {
+                    calls.add(((MethodInsnNode) insn).owner + "#" + ((MethodInsnNode) insn).name);
+                }
+            }
+        }
+        return calls;
+    }
+
+    public static byte[] readClass(String simpleName) throws IOException {
+        try (InputStream inputStream = TestWeaver.class.getResourceAsStream("/" + FIXTURE + simpleName + ".class")) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    // 生成只有构造方法的类，nameOwner 不为 null 时再生成调用 nameOwner#name() 的 callName，用来构造继承关系会变化的输入
+    public static byte[] generateClass(String className, String superName, @Nullable String nameOwner) {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, superName, null);
+        MethodVisitor mv = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        if (nameOwner != null) {
+            mv = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "callName", "(L" + nameOwner + ";)Ljava/lang/String;", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, nameOwner, "name", "()Ljava/lang/String;", false);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<String> getEvents(ClassLoader classLoader) throws ReflectiveOperationException {
+        return (List<String>) classLoader.loadClass("com.littersun.butcherknife.plugin.fixture.Recorder").getField("EVENTS").get(null);
+    }
+
+    public static Object invoke(ClassLoader classLoader, String simpleName, String methodName, Object... args) throws ReflectiveOperationException {
+        Class<?> clazz = classLoader.loadClass(FIXTURE.replace('/', '.') + simpleName);
+        for (Method method : clazz.getMethods()) {
+            if (method.getName().equals(methodName) && method.getParameterTypes().length == args.length) {
+                return method.invoke(null, args);
+            }
+        }
+        throw new NoSuchMethodException(simpleName + "#" + methodName);
+    }
+
+    public static Object newInstance(ClassLoader classLoader, String simpleName) throws ReflectiveOperationException {
+        return classLoader.loadClass(FIXTURE.replace('/', '.') + simpleName).newInstance();
+    }
+
+    public static Object getStatic(ClassLoader classLoader, String className, String fieldName) throws ReflectiveOperationException {
+        return classLoader.loadClass(className.replace('/', '.')).getField(fieldName).get(null);
+    }
+
+    // fixture 中的类和生成的类优先从这里加载
+    private static final class WovenClassLoader extends ClassLoader {
+        private final Map<String, byte[]> mClasses;
+
+        WovenClassLoader(Map<String, byte[]> classes) {
+            super(TestWeaver.class.getClassLoader());
+            mClasses = classes;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            byte[] bytes = mClasses.get(name.replace('.', '/'));
+            if (bytes == null) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                bytes = computeFrames(bytes);
+                clazz = defineClass(name, bytes, 0, bytes.length);
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+
+        // 织入的方法没有 StackMapTable（dex 不需要），JVM 校验时需要，加载前重新计算
+        private static byte[] computeFrames(byte[] bytes) {
+            ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+            new ClassReader(bytes).accept(classWriter, ClassReader.SKIP_FRAMES);
+            return classWriter.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.cache;
+
+import com.littersun.butcherknife.plugin.ErrorLog;
+import com.littersun.butcherknife.plugin.Log;
+import com.littersun.butcherknife.plugin.TestWeaver;
+import com.littersun.butcherknife.plugin.hierarchy.ClassHierarchy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WeaveCacheTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String MIDDLE = FIXTURE + "Middle";
+    private static final Map<String, Boolean> QUERIES = Collections.singletonMap(MIDDLE + " " + TARGET, true);
+    private static final Map<String, Integer> POINTCUTS = Collections.singletonMap("call " + TARGET + "#name()Ljava/lang/String;", 2);
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final Log mLog = new ErrorLog();
+    private File mCacheDir;
+    private byte[] mClassBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDir = mTemporaryFolder.newFolder("cache");
+        mClassBytes = TestWeaver.readClass("Caller");
+    }
+
+    @Test
+    public void returnsCachedResultForSameClassAndModel() throws IOException {
+        byte[] modifiedClass = {1, 2, 3};
+        new WeaveCache(mCacheDir, "model", mLog).put(mClassBytes, QUERIES, POINTCUTS, modifiedClass);
+        try (ClassHierarchy classHierarchy = createHierarchy(TARGET)) {
+            // 另一个构建中的实例读取同一个缓存目录
+            WeaveCache.Entry entry = new WeaveCache(mCacheDir, "model", mLog).get(mClassBytes, classHierarchy);
+            assertNotNull(entry);
+            assertArrayEquals(modifiedClass, entry.getModifiedClass());
+            assertEquals(QUERIES, entry.getAssignableQueries());
+            assertEquals(POINTCUTS, entry.getWovenPointcuts());
+        }
+    }
+
+    @Test
+    public void cachesUnmodifiedClasses() throws IOException {
+        WeaveCache weaveCache = new WeaveCache(mCacheDir, "model", mLog);
+        weaveCache.put(mClassBytes, Collections.emptyMap(), Collections.emptyMap(), null);
+        try (ClassHierarchy classHierarchy = createHierarchy(TARGET)) {
+            WeaveCache.Entry entry = weaveCache.get(mClassBytes, classHierarchy);
+            assertNotNull(entry);
+            assertNull(entry.getModifiedClass());
+        }
+    }
+
+    @Test
+    public void missesWhenClassOrModelChanges() throws IOException {
+        new WeaveCache(mCacheDir, "model", mLog).put(mClassBytes, QUERIES, POINTCUTS, new byte[]{1});
+        try (ClassHierarchy classHierarchy = createHierarchy(TARGET)) {
+            assertNull(new WeaveCache(mCacheDir, "other model", mLog).get(mClassBytes, classHierarchy));
+            assertNull(new WeaveCache(mCacheDir, "model", mLog).get(TestWeaver.readClass("Target"), classHierarchy));
+        }
+    }
+
+    // 织入时 Middle 继承 Target，之后 Middle 改为继承 Object，缓存的织入结果不能再使用
+    @Test
+    public void missesWhenAssignableQueryChanges() throws IOException {
+        WeaveCache weaveCache = new WeaveCache(mCacheDir, "model", mLog);
+        weaveCache.put(mClassBytes, QUERIES, POINTCUTS, new byte[]{1});
+        try (ClassHierarchy classHierarchy = createHierarchy("java/lang/Object")) {
+            assertNull(weaveCache.get(mClassBytes, classHierarchy));
+        }
+        try (ClassHierarchy classHierarchy = createHierarchy(TARGET)) {
+            assertNotNull(weaveCache.get(mClassBytes, classHierarchy));
+        }
+    }
+
+    private ClassHierarchy createHierarchy(String middleSuperName) throws IOException {
+        File classesDir = mTemporaryFolder.newFolder();
+        File classFile = new File(classesDir, MIDDLE + ".class");
+        classFile.getParentFile().mkdirs();
+        Files.write(classFile.toPath(), TestWeaver.generateClass(MIDDLE, middleSuperName, null));
+        return new ClassHierarchy(mLog, Collections.singletonList(classesDir));
+    }
+}
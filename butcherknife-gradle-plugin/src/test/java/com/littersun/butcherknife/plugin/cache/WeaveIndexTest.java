@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.cache;
+
+import com.littersun.butcherknife.plugin.SystemLog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WeaveIndexTest {
+    private static final String MIX = "call a/Target#mix(I)J";
+    private static final String NAME = "call a/Target#name()Ljava/lang/String;";
+    private static final String EXECUTE = "execute a/Base#run()V";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void diffPointcutsReportsChangedAddedAndRemovedPointcuts() {
+        String mix = MIX + " before a/Advice#beforeMix(I)V 0";
+        String name = NAME + " before a/Advice#beforeName()V 0";
+        String execute = EXECUTE + " after a/Advice#afterRun()V 0";
+        assertEquals(new TreeSet<>(Arrays.asList(MIX, NAME, EXECUTE)),
+                WeaveIndex.diffPointcuts(Arrays.asList("aspect a/Advice", mix, name),
+                        Arrays.asList("aspect a/Other", mix + " 4", execute)));
+        assertEquals(Collections.emptySet(), WeaveIndex.diffPointcuts(Arrays.asList(name, mix), Arrays.asList(mix, name)));
+    }
+
+    @Test
+    public void getOutputsReturnsOutputsWovenWithAnyPointcut() {
+        File caller = new File("Caller.class");
+        File lib = new File("lib.jar");
+        WeaveIndex weaveIndex = new WeaveIndex();
+        weaveIndex.put(caller, Arrays.asList(MIX, NAME), Collections.emptyMap());
+        weaveIndex.put(lib, Collections.singletonList(NAME), Collections.emptyMap());
+        weaveIndex.put(new File("Target.class"), Collections.emptyList(), Collections.emptyMap());
+        assertEquals(Collections.singleton(caller.getAbsoluteFile()), weaveIndex.getOutputs(Collections.singleton(MIX)));
+        assertEquals(new HashSet<>(Arrays.asList(caller.getAbsoluteFile(), lib.getAbsoluteFile())),
+                weaveIndex.getOutputs(Collections.singleton(NAME)));
+        weaveIndex.remove(caller);
+        assertEquals(Collections.emptySet(), weaveIndex.getOutputs(Collections.singleton(MIX)));
+    }
+
+    @Test
+    public void writtenIndexIsReadBack() throws IOException {
+        File caller = new File("Caller.class");
+        File leaf = new File("Leaf.class");
+        Map<String, Boolean> queries = new TreeMap<>();
+        queries.put("a/Leaf a/Target", true);
+        queries.put("a/Other a/Target", false);
+        WeaveIndex weaveIndex = new WeaveIndex();
+        weaveIndex.put(caller, Arrays.asList(MIX, EXECUTE), Collections.emptyMap());
+        weaveIndex.put(leaf, Collections.emptyList(), queries);
+        File indexFile = new File(mTemporaryFolder.getRoot(), "index/weave-index");
+        weaveIndex.write(indexFile);
+
+        WeaveIndex readIndex = WeaveIndex.read(indexFile, new SystemLog());
+        assertEquals(Collections.singleton(caller.getAbsoluteFile()), readIndex.getOutputs(Collections.singleton(EXECUTE)));
+        assertEquals(Collections.emptySet(), readIndex.getOutputs(Collections.singleton(NAME)));
+        File rewrittenFile = new File(mTemporaryFolder.getRoot(), "rewritten");
+        readIndex.write(rewrittenFile);
+        assertEquals(Files.readAllLines(indexFile.toPath()), Files.readAllLines(rewrittenFile.toPath()));
+    }
+
+    // 旧格式或缺失的索引不能用于增量构建
+    @Test
+    public void unknownIndexIsNotRead() throws IOException {
+        File indexFile = new File(mTemporaryFolder.getRoot(), "weave-index");
+        assertNull(WeaveIndex.read(indexFile, new SystemLog()));
+        Files.write(indexFile.toPath(), Collections.singletonList("pointcuts\tCaller.class\t" + MIX), StandardCharsets.UTF_8);
+        assertNull(WeaveIndex.read(indexFile, new SystemLog()));
+    }
+}
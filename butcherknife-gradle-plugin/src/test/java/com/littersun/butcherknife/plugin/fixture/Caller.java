@@ -14,23 +14,27 @@
  * limitations under the License.
  */
 
-package com.littersun.butcherknife.plugin.inject.visitor;
+package com.littersun.butcherknife.plugin.fixture;
 
+// 织入点所在的类
+public class Caller {
+    public static long callMix(Target target) {
+        return target.mix(1, 2L, 3.0, "four");
+    }
 
-import com.littersun.butcherknife.plugin.Context;
-
-import org.objectweb.asm.ClassVisitor;
+    public static double callScale(Target target) {
+        return target.scale(1.5);
+    }
 
-public class ContextClassVisitor extends ClassVisitor {
-    private final Context mContext;
+    public static long callTwice() {
+        return Target.twice(21L);
+    }
 
-    public ContextClassVisitor(Context context) {
-        super(context.getASMVersion());
-        mContext = context;
+    public static String callName(Target target) {
+        return target.name();
     }
 
-    public void visit(int version, int access, String name, String sig, String superName, String[] interfaces) {
-        mContext.setClassName(name);
-        super.visit(version, access, name, sig, superName, interfaces);
+    public static void callLog(Target target) {
+        target.log("x");
     }
 }
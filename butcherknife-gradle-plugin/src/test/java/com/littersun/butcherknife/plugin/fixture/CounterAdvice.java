@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.fixture;
+
+// 可以被内联的织入方法，以及因为跳转不能内联的织入方法
+public class CounterAdvice {
+    public static int sCount;
+    public static long sLast;
+
+    public static void count(long v) {
+        sCount++;
+        sLast = v;
+    }
+
+    public static void countRun(Task task, String message) {
+        sCount++;
+    }
+
+    public static void branch(String message) {
+        if (message == null) {
+            sCount = -1;
+        }
+    }
+}
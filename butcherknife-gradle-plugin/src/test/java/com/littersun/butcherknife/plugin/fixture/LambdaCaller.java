@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.fixture;
+
+// 实现方法在本类中的 lambda 和引用其它类方法的 lambda
+public class LambdaCaller {
+    public static void runLambda(String message) {
+        Task task = m -> Recorder.record("lambda " + m);
+        task.run(message);
+    }
+
+    public static void runReference(String message) {
+        Task task = Recorder::record;
+        task.run(message);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.fixture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 每个 TestWeaver 加载的类中有独立的一份，测试通过 TestWeaver#getEvents 读取
+public class Recorder {
+    public static final List<String> EVENTS = new ArrayList<>();
+
+    public static void record(String event) {
+        EVENTS.add(event);
+    }
+}
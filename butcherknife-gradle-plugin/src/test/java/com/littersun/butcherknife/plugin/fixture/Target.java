@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.fixture;
+
+// 切点所在的类，覆盖 long/double 参数、实例/静态方法以及没有返回值的方法
+public class Target {
+    public long mix(int i, long j, double d, String s) {
+        return i + j + (long) d + s.length();
+    }
+
+    public double scale(double d) {
+        return d * 2;
+    }
+
+    public static long twice(long v) {
+        return v * 2;
+    }
+
+    public String name() {
+        return "target";
+    }
+
+    public void log(String message) {
+        Recorder.record("log " + message);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.fixture;
+
+// 记录收到的参数，用来检查织入点传给织入方法的值
+public class TraceAdvice {
+    public static void beforeMix(Target target, int i, long j, double d, String s) {
+        Recorder.record("beforeMix " + (target != null) + " " + i + " " + j + " " + d + " " + s);
+    }
+
+    public static void beforeMixArgs(int i, long j, double d, String s) {
+        Recorder.record("beforeMixArgs " + i + " " + j + " " + d + " " + s);
+    }
+
+    public static void afterMix(int i, long j, double d, String s) {
+        Recorder.record("afterMix " + i + " " + j + " " + d + " " + s);
+    }
+
+    public static void beforeScale(double d) {
+        Recorder.record("beforeScale " + d);
+    }
+
+    public static void afterScale(Target target, double d) {
+        Recorder.record("afterScale " + (target != null) + " " + d);
+    }
+
+    public static void beforeTwice(long v) {
+        Recorder.record("beforeTwice " + v);
+    }
+
+    public static void afterTwice(long v) {
+        Recorder.record("afterTwice " + v);
+    }
+
+    public static void beforeName(Target target) {
+        Recorder.record("beforeName " + (target != null));
+    }
+
+    public static void afterName() {
+        Recorder.record("afterName");
+    }
+
+    public static void beforeLog(String message) {
+        Recorder.record("beforeLog " + message);
+    }
+
+    public static void afterExecuteName(Target target) {
+        Recorder.record("afterExecuteName " + target.getClass().getSimpleName());
+    }
+
+    public static void beforeRun(Task task, String message) {
+        Recorder.record("beforeRun " + (task != null) + " " + message);
+    }
+
+    public static void beforeRunAgain(Task task, String message) {
+        Recorder.record("beforeRunAgain " + message);
+    }
+}
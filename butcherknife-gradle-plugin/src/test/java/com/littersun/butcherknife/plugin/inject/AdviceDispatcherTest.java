@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.TestWeaver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// 开启分发类后同一位置的多个织入方法合并为一次调用，执行顺序和收到的参数不变
+public class AdviceDispatcherTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TASK = FIXTURE + "Task";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String MIX = "call " + TARGET + "#mix(IJDLjava/lang/String;)J ";
+    private static final String RUN = "execute " + TASK + "#run(Ljava/lang/String;)V ";
+    private static final String BEFORE_MIX = MIX + "before " + TRACE + "#beforeMix(L" + TARGET + ";IJDLjava/lang/String;)V 0";
+    private static final String BEFORE_MIX_ARGS = MIX + "before " + TRACE + "#beforeMixArgs(IJDLjava/lang/String;)V 1";
+    private static final String BEFORE_RUN = RUN + "before " + TRACE + "#beforeRun(L" + TASK + ";Ljava/lang/String;)V 0";
+    private static final String BEFORE_RUN_AGAIN = RUN + "before " + TRACE + "#beforeRunAgain(L" + TASK + ";Ljava/lang/String;)V 1";
+
+    @Test
+    public void dispatcherMergesUnguardedAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver(BEFORE_MIX, BEFORE_MIX_ARGS);
+        weaver.setDispatcherEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        assertFalse(weaver.getAdviceDispatcher().isEmpty());
+        assertTrue(TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callMix").get(0).startsWith(AdviceDispatcher.CLASS_NAME + "#"));
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", TestWeaver.newInstance(classLoader, "Target")));
+        assertEquals(Arrays.asList("beforeMix true 1 2 3.0 four", "beforeMixArgs 1 2 3.0 four"), TestWeaver.getEvents(classLoader));
+    }
+
+    // 引用其它类方法的 lambda 经过生成的 lambda$butcherknife$N 调用分发方法，本类中的实现方法依次调用每个织入方法
+    @Test
+    public void dispatcherWeavesLambdaJoinPoints() throws Exception {
+        TestWeaver weaver = new TestWeaver(BEFORE_RUN, BEFORE_RUN_AGAIN);
+        weaver.setDispatcherEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        assertTrue(TestWeaver.getMethodCalls(weaver.getWovenClass("LambdaCaller"), "lambda$butcherknife$0")
+                .get(0).startsWith(AdviceDispatcher.CLASS_NAME + "#"));
+
+        TestWeaver.invoke(classLoader, "LambdaCaller", "runReference", "x");
+        TestWeaver.invoke(classLoader, "LambdaCaller", "runLambda", "y");
+        assertEquals(Arrays.asList("beforeRun false x", "beforeRunAgain x", "x", "beforeRun false y", "beforeRunAgain y", "lambda y"),
+                TestWeaver.getEvents(classLoader));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.TestWeaver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdviceInlinerTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String COUNTER = FIXTURE + "CounterAdvice";
+    private static final String STATIC_INIT = FIXTURE + "StaticInitAdvice";
+    private static final String TWICE = "call " + TARGET + "#twice(J)J ";
+    private static final String LOG = "call " + TARGET + "#log(Ljava/lang/String;)V ";
+    private static final String RUN = "execute " + FIXTURE + "Task#run(Ljava/lang/String;)V ";
+
+    @Test
+    public void inlinesSimpleAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver(TWICE + "before " + COUNTER + "#count(J)V 0");
+        weaver.setInlineAdviceLimit(20);
+        ClassLoader classLoader = weaver.weave();
+        assertEquals(42L, TestWeaver.invoke(classLoader, "Caller", "callTwice"));
+        assertEquals(1, TestWeaver.getStatic(classLoader, COUNTER, "sCount"));
+        assertEquals(21L, TestWeaver.getStatic(classLoader, COUNTER, "sLast"));
+        assertEquals(Arrays.asList(TARGET + "#twice"), TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callTwice"));
+    }
+
+    @Test
+    public void inlinesAdviceIntoLambdas() throws Exception {
+        TestWeaver weaver = new TestWeaver(RUN + "before " + COUNTER + "#countRun(L" + FIXTURE + "Task;Ljava/lang/String;)V 0");
+        weaver.setInlineAdviceLimit(20);
+        ClassLoader classLoader = weaver.weave();
+        TestWeaver.invoke(classLoader, "LambdaCaller", "runReference", "x");
+        TestWeaver.invoke(classLoader, "LambdaCaller", "runLambda", "y");
+        assertEquals(2, TestWeaver.getStatic(classLoader, COUNTER, "sCount"));
+        assertEquals(Arrays.asList("x", "lambda y"), TestWeaver.getEvents(classLoader));
+        byte[] lambdaCaller = weaver.getWovenClass("LambdaCaller");
+        assertFalse(TestWeaver.getMethodCalls(lambdaCaller, "lambda$butcherknife$0").contains(COUNTER + "#countRun"));
+        assertFalse(TestWeaver.getMethodCalls(lambdaCaller, "lambda$runLambda$0").contains(COUNTER + "#countRun"));
+    }
+
+    @Test
+    public void keepsCallWhenAdviceIsOverLimit() throws Exception {
+        TestWeaver weaver = new TestWeaver(TWICE + "before " + COUNTER + "#count(J)V 0");
+        weaver.setInlineAdviceLimit(2);
+        ClassLoader classLoader = weaver.weave();
+        assertEquals(42L, TestWeaver.invoke(classLoader, "Caller", "callTwice"));
+        assertEquals(1, TestWeaver.getStatic(classLoader, COUNTER, "sCount"));
+        assertTrue(TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callTwice").contains(COUNTER + "#count"));
+    }
+
+    @Test
+    public void keepsCallWhenAdviceHasJumps() throws Exception {
+        TestWeaver weaver = new TestWeaver(LOG + "before " + COUNTER + "#branch(Ljava/lang/String;)V 0");
+        weaver.setInlineAdviceLimit(20);
+        ClassLoader classLoader = weaver.weave();
+        TestWeaver.invoke(classLoader, "Caller", "callLog", TestWeaver.newInstance(classLoader, "Target"));
+        assertTrue(TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callLog").contains(COUNTER + "#branch"));
+    }
+
+    @Test
+    public void keepsCallWhenAdviceClassHasStaticInitializer() throws Exception {
+        TestWeaver weaver = new TestWeaver(TWICE + "before " + STATIC_INIT + "#count(J)V 0");
+        weaver.setInlineAdviceLimit(20);
+        ClassLoader classLoader = weaver.weave();
+        assertEquals(42L, TestWeaver.invoke(classLoader, "Caller", "callTwice"));
+        // 调用织入方法时先执行 <clinit>
+        assertEquals(101, TestWeaver.getStatic(classLoader, STATIC_INIT, "sCount"));
+        List<String> calls = TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callTwice");
+        assertTrue(calls.contains(STATIC_INIT + "#count"));
+        assertFalse(calls.contains(COUNTER + "#count"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.TestWeaver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// 采样计数器织入后多次执行，检查织入方法只在每 sampleRate 次调用中执行一次
+public class AdviceSamplerTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String COUNTER = FIXTURE + "CounterAdvice";
+    private static final String MIX = "call " + TARGET + "#mix(IJDLjava/lang/String;)J ";
+    private static final String TWICE = "call " + TARGET + "#twice(J)J ";
+
+    @Test
+    public void sampleRateRunsEveryNthCall() throws Exception {
+        ClassLoader classLoader = new TestWeaver(TWICE + "before " + COUNTER + "#count(J)V 0 3").weave();
+        for (int i = 0; i < 7; i++) {
+            assertEquals(42L, TestWeaver.invoke(classLoader, "Caller", "callTwice"));
+        }
+        assertEquals(2, TestWeaver.getStatic(classLoader, COUNTER, "sCount"));
+    }
+
+    @Test
+    public void sampleRateGuardsInlinedAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver(TWICE + "before " + COUNTER + "#count(J)V 0 2");
+        weaver.setInlineAdviceLimit(20);
+        ClassLoader classLoader = weaver.weave();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(42L, TestWeaver.invoke(classLoader, "Caller", "callTwice"));
+        }
+        assertEquals(2, TestWeaver.getStatic(classLoader, COUNTER, "sCount"));
+        assertFalse(TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callTwice").contains(COUNTER + "#count"));
+    }
+
+    // 计数器在织入点加载参数之前检查，采样的织入方法不能合并到分发方法中
+    @Test
+    public void dispatcherSkipsSampledAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver(MIX + "before " + TRACE + "#beforeMix(L" + TARGET + ";IJDLjava/lang/String;)V 0 2",
+                MIX + "before " + TRACE + "#beforeMixArgs(IJDLjava/lang/String;)V 1");
+        weaver.setDispatcherEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        assertTrue(weaver.getAdviceDispatcher().isEmpty());
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        for (int i = 0; i < 2; i++) {
+            assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        }
+        assertEquals(Arrays.asList("beforeMixArgs 1 2 3.0 four", "beforeMix true 1 2 3.0 four", "beforeMixArgs 1 2 3.0 four"),
+                TestWeaver.getEvents(classLoader));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.ErrorLog;
+import com.littersun.butcherknife.plugin.TestWeaver;
+import com.littersun.butcherknife.plugin.annotation.AnnotationScanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// 手工构造包含所有常量类型的常量池，切点名称放在最后，只有每种常量的长度都解析正确时才能找到
+public class ConstantPoolFilterTest {
+    private static final String POINTCUT = "call com/foo/Target#pointcutMethod(J)V before com/foo/Advice#advice(J)V 0";
+
+    @Test
+    public void skipsEveryConstantTag() throws IOException {
+        ConstantPoolFilter filter = createFilter(POINTCUT);
+        byte[] classBytes = createClass(true, false, 0);
+        assertTrue(filter.mayMatch(classBytes));
+        assertTrue(filter.mayMatchSummary(ConstantPoolFilter.summarize(classBytes)));
+    }
+
+    @Test
+    public void rejectsClassWithoutPointcutName() throws IOException {
+        ConstantPoolFilter filter = createFilter(POINTCUT);
+        byte[] classBytes = createClass(false, false, 0);
+        assertFalse(filter.mayMatch(classBytes));
+        assertFalse(filter.mayMatchSummary(ConstantPoolFilter.summarize(classBytes)));
+    }
+
+    @Test
+    public void acceptsUnknownConstantTag() throws IOException {
+        ConstantPoolFilter filter = createFilter(POINTCUT);
+        byte[] classBytes = createClass(false, true, 0);
+        assertTrue(filter.mayMatch(classBytes));
+        assertTrue(filter.mayMatchSummary(ConstantPoolFilter.summarize(classBytes)));
+    }
+
+    // 摘要按常量的数量分配位数，常量很多的类也只有少量不存在的名称被误判为可能匹配
+    @Test
+    public void summaryGrowsWithConstantCount() throws IOException {
+        long[] smallSummary = ConstantPoolFilter.summarize(createClass(false, false, 0));
+        long[] largeSummary = ConstantPoolFilter.summarize(createClass(false, false, 2000));
+        assertTrue(largeSummary.length > smallSummary.length * 100);
+        int falsePositives = 0;
+        for (int i = 0; i < 200; i++) {
+            if (createFilter("call com/foo/Target#absent" + i + "(J)V before com/foo/Advice#advice(J)V 0").mayMatchSummary(largeSummary)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 20);
+        assertTrue(createFilter(POINTCUT).mayMatchSummary(ConstantPoolFilter.summarize(createClass(true, false, 2000))));
+    }
+
+    @Test
+    public void acceptsTruncatedClass() throws IOException {
+        byte[] classBytes = createClass(false, false, 0);
+        assertTrue(createFilter(POINTCUT).mayMatch(Arrays.copyOf(classBytes, classBytes.length / 2)));
+    }
+
+    @Test
+    public void matchesExecutePointcutClassName() throws IOException {
+        ConstantPoolFilter filter = createFilter("execute " + FIXTURE + "Target#name()Ljava/lang/String; after "
+                + FIXTURE + "TraceAdvice#afterExecuteName(L" + FIXTURE + "Target;)V 0");
+        assertTrue(filter.mayMatch(TestWeaver.readClass("SubTarget")));
+        assertFalse(filter.mayMatch(TestWeaver.readClass("Recorder")));
+    }
+
+    @Test
+    public void rejectsEverythingWithoutPointcuts() throws IOException {
+        ConstantPoolFilter filter = new ConstantPoolFilter(Collections.emptyMap(), Collections.emptyMap());
+        assertFalse(filter.mayMatch(createClass(true, false, 0)));
+    }
+
+    private static ConstantPoolFilter createFilter(String aspectState) {
+        AnnotationScanner scanner = AnnotationScanner.fromAspectState(Collections.singletonList(aspectState), new ErrorLog());
+        return new ConstantPoolFilter(scanner.getCallPointcutClasses(), scanner.getSuperExecutePointcutClasses());
+    }
+
+    // 只有常量池之前的部分是合法的 class 文件，ConstantPoolFilter 不读取之后的内容
+    private static byte[] createClass(boolean withPointcutName, boolean withUnknownTag, int extraStrings) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+        ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        DataOutputStream pool = new DataOutputStream(poolBytes);
+        int count = 1;
+        pool.writeByte(1);
+        pool.writeUTF("com/foo/Caller");
+        count++;
+        pool.writeByte(3);
+        pool.writeInt(42);
+        count++;
+        pool.writeByte(4);
+        pool.writeFloat(1.5f);
+        count++;
+        // long 和 double 占两个位置
+        pool.writeByte(5);
+        pool.writeLong(Long.MAX_VALUE);
+        count += 2;
+        pool.writeByte(6);
+        pool.writeDouble(2.5);
+        count += 2;
+        for (int tag : new int[]{7, 8, 16, 19, 20}) {
+            pool.writeByte(tag);
+            pool.writeShort(1);
+            count++;
+        }
+        for (int tag : new int[]{9, 10, 11, 12, 17, 18}) {
+            pool.writeByte(tag);
+            pool.writeShort(1);
+            pool.writeShort(1);
+            count++;
+        }
+        pool.writeByte(15);
+        pool.writeByte(6);
+        pool.writeShort(1);
+        count++;
+        if (withUnknownTag) {
+            pool.writeByte(2);
+            count++;
+        }
+        for (int i = 0; i < extraStrings; i++) {
+            pool.writeByte(1);
+            pool.writeUTF("com/foo/Generated" + i);
+            count++;
+        }
+        // 与切点名称长度相同但内容不同
+        pool.writeByte(1);
+        pool.writeUTF("pointcutMethoD");
+        count++;
+        if (withPointcutName) {
+            pool.writeByte(1);
+            pool.writeUTF("pointcutMethod");
+            count++;
+        }
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(55);
+        out.writeShort(count);
+        out.write(poolBytes.toByteArray());
+        out.flush();
+        return byteArrayOutputStream.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject;
+
+import com.littersun.butcherknife.plugin.TestWeaver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// 运行时开关织入后执行，检查关闭开关时跳过织入方法，原调用的参数和返回值不受影响
+public class JoinPointSwitchesTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String MIX = "call " + TARGET + "#mix(IJDLjava/lang/String;)J ";
+    private static final String BEFORE_MIX = MIX + "before " + TRACE + "#beforeMix(L" + TARGET + ";IJDLjava/lang/String;)V 0";
+    private static final String BEFORE_MIX_ARGS = MIX + "before " + TRACE + "#beforeMixArgs(IJDLjava/lang/String;)V 1";
+    private static final String AFTER_MIX = MIX + "after " + TRACE + "#afterMix(IJDLjava/lang/String;)V 0";
+
+    @Test
+    public void switchSkipsAdviceButKeepsCall() throws Exception {
+        TestWeaver weaver = new TestWeaver(BEFORE_MIX, AFTER_MIX);
+        weaver.setSwitchboardEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        boolean[] flags = (boolean[]) TestWeaver.getStatic(classLoader, JoinPointSwitches.CLASS_NAME, "FLAGS");
+        assertEquals(2, flags.length);
+
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        assertEquals(Arrays.asList("beforeMix true 1 2 3.0 four", "afterMix 1 2 3.0 four"), TestWeaver.getEvents(classLoader));
+
+        TestWeaver.getEvents(classLoader).clear();
+        Arrays.fill(flags, false);
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        assertEquals(Collections.emptyList(), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void switchGuardsSuperExecuteAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver("execute " + TARGET + "#name()Ljava/lang/String; after " + TRACE + "#afterExecuteName(L" + TARGET + ";)V 0");
+        weaver.setSwitchboardEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        Object subTarget = TestWeaver.newInstance(classLoader, "SubTarget");
+        assertEquals("sub", TestWeaver.invoke(classLoader, "Caller", "callName", subTarget));
+        assertEquals(Collections.singletonList("afterExecuteName SubTarget"), TestWeaver.getEvents(classLoader));
+
+        TestWeaver.getEvents(classLoader).clear();
+        ((boolean[]) TestWeaver.getStatic(classLoader, JoinPointSwitches.CLASS_NAME, "FLAGS"))[0] = false;
+        assertEquals("sub", TestWeaver.invoke(classLoader, "Caller", "callName", subTarget));
+        assertEquals(Collections.emptyList(), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void dispatcherSkipsGuardedAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver(BEFORE_MIX, BEFORE_MIX_ARGS);
+        weaver.setDispatcherEnabled(true);
+        weaver.setSwitchboardEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        // 开关在织入点加载参数之前检查，不能合并到分发方法中
+        assertTrue(weaver.getAdviceDispatcher().isEmpty());
+        assertEquals(Arrays.asList(TRACE + "#beforeMix", TRACE + "#beforeMixArgs", TARGET + "#mix"),
+                TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callMix"));
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        ((boolean[]) TestWeaver.getStatic(classLoader, JoinPointSwitches.CLASS_NAME, "FLAGS"))[0] = false;
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        assertEquals(1, TestWeaver.getEvents(classLoader).size());
+    }
+
+    @Test
+    public void switchGuardsLambdaAdvice() throws Exception {
+        TestWeaver weaver = new TestWeaver("execute " + FIXTURE + "Task#run(Ljava/lang/String;)V before " + TRACE
+                + "#beforeRun(L" + FIXTURE + "Task;Ljava/lang/String;)V 0");
+        weaver.setSwitchboardEnabled(true);
+        ClassLoader classLoader = weaver.weave();
+        ((boolean[]) TestWeaver.getStatic(classLoader, JoinPointSwitches.CLASS_NAME, "FLAGS"))[0] = false;
+        TestWeaver.invoke(classLoader, "LambdaCaller", "runReference", "x");
+        TestWeaver.invoke(classLoader, "LambdaCaller", "runLambda", "y");
+        assertEquals(Arrays.asList("x", "lambda y"), TestWeaver.getEvents(classLoader));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.inject.visitor;
+
+import com.littersun.butcherknife.plugin.TestWeaver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.littersun.butcherknife.plugin.TestWeaver.FIXTURE;
+import static org.junit.Assert.assertEquals;
+
+// 调用切点织入后执行，检查 long/double 参数、是否接收调用对象的各种组合下织入方法和原调用收到的值
+public class InjectCallClassVisitorTest {
+    private static final String TARGET = FIXTURE + "Target";
+    private static final String TRACE = FIXTURE + "TraceAdvice";
+    private static final String MIX = "call " + TARGET + "#mix(IJDLjava/lang/String;)J ";
+    private static final String SCALE = "call " + TARGET + "#scale(D)D ";
+    private static final String TWICE = "call " + TARGET + "#twice(J)J ";
+    private static final String NAME = "call " + TARGET + "#name()Ljava/lang/String; ";
+    private static final String LOG = "call " + TARGET + "#log(Ljava/lang/String;)V ";
+
+    @Test
+    public void spillsArgumentsWhenOnlySomeAdviceTakesReceiver() throws Exception {
+        ClassLoader classLoader = new TestWeaver(
+                MIX + "before " + TRACE + "#beforeMix(L" + TARGET + ";IJDLjava/lang/String;)V 0",
+                MIX + "after " + TRACE + "#afterMix(IJDLjava/lang/String;)V 0").weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        assertEquals(Arrays.asList("beforeMix true 1 2 3.0 four", "afterMix 1 2 3.0 four"), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void spillsArgumentsWhenNoAdviceTakesReceiver() throws Exception {
+        ClassLoader classLoader = new TestWeaver(
+                MIX + "before " + TRACE + "#beforeMixArgs(IJDLjava/lang/String;)V 0",
+                MIX + "after " + TRACE + "#afterMix(IJDLjava/lang/String;)V 0").weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        assertEquals(Arrays.asList("beforeMixArgs 1 2 3.0 four", "afterMix 1 2 3.0 four"), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void keepsReceiverOnStackForDoubleArgument() throws Exception {
+        ClassLoader classLoader = new TestWeaver(
+                SCALE + "before " + TRACE + "#beforeScale(D)V 0",
+                SCALE + "after " + TRACE + "#afterScale(L" + TARGET + ";D)V 0").weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        assertEquals(3.0, TestWeaver.invoke(classLoader, "Caller", "callScale", target));
+        assertEquals(Arrays.asList("beforeScale 1.5", "afterScale true 1.5"), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void duplicatesLongArgumentOfStaticCall() throws Exception {
+        TestWeaver weaver = new TestWeaver(
+                TWICE + "before " + TRACE + "#beforeTwice(J)V 0",
+                TWICE + "after " + TRACE + "#afterTwice(J)V 0");
+        ClassLoader classLoader = weaver.weave();
+        assertEquals(42L, TestWeaver.invoke(classLoader, "Caller", "callTwice"));
+        assertEquals(Arrays.asList("beforeTwice 21", "afterTwice 21"), TestWeaver.getEvents(classLoader));
+        assertEquals(Arrays.asList(TRACE + "#beforeTwice", TARGET + "#twice", TRACE + "#afterTwice"),
+                TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callTwice"));
+    }
+
+    @Test
+    public void passesReceiverOnlyToAdviceThatTakesIt() throws Exception {
+        ClassLoader classLoader = new TestWeaver(
+                NAME + "before " + TRACE + "#beforeName(L" + TARGET + ";)V 0",
+                NAME + "after " + TRACE + "#afterName()V 0").weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        assertEquals("target", TestWeaver.invoke(classLoader, "Caller", "callName", target));
+        assertEquals(Arrays.asList("beforeName true", "afterName"), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void weavesVoidCall() throws Exception {
+        ClassLoader classLoader = new TestWeaver(LOG + "before " + TRACE + "#beforeLog(Ljava/lang/String;)V 0").weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        TestWeaver.invoke(classLoader, "Caller", "callLog", target);
+        assertEquals(Arrays.asList("beforeLog x", "log x"), TestWeaver.getEvents(classLoader));
+    }
+
+    @Test
+    public void leavesOtherCallsUnchanged() throws Exception {
+        TestWeaver weaver = new TestWeaver(LOG + "before " + TRACE + "#beforeLog(Ljava/lang/String;)V 0");
+        ClassLoader classLoader = weaver.weave();
+        Object target = TestWeaver.newInstance(classLoader, "Target");
+        assertEquals(10L, TestWeaver.invoke(classLoader, "Caller", "callMix", target));
+        assertEquals(Collections.emptyList(), TestWeaver.getEvents(classLoader));
+        assertEquals(Collections.singletonList(TARGET + "#mix"), TestWeaver.getMethodCalls(weaver.getWovenClass("Caller"), "callMix"));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.plugin.scope;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlobTrieTest {
+    @Test
+    public void doubleStarMatchesAnyNumberOfPackages() {
+        GlobTrie trie = createTrie("com.foo.**");
+        assertTrue(trie.matches("com/foo/Bar"));
+        assertTrue(trie.matches("com/foo/bar/baz/Qux"));
+        assertFalse(trie.matches("com/foobar/Bar"));
+        assertFalse(trie.matches("org/foo/Bar"));
+
+        assertTrue(createTrie("**").matches("Bar"));
+        assertTrue(createTrie("**").matches("com/foo/Bar"));
+    }
+
+    @Test
+    public void doubleStarInTheMiddle() {
+        GlobTrie trie = createTrie("com.**.ui.*Activity");
+        assertTrue(trie.matches("com/ui/MainActivity"));
+        assertTrue(trie.matches("com/foo/bar/ui/MainActivity"));
+        assertFalse(trie.matches("com/foo/ui/detail/MainActivity"));
+        assertFalse(trie.matches("com/foo/ui/MainFragment"));
+    }
+
+    @Test
+    public void patternWithoutPackageMatchesAnyPackage() {
+        GlobTrie trie = createTrie("*$$ViewBinder");
+        assertTrue(trie.matches("MainActivity$$ViewBinder"));
+        assertTrue(trie.matches("com/foo/MainActivity$$ViewBinder"));
+        assertFalse(trie.matches("com/foo/MainActivity"));
+        assertFalse(trie.matches("com/foo/ViewBinderFactory"));
+    }
+
+    @Test
+    public void outerClassPatternMatchesInnerClasses() {
+        GlobTrie trie = createTrie("**.R");
+        assertTrue(trie.matches("com/foo/R"));
+        assertTrue(trie.matches("com/foo/R$id"));
+        assertTrue(trie.matches("com/foo/R$styleable$1"));
+        assertFalse(trie.matches("com/foo/Rx"));
+        assertFalse(trie.matches("com/foo/Rx$id"));
+
+        GlobTrie wildcard = createTrie("com.foo.*Adapter");
+        assertTrue(wildcard.matches("com/foo/ListAdapter$ViewHolder"));
+        assertFalse(wildcard.matches("com/foo/bar/ListAdapter$ViewHolder"));
+    }
+
+    @Test
+    public void sharedPrefixesDoNotInterfere() {
+        GlobTrie trie = createTrie("com.foo.Bar", "com.foo.*Test", "com.foo.bar.**");
+        assertTrue(trie.matches("com/foo/Bar"));
+        assertTrue(trie.matches("com/foo/BarTest"));
+        assertTrue(trie.matches("com/foo/bar/Baz"));
+        assertFalse(trie.matches("com/foo/Baz"));
+        assertFalse(createTrie().matches("com/foo/Bar"));
+        assertTrue(createTrie().isEmpty());
+    }
+
+    @Test
+    public void wildcardBacktracks() {
+        assertTrue(GlobTrie.matchesWildcard("*a*b", "xaxab", 0, 5));
+        assertTrue(GlobTrie.matchesWildcard("a**", "a", 0, 1));
+        assertFalse(GlobTrie.matchesWildcard("*a*b", "xaxa", 0, 4));
+    }
+
+    @Test
+    public void weaveScopeAppliesExcludesAfterIncludes() {
+        WeaveScope weaveScope = new WeaveScope(new String[]{"com.foo.**"}, new String[]{"*$$ViewBinder"}, new String[]{"com.foo.internal"}, null, null);
+        assertTrue(weaveScope.isClassIncluded("com/foo/MainActivity"));
+        assertFalse(weaveScope.isClassIncluded("com/foo/MainActivity$$ViewBinder"));
+        assertFalse(weaveScope.isClassIncluded("com/foo/internal/Util$1"));
+        assertFalse(weaveScope.isClassIncluded("org/foo/MainActivity"));
+        assertTrue(weaveScope.isClassFileIncluded("com/foo/MainActivity$1.class"));
+    }
+
+    private static GlobTrie createTrie(String... patterns) {
+        GlobTrie trie = new GlobTrie();
+        for (String pattern : patterns) {
+            trie.add(pattern);
+        }
+        return trie;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 LitterSun.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.littersun.butcherknife.runtime;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 织入点的运行时开关，构建时开启 switchboardEnabled 后，织入的代码在调用织入方法前检查 ButcherKnife$$Switches.FLAGS，
+// 应该在织入的代码执行之前（例如 Application#attachBaseContext 中）调用 load，织入点编号见构建输出的 butcherknife-switchboard.txt
+public final class Switchboard {
+    private static final String SWITCHES_CLASS_NAME = "com.littersun.butcherknife.ButcherKnife$$Switches";
+    private static final String ASPECT_PREFIX = "aspect.";
+    private static final String JOIN_POINT_PREFIX = "joinpoint.";
+
+    private static boolean sInitialized;
+    private static boolean[] sFlags;
+    private static String[] sAspects;
+    private static int[] sAspectStarts;
+
+    private Switchboard() {
+    }
+
+    // 配置文件为 properties 格式，例如 aspect.com.foo.TraceAspect=false、joinpoint.12=false，
+    // 单个织入点的配置优先于所在的 Aspect，文件不存在或者构建时没有开启开关时返回 false
+    public static boolean load(File configFile) {
+        if (!configFile.isFile()) {
+            return false;
+        }
+        try (InputStream inputStream = new FileInputStream(configFile)) {
+            return load(inputStream);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static synchronized boolean load(InputStream inputStream) throws IOException {
+        Properties properties = new Properties();
+        properties.load(inputStream);
+        if (!init()) {
+            return false;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(ASPECT_PREFIX)) {
+                setAspectEnabled(key.substring(ASPECT_PREFIX.length()), isTrue(properties.getProperty(key)));
+            }
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(JOIN_POINT_PREFIX)) {
+                try {
+                    setJoinPointEnabled(Integer.parseInt(key.substring(JOIN_POINT_PREFIX.length()).trim()), isTrue(properties.getProperty(key)));
+                } catch (NumberFormatException ignored) {
+                    // 忽略无法识别的编号
+                }
+            }
+        }
+        return true;
+    }
+
+    // aspectClassName 为 Aspect 的完整类名，找不到时返回 false
+    public static synchronized boolean setAspectEnabled(String aspectClassName, boolean enabled) {
+        if (!init()) {
+            return false;
+        }
+        for (int i = 0; i < sAspects.length; i++) {
+            if (sAspects[i].equals(aspectClassName)) {
+                for (int id = sAspectStarts[i]; id < sAspectStarts[i + 1]; id++) {
+                    sFlags[id] = enabled;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static synchronized boolean setJoinPointEnabled(int id, boolean enabled) {
+        if (!init() || id < 0 || id >= sFlags.length) {
+            return false;
+        }
+        sFlags[id] = enabled;
+        return true;
+    }
+
+    public static synchronized boolean isJoinPointEnabled(int id) {
+        return !init() || id < 0 || id >= sFlags.length || sFlags[id];
+    }
+
+    public static synchronized int getJoinPointCount() {
+        return init() ? sFlags.length : 0;
+    }
+
+    private static boolean isTrue(String value) {
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    // ButcherKnife$$Switches 由插件在构建时生成，运行时模块不直接依赖
+    private static boolean init() {
+        if (sInitialized) {
+            return sFlags != null;
+        }
+        sInitialized = true;
+        try {
+            Class<?> switchesClass = Class.forName(SWITCHES_CLASS_NAME);
+            boolean[] flags = (boolean[]) getStaticField(switchesClass, "FLAGS");
+            sAspects = (String[]) getStaticField(switchesClass, "ASPECTS");
+            sAspectStarts = (int[]) getStaticField(switchesClass, "ASPECT_STARTS");
+            sFlags = flags;
+        } catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+            // 构建时没有开启 switchboardEnabled，或者开关类被混淆
+            Logger.getLogger(Switchboard.class.getName()).log(Level.WARNING, "load " + SWITCHES_CLASS_NAME + " failed, all join points stay enabled", e);
+            sFlags = null;
+        }
+        return sFlags != null;
+    }
+
+    private static Object getStaticField(Class<?> clazz, String name) throws NoSuchFieldException, IllegalAccessException {
+        Field field = clazz.getField(name);
+        return field.get(null);
+    }
+}
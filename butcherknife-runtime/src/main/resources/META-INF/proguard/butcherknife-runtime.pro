@@ -0,0 +1,2 @@
+# Switchboard 通过反射读取插件生成的开关类
+-keep class com.littersun.butcherknife.ButcherKnife$$Switches { public static *; }
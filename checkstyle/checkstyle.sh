@@ -1,3 +1,4 @@
 ./gradlew :butcherknife-gradle-plugin:checkstyle \
 && ./gradlew :butcherknife-annotations:checkstyle \
+&& ./gradlew :butcherknife-runtime:checkstyle \
 && ./gradlew :example:checkstyle
\ No newline at end of file
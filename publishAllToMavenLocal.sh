@@ -3,6 +3,8 @@
 export IS_EXCLUDE_EXAMPLE=true
 ./gradlew clean \
 && ./gradlew :butcherknife-annotations:publishOfficialPublicationToMavenLocal \
+&& ./gradlew :butcherknife-runtime:publishOfficialPublicationToMavenLocal \
+&& ./gradlew :butcherknife-compiler:publishOfficialPublicationToMavenLocal \
 && ./gradlew :butcherknife-gradle-plugin:publishOfficialPublicationToMavenLocal \
 && ./gradlew clean \
 && export IS_EXCLUDE_EXAMPLE=false